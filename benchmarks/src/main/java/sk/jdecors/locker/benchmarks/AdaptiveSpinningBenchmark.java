@@ -0,0 +1,69 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contended short critical sections with the default always-park acquisition and with adaptive spinning.
+ * The strategy is selected by system property before the first lock is created, so each parameter combination
+ * must run in its own fork. Spinning is disabled on a single processor, so both variants are equal there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptiveSpinningBenchmark {
+
+    private static final String ADAPTIVE_SPINNING_PROPERTY = "sk.jdecors.locker.adaptiveSpinning";
+    private static final int PERCENT = 100;
+
+    @Param({"false", "true"})
+    private boolean adaptiveSpinning;
+
+    @Param({"0", "90"})
+    private int readPercent;
+
+    private LockedTarget lockedTarget;
+
+    @Setup(Level.Trial)
+    public void selectAcquisition() {
+        System.setProperty(ADAPTIVE_SPINNING_PROPERTY, Boolean.toString(adaptiveSpinning));
+        lockedTarget = new LockedTarget();
+    }
+
+    @Benchmark
+    public long shortSection() {
+        if (ThreadLocalRandom.current().nextInt(PERCENT) < readPercent) {
+            return lockedTarget.read();
+        }
+        return lockedTarget.write();
+    }
+}
\ No newline at end of file
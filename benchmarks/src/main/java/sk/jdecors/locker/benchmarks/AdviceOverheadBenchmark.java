@@ -0,0 +1,116 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a single call through the locking advice compared to a plain call and to a hand-written
+ * {@link java.util.concurrent.locks.StampedLock}. With {@code -prof gc}, {@code gc.alloc.rate.norm} shows
+ * allocations of woven calls - the advice itself doesn't allocate on the steady-state path, but each advised
+ * call allocates its join point (80 B per call on JDK 8), so nested calls such as {@link #chainedRead()}
+ * allocate per advised method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdviceOverheadBenchmark {
+
+    private final LockedTarget lockedTarget = new LockedTarget();
+    private final HandWrittenTarget handWrittenTarget = new HandWrittenTarget();
+
+    /**
+     * Host-scoped methods need the lock file, it is set before the first of them is called.
+     */
+    @Setup(Level.Trial)
+    public void setUpHostLockFile() throws IOException {
+        final Path lockFile = Files.createTempFile("host-locks", ".bin");
+        lockFile.toFile().deleteOnExit();
+        System.setProperty("sk.jdecors.locker.hostLockFile", lockFile.toString());
+    }
+
+    @Benchmark
+    public long plainCall() {
+        return lockedTarget.plainRead();
+    }
+
+    @Benchmark
+    public long handWrittenRead() {
+        return handWrittenTarget.read();
+    }
+
+    @Benchmark
+    public long handWrittenWrite() {
+        return handWrittenTarget.write();
+    }
+
+    @Benchmark
+    public long singleStampRead() {
+        return lockedTarget.read();
+    }
+
+    @Benchmark
+    public long singleStampWrite() {
+        return lockedTarget.write();
+    }
+
+    @Benchmark
+    public long multipleStampsRead() {
+        return lockedTarget.readWithMultipleLocks();
+    }
+
+    @Benchmark
+    public long multipleStampsWrite() {
+        return lockedTarget.writeWithMultipleLocks();
+    }
+
+    @Benchmark
+    public long chainedRead() {
+        return lockedTarget.chainedRead();
+    }
+
+    @Benchmark
+    public long readUpgradedToWrite() {
+        return lockedTarget.readUpgradedToWrite();
+    }
+
+    @Benchmark
+    public long hostScopedRead() {
+        return lockedTarget.hostScopedRead();
+    }
+
+    @Benchmark
+    public long hostScopedWrite() {
+        return lockedTarget.hostScopedWrite();
+    }
+}
\ No newline at end of file
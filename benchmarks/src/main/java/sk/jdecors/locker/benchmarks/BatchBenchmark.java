@@ -0,0 +1,70 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sk.jdecors.locker.aspects.Locker;
+
+/**
+ * Per-item cost of a batch of annotated calls executed one by one and executed in one {@link Locker} block,
+ * which acquires the lock only once for the whole batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int[] STAMPS = {0};
+
+    private final LockedTarget lockedTarget = new LockedTarget();
+    private final Locker locker = Locker.of(lockedTarget);
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long separateWrites() {
+        long result = 0;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            result = lockedTarget.write();
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long batchedWrites() {
+        return locker.write(STAMPS, () -> {
+            long result = 0;
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                result = lockedTarget.write();
+            }
+            return result;
+        });
+    }
+}
\ No newline at end of file
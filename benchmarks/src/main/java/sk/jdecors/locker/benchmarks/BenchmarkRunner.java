@@ -0,0 +1,74 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks with GC profiler (allocation rate) for thread counts from 1 up to the number of
+ * available processors, the write combining benchmark is executed also with 8, 16 and 32 threads and the reader
+ * bias benchmark with 1 to 64 threads.
+ * If some arguments are passed, they are handed over to the standard JMH launcher.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] WRITE_COMBINING_THREAD_COUNTS = {8, 16, 32};
+    private static final int[] READ_SCALING_THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length > 0) {
+            Main.main(args);
+            return;
+        }
+        for (final int threads : getThreadCounts(Runtime.getRuntime().availableProcessors())) {
+            runBenchmarks(BenchmarkRunner.class.getPackage().getName() + ".*", threads);
+        }
+        for (final int threads : WRITE_COMBINING_THREAD_COUNTS) {
+            runBenchmarks(WriteCombiningBenchmark.class.getName(), threads);
+        }
+        for (final int threads : READ_SCALING_THREAD_COUNTS) {
+            runBenchmarks(ReaderBiasBenchmark.class.getName(), threads);
+        }
+    }
+
+    private static void runBenchmarks(final String include, final int threads) throws RunnerException {
+        final Options options = new OptionsBuilder()
+            .include(include)
+            .threads(threads)
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+
+    private static SortedSet<Integer> getThreadCounts(final int processors) {
+        final SortedSet<Integer> threadCounts = new TreeSet<>();
+        for (int threads = 1; threads < processors; threads <<= 1) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+        return threadCounts;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Latency distribution of readers and of a writer contending for one stamp under each fairness policy - seven
+ * readers and one writer call methods with the same constant amount of work, so differences in the sampled
+ * percentiles (p0.99, p0.999) are caused by waiting for the lock. The policy is fixed by the annotations,
+ * so each policy has its own target class.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FairnessBenchmark {
+
+    private static final long WORK_TOKENS = 50;
+
+    private interface PolicyTarget {
+        long read();
+
+        long write();
+    }
+
+    private static final class DefaultTarget implements PolicyTarget {
+        private long value;
+
+        @LockedForRead
+        @Override
+        public long read() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return value;
+        }
+
+        @LockedForWrite
+        @Override
+        public long write() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return ++value;
+        }
+    }
+
+    private static final class WriterPreferringTarget implements PolicyTarget {
+        private long value;
+
+        @LockedForRead(policy = FairnessPolicy.WRITER_PREFERRING)
+        @Override
+        public long read() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return value;
+        }
+
+        @LockedForWrite(policy = FairnessPolicy.WRITER_PREFERRING)
+        @Override
+        public long write() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return ++value;
+        }
+    }
+
+    private static final class ReaderPreferringTarget implements PolicyTarget {
+        private long value;
+
+        @LockedForRead(policy = FairnessPolicy.READER_PREFERRING)
+        @Override
+        public long read() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return value;
+        }
+
+        @LockedForWrite(policy = FairnessPolicy.READER_PREFERRING)
+        @Override
+        public long write() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return ++value;
+        }
+    }
+
+    private static final class PhaseFairTarget implements PolicyTarget {
+        private long value;
+
+        @LockedForRead(policy = FairnessPolicy.PHASE_FAIR)
+        @Override
+        public long read() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return value;
+        }
+
+        @LockedForWrite(policy = FairnessPolicy.PHASE_FAIR)
+        @Override
+        public long write() {
+            Blackhole.consumeCPU(WORK_TOKENS);
+            return ++value;
+        }
+    }
+
+    @Param({"DEFAULT", "WRITER_PREFERRING", "READER_PREFERRING", "PHASE_FAIR"})
+    private FairnessPolicy policy;
+
+    private PolicyTarget target;
+
+    @Setup(Level.Trial)
+    public void createTarget() {
+        switch (policy) {
+            case WRITER_PREFERRING:
+                target = new WriterPreferringTarget();
+                break;
+            case READER_PREFERRING:
+                target = new ReaderPreferringTarget();
+                break;
+            case PHASE_FAIR:
+                target = new PhaseFairTarget();
+                break;
+            default:
+                target = new DefaultTarget();
+        }
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(7)
+    public long reader() {
+        return target.read();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public long writer() {
+        return target.write();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Baseline that guards the same work as {@link LockedTarget} by hand-written {@link StampedLock} calls.
+ */
+public class HandWrittenTarget {
+
+    private final StampedLock stampedLock = new StampedLock();
+    private long value;
+
+    public long read() {
+        final long stamp = stampedLock.readLock();
+        try {
+            return value;
+        } finally {
+            stampedLock.unlockRead(stamp);
+        }
+    }
+
+    public long write() {
+        final long stamp = stampedLock.writeLock();
+        try {
+            return ++value;
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+}
\ No newline at end of file
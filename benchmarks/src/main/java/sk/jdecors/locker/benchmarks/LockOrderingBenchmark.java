@@ -0,0 +1,180 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Throughput of methods that declare the same stamps in conflicting orders - canonical ordering, all-or-nothing
+ * acquisition and emulation of acquisition in the declared order (which was used by previous versions
+ * of the aspect). The emulation recovers from deadlocks by timed acquisitions, so it pays for each of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockOrderingBenchmark {
+
+    private static final int OPERATIONS = 4;
+    private static final long DEADLOCK_TIMEOUT_MILLIS = 10;
+    private static final int[][] DECLARED_ORDERS = {{0, 1, 2}, {2, 1, 0}, {1, 2, 0}};
+    private static final int[] DECLARED_READ_ORDER = {2, 0};
+
+    public enum Ordering {
+        CANONICAL,
+        ALL_OR_NOTHING,
+        DECLARED
+    }
+
+    private static final class ConflictingOrders {
+        private long counter;
+
+        @LockedForWrite(stamp = {1, 2, 3})
+        long forward() {
+            return ++counter;
+        }
+
+        @LockedForWrite(stamp = {3, 2, 1})
+        long backward() {
+            return ++counter;
+        }
+
+        @LockedForWrite(stamp = {2, 3, 1})
+        long rotated() {
+            return ++counter;
+        }
+
+        @LockedForRead(stamp = {3, 1})
+        long read() {
+            return counter;
+        }
+
+        @LockedForWrite(stamp = {1, 2, 3}, allOrNothing = true)
+        long forwardAllOrNothing() {
+            return ++counter;
+        }
+
+        @LockedForWrite(stamp = {3, 2, 1}, allOrNothing = true)
+        long backwardAllOrNothing() {
+            return ++counter;
+        }
+
+        @LockedForWrite(stamp = {2, 3, 1}, allOrNothing = true)
+        long rotatedAllOrNothing() {
+            return ++counter;
+        }
+
+        @LockedForRead(stamp = {3, 1}, allOrNothing = true)
+        long readAllOrNothing() {
+            return counter;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OperationSequence {
+        private int operation;
+
+        int next() {
+            operation = (operation + 1) % OPERATIONS;
+            return operation;
+        }
+    }
+
+    @Param
+    private Ordering ordering;
+
+    private final ConflictingOrders target = new ConflictingOrders();
+    private final StampedLock[] locks = {new StampedLock(), new StampedLock(), new StampedLock()};
+    private long emulatedCounter;
+
+    @Benchmark
+    public long conflictingOrders(final OperationSequence sequence) throws InterruptedException {
+        final int operation = sequence.next();
+        switch (ordering) {
+            case CANONICAL:
+                return callCanonical(operation);
+            case ALL_OR_NOTHING:
+                return callAllOrNothing(operation);
+            default:
+                return callDeclared(operation);
+        }
+    }
+
+    private long callCanonical(final int operation) {
+        switch (operation) {
+            case 0:
+                return target.forward();
+            case 1:
+                return target.backward();
+            case 2:
+                return target.rotated();
+            default:
+                return target.read();
+        }
+    }
+
+    private long callAllOrNothing(final int operation) {
+        switch (operation) {
+            case 0:
+                return target.forwardAllOrNothing();
+            case 1:
+                return target.backwardAllOrNothing();
+            case 2:
+                return target.rotatedAllOrNothing();
+            default:
+                return target.readAllOrNothing();
+        }
+    }
+
+    private long callDeclared(final int operation) throws InterruptedException {
+        final boolean write = operation < DECLARED_ORDERS.length;
+        final int[] order = write ? DECLARED_ORDERS[operation] : DECLARED_READ_ORDER;
+        final long[] stamps = new long[order.length];
+        while (true) {
+            int acquired = 0;
+            for (; acquired < order.length; acquired++) {
+                final StampedLock lock = locks[order[acquired]];
+                stamps[acquired] = write ? lock.tryWriteLock(DEADLOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    : lock.tryReadLock(DEADLOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (stamps[acquired] == 0) {
+                    break;
+                }
+            }
+            final long result = acquired == order.length ? (write ? ++emulatedCounter : emulatedCounter) : -1;
+            for (int i = acquired - 1; i >= 0; i--) {
+                locks[order[i]].unlock(stamps[i]);
+            }
+            if (result >= 0) {
+                return result;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.locks.LockSupport;
+import sk.jdecors.locker.annotations.LockScope;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Target of the benchmarks woven by the locking aspect - the protected work is deliberately minimal, so
+ * the measured time is dominated by the advice and the lock primitives.
+ */
+public class LockedTarget {
+
+    private long value;
+
+    public long plainRead() {
+        return value;
+    }
+
+    @LockedForRead
+    public long read() {
+        return value;
+    }
+
+    @LockedForWrite
+    public long write() {
+        return ++value;
+    }
+
+    @LockedForRead
+    public long blockingRead(final long blockingNanos) {
+        LockSupport.parkNanos(blockingNanos);
+        return value;
+    }
+
+    @LockedForWrite(stamp = 40)
+    public long shortWrite() {
+        return ++value;
+    }
+
+    @LockedForWrite(stamp = 41, combining = true)
+    public long combinedWrite() {
+        return ++value;
+    }
+
+    @LockedForRead(stamp = {1, 2, 3, 4, 5})
+    public long readWithMultipleLocks() {
+        return value;
+    }
+
+    @LockedForWrite(stamp = {1, 2, 3, 4, 5})
+    public long writeWithMultipleLocks() {
+        return ++value;
+    }
+
+    @LockedForRead
+    public long chainedRead() {
+        return chainedReadPart();
+    }
+
+    @LockedForRead
+    private long chainedReadPart() {
+        return value;
+    }
+
+    @LockedForRead(stamp = {10, 15, 20})
+    public long readUpgradedToWrite() {
+        return readUpgradedToWritePart();
+    }
+
+    @LockedForWrite(stamp = {15, 20, 30})
+    private long readUpgradedToWritePart() {
+        return ++value;
+    }
+
+    @LockedForRead(stamp = 50, scope = LockScope.HOST)
+    public long hostScopedRead() {
+        return value;
+    }
+
+    @LockedForWrite(stamp = 50, scope = LockScope.HOST)
+    public long hostScopedWrite() {
+        return ++value;
+    }
+}
\ No newline at end of file
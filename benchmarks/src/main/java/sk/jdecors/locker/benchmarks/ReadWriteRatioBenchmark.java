@@ -0,0 +1,86 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of mixed read and write calls shared by all benchmark threads - the number of threads is
+ * configured by {@link BenchmarkRunner} or by the JMH '-t' option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteRatioBenchmark {
+
+    private static final int PERCENTAGE = 100;
+
+    @Param({"100", "90", "75", "50"})
+    private int readPercentage;
+
+    private final LockedTarget lockedTarget = new LockedTarget();
+    private final HandWrittenTarget handWrittenTarget = new HandWrittenTarget();
+
+    @Benchmark
+    public long handWritten() {
+        if (isRead()) {
+            return handWrittenTarget.read();
+        }
+        return handWrittenTarget.write();
+    }
+
+    @Benchmark
+    public long singleStamp() {
+        if (isRead()) {
+            return lockedTarget.read();
+        }
+        return lockedTarget.write();
+    }
+
+    @Benchmark
+    public long multipleStamps() {
+        if (isRead()) {
+            return lockedTarget.readWithMultipleLocks();
+        }
+        return lockedTarget.writeWithMultipleLocks();
+    }
+
+    @Benchmark
+    public long chainedAndUpgraded() {
+        if (isRead()) {
+            return lockedTarget.chainedRead();
+        }
+        return lockedTarget.readUpgradedToWrite();
+    }
+
+    private boolean isRead() {
+        return ThreadLocalRandom.current().nextInt(PERCENTAGE) < readPercentage;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Heap retained per locked object by the per-object aspect instances and by the shared lock table. Both modes
+ * are measured in their own JVM, because the mode is selected by system property before the aspect
+ * is initialized:
+ * {@code java -cp target/benchmarks.jar sk.jdecors.locker.benchmarks.RetainedHeapBenchmark [objects]}
+ */
+public final class RetainedHeapBenchmark {
+
+    private static final String SHARED_LOCK_TABLE_PROPERTY = "sk.jdecors.locker.sharedLockTable";
+    private static final String MEASURE_ARGUMENT = "measure";
+    private static final int DEFAULT_OBJECTS = 1_000_000;
+    private static final int GC_ROUNDS = 5;
+
+    private RetainedHeapBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length > 1 && MEASURE_ARGUMENT.equals(args[0])) {
+            System.out.println(measure(Integer.parseInt(args[1])));
+            return;
+        }
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OBJECTS;
+        System.out.printf("per-object aspects: %.1f bytes/object%n", runMeasurement(false, objects));
+        System.out.printf("shared lock table:  %.1f bytes/object%n", runMeasurement(true, objects));
+    }
+
+    private static double runMeasurement(final boolean sharedLockTable, final int objects) throws Exception {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-D" + SHARED_LOCK_TABLE_PROPERTY + '=' + sharedLockTable);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RetainedHeapBenchmark.class.getName());
+        command.add(MEASURE_ARGUMENT);
+        command.add(Integer.toString(objects));
+        final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        final String output;
+        try (Scanner scanner = new Scanner(process.getInputStream(), "UTF-8")) {
+            output = scanner.useDelimiter("\\A").next().trim();
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Measurement has failed: " + output);
+        }
+        return Double.parseDouble(output);
+    }
+
+    private static double measure(final int objects) {
+        final LockedTarget[] targets = new LockedTarget[objects];
+        for (int i = 0; i < objects; i++) {
+            targets[i] = new LockedTarget();
+        }
+        final long heapBefore = usedHeap();
+        long sum = 0;
+        for (final LockedTarget target : targets) {
+            sum += target.read() + target.write();
+        }
+        final long heapAfter = usedHeap();
+        if (sum == 0) {
+            throw new IllegalStateException("Targets have not been locked.");
+        }
+        // targets stay reachable until the heap is measured
+        return (double) (heapAfter - heapBefore) / targets.length;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
\ No newline at end of file
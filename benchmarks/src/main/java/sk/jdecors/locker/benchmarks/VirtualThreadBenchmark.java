@@ -0,0 +1,97 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to serve a burst of concurrent callers that block while holding a read lock, interleaved with
+ * writers - either by a bounded pool of platform threads or by one virtual thread per caller. Virtual
+ * threads require JDK 21 or newer, on older JDKs the 'virtual' variant fails in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+    private static final int WRITE_INTERVAL = 10;
+    private static final long BLOCKING_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({"platform", "virtual"})
+    private String executor;
+
+    @Param({"1000", "10000"})
+    private int callers;
+
+    private final LockedTarget lockedTarget = new LockedTarget();
+    private ExecutorService executorService;
+
+    @Setup
+    public void createExecutor() throws ReflectiveOperationException {
+        if ("virtual".equals(executor)) {
+            executorService = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } else {
+            executorService = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown
+    public void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Benchmark
+    public long burstOfCallers() throws InterruptedException, ExecutionException {
+        final List<Future<Long>> futures = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            if (i % WRITE_INTERVAL == 0) {
+                futures.add(executorService.submit(lockedTarget::write));
+            } else {
+                futures.add(executorService.submit(() -> lockedTarget.blockingRead(BLOCKING_NANOS)));
+            }
+        }
+        long sum = 0;
+        for (final Future<Long> future : futures) {
+            sum += future.get();
+        }
+        return sum;
+    }
+}
\ No newline at end of file
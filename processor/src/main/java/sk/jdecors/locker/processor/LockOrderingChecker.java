@@ -0,0 +1,332 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.processor;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.function.Function;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Builds static graph of the order in which stamps are locked. Locks of each annotated method are acquired
+ * in ascending order of stamps; a method invoked from the body of an annotated method (directly or through
+ * methods without annotation whose sources are compiled together) orders stamps held by the caller before
+ * stamps needed by the callee. Each type advised per instance has its own locks, so stamps of different
+ * declaring types are different nodes of the graph; host-scoped stamps are shared by all types. A cycle
+ * in the graph means that the stamps can be locked in conflicting order.
+ * Nested annotated calls that acquire stamps not held by the caller are reported as well, and so are write
+ * methods invoked under a read lock - the read lock is released while the write lock is acquired, unless it
+ * can be converted in place. Bodies of lambdas and nested classes are not followed, they may be executed later.
+ * Invocations are resolved only in attributed trees, so methods are checked after the compiler analyzes
+ * their classes.
+ */
+final class LockOrderingChecker implements TaskListener {
+    private final Trees trees;
+    private final Messager messager;
+    private final Function<ExecutableElement, MethodPlan> planner;
+    private final Diagnostic.Kind kind;
+    private final Map<StampNode, Map<StampNode, String>> stampOrder = new TreeMap<>();
+    private final Set<String> pendingTypes = new HashSet<>();
+    private boolean processingOver;
+
+    private LockOrderingChecker(final Trees trees, final Messager messager,
+        final Function<ExecutableElement, MethodPlan> planner, final Diagnostic.Kind kind) {
+        this.trees = trees;
+        this.messager = messager;
+        this.planner = planner;
+        this.kind = kind;
+    }
+
+    /**
+     * Returns null if the compiler doesn't provide the tree API.
+     */
+    static LockOrderingChecker create(final ProcessingEnvironment processingEnv,
+        final Function<ExecutableElement, MethodPlan> planner, final Diagnostic.Kind kind) {
+        final LockOrderingChecker checker;
+        try {
+            checker = new LockOrderingChecker(Trees.instance(processingEnv), processingEnv.getMessager(), planner,
+                kind);
+            JavacTask.instance(processingEnv).addTaskListener(checker);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        return checker;
+    }
+
+    /**
+     * The method is checked after its top-level class is analyzed - the compiler may create new elements
+     * of the class in later rounds, so annotated methods are looked up again by the class name.
+     */
+    void add(final MethodPlan caller) {
+        Element type = caller.getMethod().getEnclosingElement();
+        while (type.getEnclosingElement() instanceof TypeElement) {
+            type = type.getEnclosingElement();
+        }
+        pendingTypes.add(((TypeElement) type).getQualifiedName().toString());
+    }
+
+    /**
+     * Cycles are reported after the last round of annotation processing, when all pending methods are checked.
+     */
+    void processingOver() {
+        processingOver = true;
+        if (pendingTypes.isEmpty()) {
+            reportCycles();
+        }
+    }
+
+    @Override
+    public void started(final TaskEvent event) {
+    }
+
+    @Override
+    public void finished(final TaskEvent event) {
+        if (event.getKind() != TaskEvent.Kind.ANALYZE || event.getTypeElement() == null
+            || !pendingTypes.remove(event.getTypeElement().getQualifiedName().toString())) {
+            return;
+        }
+        checkType(event.getTypeElement());
+        if (processingOver && pendingTypes.isEmpty()) {
+            reportCycles();
+        }
+    }
+
+    private void checkType(final TypeElement type) {
+        for (final ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            final MethodPlan caller = planner.apply(method);
+            if (caller != null) {
+                check(caller, method);
+            }
+        }
+        ElementFilter.typesIn(type.getEnclosedElements()).forEach(this::checkType);
+    }
+
+    private void check(final MethodPlan caller, final ExecutableElement method) {
+        final int[] stamps = caller.getStamps();
+        for (int i = 1; i < stamps.length; i++) {
+            addOrder(StampNode.of(caller, stamps[i - 1]), StampNode.of(caller, stamps[i]), describe(caller));
+        }
+        scanBody(caller, method, new HashSet<>());
+    }
+
+    /**
+     * Reports strongly connected components of the stamp graph.
+     */
+    private void reportCycles() {
+        new CycleFinder().findCycles().forEach(cycle -> {
+            final StringJoiner edges = new StringJoiner(", ");
+            for (final StampNode from : cycle) {
+                stampOrder.getOrDefault(from, new TreeMap<>()).forEach((to, origin) -> {
+                    if (cycle.contains(to)) {
+                        edges.add(String.format("%s -> %s by %s", from, to, origin));
+                    }
+                });
+            }
+            messager.printMessage(kind, String.format("Stamps %s may be locked in conflicting order: %s", cycle,
+                edges));
+        });
+    }
+
+    private void scanBody(final MethodPlan caller, final ExecutableElement method,
+        final Set<ExecutableElement> visited) {
+        if (!visited.add(method)) {
+            return;
+        }
+        final TreePath path = trees.getPath(method);
+        if (path == null || !(path.getLeaf() instanceof MethodTree)) {
+            return;
+        }
+        final MethodTree tree = (MethodTree) path.getLeaf();
+        if (tree.getBody() == null) {
+            return;
+        }
+        new TreePathScanner<Void, Void>() {
+            @Override
+            public Void visitClass(final ClassTree node, final Void parameter) {
+                return null;
+            }
+
+            @Override
+            public Void visitLambdaExpression(final LambdaExpressionTree node, final Void parameter) {
+                return null;
+            }
+
+            @Override
+            public Void visitMethodInvocation(final MethodInvocationTree node, final Void parameter) {
+                final Element element = trees.getElement(getCurrentPath());
+                if (element instanceof ExecutableElement) {
+                    checkCall(caller, (ExecutableElement) element, getCurrentPath(), visited);
+                }
+                return super.visitMethodInvocation(node, parameter);
+            }
+        }.scan(new TreePath(path, tree.getBody()), null);
+    }
+
+    private void checkCall(final MethodPlan caller, final ExecutableElement method, final TreePath callPath,
+        final Set<ExecutableElement> visited) {
+        final MethodPlan callee = planner.apply(method);
+        if (callee != null) {
+            final int[] heldStamps = caller.getStamps();
+            final boolean sameLocks = StampNode.getOwner(caller).equals(StampNode.getOwner(callee));
+            final int[] missingStamps = Arrays.stream(callee.getStamps())
+                .filter(stamp -> !sameLocks || Arrays.binarySearch(heldStamps, stamp) < 0)
+                .toArray();
+            if (callee.isWrite() && !caller.isWrite()) {
+                trees.printMessage(kind, String.format("Write method %s is invoked under read lock of %s, the read "
+                    + "lock may be released before it is upgraded (write-inside-read escalation).", describe(callee),
+                    describe(caller)), callPath.getLeaf(), callPath.getCompilationUnit());
+            } else if (missingStamps.length > 0) {
+                trees.printMessage(Diagnostic.Kind.WARNING, String.format("Nested call of %s under locks of %s "
+                    + "acquires also stamps %s.", describe(callee), describe(caller),
+                    Arrays.toString(missingStamps)), callPath.getLeaf(), callPath.getCompilationUnit());
+            }
+            for (final int heldStamp : heldStamps) {
+                for (final int missingStamp : missingStamps) {
+                    addOrder(StampNode.of(caller, heldStamp), StampNode.of(callee, missingStamp),
+                        describe(caller) + " calling " + describe(callee));
+                }
+            }
+        }
+        scanBody(caller, method, visited);
+    }
+
+    private void addOrder(final StampNode from, final StampNode to, final String origin) {
+        stampOrder.computeIfAbsent(from, stamp -> new TreeMap<>()).putIfAbsent(to, origin);
+    }
+
+    private static String describe(final MethodPlan plan) {
+        final ExecutableElement method = plan.getMethod();
+        return String.format("%s.%s %s", method.getEnclosingElement().getSimpleName(), method,
+            Arrays.toString(plan.getStamps()));
+    }
+
+    /**
+     * Stamp of locks owned by instances of the declaring type, or of host-wide locks.
+     */
+    private static final class StampNode implements Comparable<StampNode> {
+        private static final String HOST = "host";
+
+        private final String owner;
+        private final int stamp;
+
+        private StampNode(final String owner, final int stamp) {
+            this.owner = owner;
+            this.stamp = stamp;
+        }
+
+        static StampNode of(final MethodPlan plan, final int stamp) {
+            return new StampNode(getOwner(plan), stamp);
+        }
+
+        static String getOwner(final MethodPlan plan) {
+            return plan.isHostScoped() ? HOST
+                : ((TypeElement) plan.getMethod().getEnclosingElement()).getQualifiedName().toString();
+        }
+
+        @Override
+        public int compareTo(final StampNode other) {
+            final int result = owner.compareTo(other.owner);
+            return result != 0 ? result : Integer.compare(stamp, other.stamp);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof StampNode && compareTo((StampNode) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner.hashCode() + stamp;
+        }
+
+        @Override
+        public String toString() {
+            return owner + '#' + stamp;
+        }
+    }
+
+    /**
+     * Tarjan's algorithm of strongly connected components - only components with more than one stamp
+     * are returned, a node is never ordered before itself.
+     */
+    private final class CycleFinder {
+        private final Map<StampNode, Integer> indexes = new HashMap<>();
+        private final Map<StampNode, Integer> lowLinks = new HashMap<>();
+        private final List<StampNode> stack = new ArrayList<>();
+        private final Set<StampNode> stacked = new HashSet<>();
+        private final List<List<StampNode>> cycles = new ArrayList<>();
+
+        List<List<StampNode>> findCycles() {
+            stampOrder.keySet().forEach(stamp -> {
+                if (!indexes.containsKey(stamp)) {
+                    visit(stamp);
+                }
+            });
+            return cycles;
+        }
+
+        private void visit(final StampNode stamp) {
+            indexes.put(stamp, indexes.size());
+            lowLinks.put(stamp, indexes.get(stamp));
+            stack.add(stamp);
+            stacked.add(stamp);
+            for (final StampNode next : stampOrder.getOrDefault(stamp, new TreeMap<>()).keySet()) {
+                if (!indexes.containsKey(next)) {
+                    visit(next);
+                    lowLinks.put(stamp, Math.min(lowLinks.get(stamp), lowLinks.get(next)));
+                } else if (stacked.contains(next)) {
+                    lowLinks.put(stamp, Math.min(lowLinks.get(stamp), indexes.get(next)));
+                }
+            }
+            if (lowLinks.get(stamp).equals(indexes.get(stamp))) {
+                final List<StampNode> component = new ArrayList<>();
+                StampNode member;
+                do {
+                    member = stack.remove(stack.size() - 1);
+                    stacked.remove(member);
+                    component.add(member);
+                } while (!member.equals(stamp));
+                if (component.size() > 1) {
+                    component.sort(null);
+                    cycles.add(component);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,434 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.processor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Resolves lock plans of annotated methods at build time. The plans are validated by the same rules
+ * the aspect applies when it plans the method at runtime, so misconfigured annotations fail the build,
+ * and they are written to an index that the aspect loads instead of reading the annotations reflectively.
+ * Bodies of annotated methods are checked by {@link LockOrderingChecker} if the compiler provides
+ * the tree API.
+ */
+@SupportedAnnotationTypes({LockPlanProcessor.READ_ANNOTATION, LockPlanProcessor.UPGRADABLE_READ_ANNOTATION,
+    LockPlanProcessor.WRITE_ANNOTATION})
+@SupportedOptions(LockPlanProcessor.LOCK_ORDERING_OPTION)
+public final class LockPlanProcessor extends AbstractProcessor {
+    static final String READ_ANNOTATION = "sk.jdecors.locker.annotations.LockedForRead";
+    static final String UPGRADABLE_READ_ANNOTATION = "sk.jdecors.locker.annotations.LockedForUpgradableRead";
+    static final String WRITE_ANNOTATION = "sk.jdecors.locker.annotations.LockedForWrite";
+    private static final String STAMP_GROUP_ANNOTATION = "sk.jdecors.locker.annotations.StampGroup";
+    private static final String STAMP_GROUPS_ANNOTATION = "sk.jdecors.locker.annotations.StampGroups";
+    private static final String LOCK_SCOPE = "sk.jdecors.locker.annotations.LockScope";
+
+    /**
+     * Location of the index in the class output - it must be kept in sync with the aspect.
+     */
+    static final String INDEX_RESOURCE = "META-INF/sk.jdecors.locker/lock-plans.idx";
+    static final String INDEX_HEADER = "# sk.jdecors.locker lock plans v3";
+
+    /**
+     * Kind of diagnostics reported for violations of lock ordering - 'warning' (default) or 'error'.
+     */
+    static final String LOCK_ORDERING_OPTION = "sk.jdecors.locker.lockOrdering";
+
+    private static final String FALLBACK_POLICY = "FALLBACK";
+
+    private final Map<String, MethodPlan> resolvedPlans = new HashMap<>();
+    private final Map<String, MethodPlan> indexedPlans = new TreeMap<>();
+    private Elements elements;
+    private Types types;
+    private LockOrderingChecker lockOrderingChecker;
+
+    @Override
+    public synchronized void init(final ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        final Diagnostic.Kind kind = "error".equalsIgnoreCase(processingEnv.getOptions().get(LOCK_ORDERING_OPTION))
+            ? Diagnostic.Kind.ERROR : Diagnostic.Kind.WARNING;
+        lockOrderingChecker = LockOrderingChecker.create(processingEnv, this::findPlan, kind);
+        if (lockOrderingChecker == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Lock ordering is not checked, "
+                + "the compiler doesn't provide the tree API.");
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (final TypeElement annotation : annotations) {
+            for (final ExecutableElement method : ElementFilter.methodsIn(
+                roundEnv.getElementsAnnotatedWith(annotation))) {
+                final MethodPlan plan = findPlan(method);
+                if (plan != null) {
+                    indexedPlans.put(plan.getKey(), plan);
+                    if (lockOrderingChecker != null) {
+                        lockOrderingChecker.add(plan);
+                    }
+                }
+            }
+        }
+        if (roundEnv.processingOver()) {
+            if (lockOrderingChecker != null) {
+                lockOrderingChecker.processingOver();
+            }
+            writeIndex();
+        }
+        return false;
+    }
+
+    /**
+     * Plan of the method, or null if the method is not annotated or its annotation is not valid - errors
+     * are reported only once per method.
+     */
+    private MethodPlan findPlan(final ExecutableElement method) {
+        for (final AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            final String annotationName = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName()
+                .toString();
+            final String lockMode;
+            if (READ_ANNOTATION.equals(annotationName)) {
+                lockMode = MethodPlan.MODE_READ;
+            } else if (UPGRADABLE_READ_ANNOTATION.equals(annotationName)) {
+                lockMode = MethodPlan.MODE_UPGRADABLE_READ;
+            } else if (WRITE_ANNOTATION.equals(annotationName)) {
+                lockMode = MethodPlan.MODE_WRITE;
+            } else {
+                continue;
+            }
+            final String key = getKey(method);
+            if (!resolvedPlans.containsKey(key)) {
+                resolvedPlans.put(key, createPlan(method, key, lockMode, mirror));
+            }
+            return resolvedPlans.get(key);
+        }
+        return null;
+    }
+
+    private MethodPlan createPlan(final ExecutableElement method, final String key, final String lockMode,
+        final AnnotationMirror mirror) {
+        final Map<String, Object> values = getValues(mirror);
+        final boolean allOrNothing = (Boolean) values.get("allOrNothing");
+        final boolean optimistic = (Boolean) values.getOrDefault("optimistic", false);
+        final int optimisticRetries = (Integer) values.getOrDefault("optimisticRetries", 0);
+        final long timeout = (Long) values.get("timeout");
+        final String timeoutPolicy = ((VariableElement) values.get("onTimeout")).getSimpleName().toString();
+        final String fallback = (String) values.get("fallback");
+        final int keyArg = (Integer) values.getOrDefault("keyArg", -1);
+        final String keyGetter = (String) values.getOrDefault("keyGetter", "");
+        final int stripes = (Integer) values.getOrDefault("stripes", 64);
+        final boolean combining = (Boolean) values.getOrDefault("combining", false);
+        final Object scope = values.get("scope");
+        final Object policy = values.get("policy");
+        final MethodPlan plan = new MethodPlan(method, key, lockMode, getStamps(values.get("stamp")),
+            allOrNothing, timeout,
+            TimeUnit.valueOf(((VariableElement) values.get("unit")).getSimpleName().toString()), timeoutPolicy,
+            fallback, optimistic, optimisticRetries, isAsynchronous(method), keyArg, keyGetter, stripes, combining,
+            scope == null ? "PROCESS" : ((VariableElement) scope).getSimpleName().toString(),
+            policy == null ? "DEFAULT" : ((VariableElement) policy).getSimpleName().toString());
+        final boolean valid = validateRetries(method, optimisticRetries)
+            & validateAsynchronous(plan, timeout, optimistic)
+            & validateCombining(plan, timeout, combining)
+            & validateKey(method, keyArg, keyGetter, stripes)
+            & validateHostScope(plan, timeout, optimistic, keyArg, combining)
+            & validateGroups(plan, allOrNothing, optimistic, keyArg, combining)
+            & (!FALLBACK_POLICY.equals(timeoutPolicy) || validateFallback(method, fallback));
+        return valid ? plan : null;
+    }
+
+    private boolean validateRetries(final ExecutableElement method, final int optimisticRetries) {
+        if (optimisticRetries < 0) {
+            return error(method, "Number of optimistic retries must be non-negative.");
+        }
+        return true;
+    }
+
+    private boolean validateAsynchronous(final MethodPlan plan, final long timeout, final boolean optimistic) {
+        final ExecutableElement method = plan.getMethod();
+        final TypeMirror returnType = types.erasure(method.getReturnType());
+        if (isSubtype(returnType, "java.util.concurrent.CompletionStage")
+            && !types.isAssignable(erasure("java.util.concurrent.CompletableFuture"), returnType)) {
+            return error(method, "Asynchronous method must declare CompletionStage or CompletableFuture "
+                + "as its return type.");
+        }
+        if (plan.isAsynchronous() && (timeout >= 0 || optimistic)) {
+            return error(method, "Timeout and optimistic reading are not supported by asynchronous method.");
+        }
+        if (plan.isAsynchronous() && MethodPlan.MODE_UPGRADABLE_READ.equals(plan.getLockMode())) {
+            return error(method, "Upgradable read lock is not supported by asynchronous method.");
+        }
+        return true;
+    }
+
+    private boolean validateCombining(final MethodPlan plan, final long timeout, final boolean combining) {
+        if (combining && (plan.getStamps().length != 1 || timeout >= 0 || plan.isAsynchronous())) {
+            return error(plan.getMethod(), "Combining is supported only by synchronous methods with single stamp "
+                + "and without timeout.");
+        }
+        return true;
+    }
+
+    private boolean validateHostScope(final MethodPlan plan, final long timeout, final boolean optimistic,
+        final int keyArg, final boolean combining) {
+        if (!plan.isHostScoped()) {
+            return true;
+        }
+        final int maxStamps = getMaxHostStamps();
+        final int[] stamps = plan.getStamps();
+        if (timeout >= 0 || optimistic || plan.isAsynchronous() || keyArg >= 0 || combining
+            || stamps.length > 0 && (stamps[0] < 0 || stamps[stamps.length - 1] >= maxStamps)) {
+            return error(plan.getMethod(), String.format("Host scope is supported only by synchronous methods "
+                + "with stamps between 0 and %d, without timeout, key, optimistic reading and combining.",
+                maxStamps - 1));
+        }
+        return true;
+    }
+
+    /**
+     * Limit declared by the locker itself, so the build-time check cannot drift from the runtime one.
+     */
+    private int getMaxHostStamps() {
+        for (final VariableElement field : ElementFilter.fieldsIn(elements.getTypeElement(LOCK_SCOPE)
+            .getEnclosedElements())) {
+            if (field.getSimpleName().contentEquals("MAX_HOST_STAMPS")) {
+                return (Integer) field.getConstantValue();
+            }
+        }
+        throw new IllegalStateException(String.format("%s doesn't declare limit of host stamps.", LOCK_SCOPE));
+    }
+
+    private boolean validateGroups(final MethodPlan plan, final boolean allOrNothing, final boolean optimistic,
+        final int keyArg, final boolean combining) {
+        if (hasGroups(plan) && (MethodPlan.MODE_UPGRADABLE_READ.equals(plan.getLockMode()) || allOrNothing
+            || optimistic || plan.isAsynchronous() || keyArg >= 0 || combining || plan.isHostScoped())) {
+            return error(plan.getMethod(), "Stamp groups are supported only by synchronous read and write methods "
+                + "without all-or-nothing locking, key, optimistic reading, combining and host scope.");
+        }
+        return true;
+    }
+
+    /**
+     * Whether the method locks a parent or a child of a stamp group declared by its class.
+     */
+    private boolean hasGroups(final MethodPlan plan) {
+        final Set<Integer> groupStamps = new HashSet<>();
+        for (final AnnotationMirror group : getStampGroups((TypeElement) plan.getMethod().getEnclosingElement())) {
+            final Map<String, Object> values = getValues(group);
+            groupStamps.add((Integer) values.get("stamp"));
+            for (final int child : getStamps(values.get("children"))) {
+                groupStamps.add(child);
+            }
+        }
+        for (final int stamp : plan.getStamps()) {
+            if (groupStamps.contains(stamp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<AnnotationMirror> getStampGroups(final TypeElement type) {
+        final List<AnnotationMirror> groups = new ArrayList<>();
+        for (final AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            final String annotationName = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName()
+                .toString();
+            if (STAMP_GROUP_ANNOTATION.equals(annotationName)) {
+                groups.add(mirror);
+            } else if (STAMP_GROUPS_ANNOTATION.equals(annotationName)) {
+                for (final Object group : (List<?>) getValues(mirror).get("value")) {
+                    groups.add((AnnotationMirror) ((AnnotationValue) group).getValue());
+                }
+            }
+        }
+        return groups;
+    }
+
+    private Map<String, Object> getValues(final AnnotationMirror mirror) {
+        final Map<String, Object> values = new HashMap<>();
+        elements.getElementValuesWithDefaults(mirror).forEach((element, value) ->
+            values.put(element.getSimpleName().toString(), value.getValue()));
+        return values;
+    }
+
+    private boolean validateKey(final ExecutableElement method, final int keyArg, final String keyGetter,
+        final int stripes) {
+        if (keyArg < 0) {
+            return keyGetter.isEmpty() || error(method, "Key getter is set without key argument.");
+        }
+        final List<? extends VariableElement> parameters = method.getParameters();
+        if (keyArg >= parameters.size() || stripes <= 0) {
+            return error(method, "Key argument index must refer to a parameter and number of stripes must be "
+                + "positive.");
+        }
+        if (keyGetter.isEmpty()) {
+            return true;
+        }
+        final TypeMirror keyType = parameters.get(keyArg).asType();
+        if (keyType.getKind() == TypeKind.DECLARED) {
+            final TypeElement keyElement = (TypeElement) ((DeclaredType) keyType).asElement();
+            for (final ExecutableElement getter : ElementFilter.methodsIn(elements.getAllMembers(keyElement))) {
+                if (getter.getSimpleName().contentEquals(keyGetter) && getter.getParameters().isEmpty()
+                    && getter.getModifiers().contains(Modifier.PUBLIC)) {
+                    return true;
+                }
+            }
+        }
+        return error(method, String.format("Key getter '%s' is not declared by type of key argument.", keyGetter));
+    }
+
+    private boolean validateFallback(final ExecutableElement method, final String fallback) {
+        final TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+        for (final ExecutableElement candidate : ElementFilter.methodsIn(declaringType.getEnclosedElements())) {
+            if (candidate.getSimpleName().contentEquals(fallback) && hasSameParameterTypes(method, candidate)) {
+                if (!types.isAssignable(types.erasure(candidate.getReturnType()),
+                    types.erasure(method.getReturnType()))) {
+                    return error(method, String.format("Return type of fallback method '%s' is not compatible.",
+                        fallback));
+                }
+                return true;
+            }
+        }
+        return error(method, String.format("Fallback method '%s' with the same parameter types is not declared "
+            + "next to the method.", fallback));
+    }
+
+    private boolean hasSameParameterTypes(final ExecutableElement method, final ExecutableElement candidate) {
+        final List<? extends VariableElement> parameters = method.getParameters();
+        final List<? extends VariableElement> candidateParameters = candidate.getParameters();
+        if (parameters.size() != candidateParameters.size()) {
+            return false;
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            if (!types.isSameType(types.erasure(parameters.get(i).asType()),
+                types.erasure(candidateParameters.get(i).asType()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAsynchronous(final ExecutableElement method) {
+        return isSubtype(types.erasure(method.getReturnType()), "java.util.concurrent.CompletionStage");
+    }
+
+    private boolean isSubtype(final TypeMirror type, final String supertypeName) {
+        return type.getKind() == TypeKind.DECLARED && types.isSubtype(type, erasure(supertypeName));
+    }
+
+    private TypeMirror erasure(final String typeName) {
+        return types.erasure(elements.getTypeElement(typeName).asType());
+    }
+
+    private boolean error(final ExecutableElement method, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, method);
+        return false;
+    }
+
+    /**
+     * Key of the method as the aspect derives it from the method signature at runtime - binary name
+     * of the declaring type, method name and runtime type names of erased parameter types.
+     */
+    private String getKey(final ExecutableElement method) {
+        final StringBuilder key = new StringBuilder();
+        key.append(elements.getBinaryName((TypeElement) method.getEnclosingElement())).append('#')
+            .append(method.getSimpleName()).append('(');
+        final List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            appendTypeName(key, types.erasure(parameters.get(i).asType()));
+        }
+        return key.append(')').toString();
+    }
+
+    private void appendTypeName(final StringBuilder key, final TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            appendTypeName(key, ((ArrayType) type).getComponentType());
+            key.append("[]");
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            key.append(elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()));
+        } else {
+            key.append(type);
+        }
+    }
+
+    private static int[] getStamps(final Object value) {
+        if (value instanceof List) {
+            return ((List<?>) value).stream().mapToInt(stamp -> (Integer) ((AnnotationValue) stamp).getValue())
+                .toArray();
+        }
+        return new int[]{(Integer) value};
+    }
+
+    private void writeIndex() {
+        if (indexedPlans.isEmpty()) {
+            return;
+        }
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                INDEX_RESOURCE, indexedPlans.values().stream().map(MethodPlan::getMethod).toArray(Element[]::new));
+            try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8);
+                PrintWriter printWriter = new PrintWriter(writer)) {
+                printWriter.println(INDEX_HEADER);
+                indexedPlans.values().forEach(plan -> printWriter.println(plan.toIndexLine()));
+            }
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Index of lock plans "
+                + "cannot be written: %s", e));
+        }
+    }
+}
\ No newline at end of file
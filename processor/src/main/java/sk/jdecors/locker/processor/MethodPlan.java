@@ -0,0 +1,116 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.processor;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * Lock plan of one annotated method resolved at build time - its line in the generated index contains
+ * the same values that the aspect otherwise reads from the annotation.
+ */
+final class MethodPlan {
+    static final String MODE_READ = "READ";
+    static final String MODE_UPGRADABLE_READ = "UPGRADABLE_READ";
+    static final String MODE_WRITE = "WRITE";
+
+    private final ExecutableElement method;
+    private final String key;
+    private final String lockMode;
+    private final int[] stamps;
+    private final boolean allOrNothing;
+    private final long timeoutNanos;
+    private final String timeoutPolicy;
+    private final String fallback;
+    private final boolean optimistic;
+    private final int optimisticRetries;
+    private final boolean asynchronous;
+    private final int keyArg;
+    private final String keyGetter;
+    private final int stripes;
+    private final boolean combining;
+    private final String scope;
+    private final String policy;
+
+    MethodPlan(final ExecutableElement method, final String key, final String lockMode, final int[] stamps,
+        final boolean allOrNothing, final long timeout, final TimeUnit unit, final String timeoutPolicy,
+        final String fallback, final boolean optimistic, final int optimisticRetries, final boolean asynchronous,
+        final int keyArg, final String keyGetter, final int stripes, final boolean combining, final String scope,
+        final String policy) {
+        this.method = method;
+        this.key = key;
+        this.lockMode = lockMode;
+        this.stamps = Arrays.stream(stamps).distinct().sorted().toArray();
+        this.allOrNothing = allOrNothing;
+        this.timeoutNanos = timeout < 0 ? -1 : unit.toNanos(timeout);
+        this.timeoutPolicy = timeoutPolicy;
+        this.fallback = fallback;
+        this.optimistic = optimistic;
+        this.optimisticRetries = optimisticRetries;
+        this.asynchronous = asynchronous;
+        this.keyArg = keyArg;
+        this.keyGetter = keyGetter;
+        this.stripes = stripes;
+        this.combining = combining;
+        this.scope = scope;
+        this.policy = policy;
+    }
+
+    ExecutableElement getMethod() {
+        return method;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    String getLockMode() {
+        return lockMode;
+    }
+
+    int[] getStamps() {
+        return stamps.clone();
+    }
+
+    boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    boolean isHostScoped() {
+        return "HOST".equals(scope);
+    }
+
+    boolean isWrite() {
+        return MODE_WRITE.equals(lockMode);
+    }
+
+    /**
+     * Tab-separated line of the index - the format is parsed by the aspect.
+     */
+    String toIndexLine() {
+        final StringJoiner stampsJoiner = new StringJoiner(",");
+        Arrays.stream(stamps).forEach(stamp -> stampsJoiner.add(Integer.toString(stamp)));
+        final StringJoiner line = new StringJoiner("\t");
+        line.add(key).add(lockMode).add(stampsJoiner.toString()).add(Boolean.toString(allOrNothing))
+            .add(Long.toString(timeoutNanos)).add(timeoutPolicy).add(fallback).add(Boolean.toString(optimistic))
+            .add(Integer.toString(optimisticRetries)).add(Boolean.toString(asynchronous))
+            .add(Integer.toString(keyArg)).add(keyGetter).add(Integer.toString(stripes))
+            .add(Boolean.toString(combining)).add(scope).add(policy);
+        return line.toString();
+    }
+}
\ No newline at end of file
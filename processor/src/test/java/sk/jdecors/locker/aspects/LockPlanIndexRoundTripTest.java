@@ -0,0 +1,149 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.aspectj.runtime.reflect.Factory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForUpgradableRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.processor.LockPlanProcessor;
+
+/**
+ * The index is generated by the processor from compiled sources, then each indexed plan is loaded by the aspect
+ * and compared field by field with the plan the aspect reads from annotations.
+ */
+class LockPlanIndexRoundTripTest {
+
+    private static final String PLANNED = String.join("\n",
+        "package sample;",
+        "import java.util.concurrent.CompletableFuture;",
+        "import java.util.concurrent.TimeUnit;",
+        "import sk.jdecors.locker.annotations.*;",
+        "@StampGroup(stamp = 50, children = {51, 52})",
+        "public class Planned {",
+        "    @LockedForRead(stamp = {7, 2, 7}, timeout = 5, unit = TimeUnit.MILLISECONDS,",
+        "        onTimeout = TimeoutPolicy.SKIP, optimistic = true, optimisticRetries = 3, keyArg = 1, stripes = 16)",
+        "    public int read(final String[] values, final int key) { return 0; }",
+        "    @LockedForWrite(stamp = 3, combining = true)",
+        "    public void write() { }",
+        "    @LockedForUpgradableRead(stamp = 4, timeout = 1, onTimeout = TimeoutPolicy.FALLBACK,",
+        "        fallback = \"fallback\")",
+        "    public String upgrade(final String name) { return name; }",
+        "    String fallback(final String name) { return null; }",
+        "    @LockedForWrite(stamp = 5, keyArg = 0, keyGetter = \"length\", policy = FairnessPolicy.PHASE_FAIR)",
+        "    public CompletableFuture<String> save(final String key) { return null; }",
+        "    @LockedForRead(stamp = 6, scope = LockScope.HOST)",
+        "    public void host() { }",
+        "    @LockedForRead(stamp = 50)",
+        "    public void parent() { }",
+        "    @LockedForWrite(stamp = {51, 8})",
+        "    public void child() { }",
+        "}");
+
+    @Test
+    void testIndexedPlansEqualPlansOfAnnotations() throws Exception {
+        final Path output = Files.createTempDirectory("locker-index");
+        compile(output);
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()},
+            getClass().getClassLoader())) {
+            final Class<?> planned = classLoader.loadClass("sample.Planned");
+            int indexed = 0;
+            for (final Method method : planned.getDeclaredMethods()) {
+                final LockPlan.LockMode lockMode = getLockMode(method);
+                if (lockMode == null) {
+                    continue;
+                }
+                final JoinPoint.StaticPart staticPart = getStaticPart(method);
+                final String[] indexedPlan = LockPlanIndex.find((MethodSignature) staticPart.getSignature());
+                Assertions.assertNotNull(indexedPlan, method.toString());
+                assertEqualPlans(LockPlan.ofAnnotation(staticPart, lockMode),
+                    LockPlan.ofIndexedPlan(staticPart, indexedPlan));
+                indexed++;
+            }
+            Assertions.assertEquals(7, indexed);
+        }
+    }
+
+    private static void assertEqualPlans(final LockPlan expected, final LockPlan actual)
+        throws IllegalAccessException {
+        for (final Field field : LockPlan.class.getDeclaredFields()) {
+            // plans split by groups of target classes are cached per plan
+            if (!Modifier.isStatic(field.getModifiers()) && field.getType() != ClassValue.class) {
+                field.setAccessible(true);
+                Assertions.assertTrue(Objects.deepEquals(field.get(expected), field.get(actual)), String.format(
+                    "%s of %s", field.getName(), expected.getSignature()));
+            }
+        }
+    }
+
+    private static LockPlan.LockMode getLockMode(final Method method) {
+        if (method.isAnnotationPresent(LockedForRead.class)) {
+            return LockPlan.LockMode.READ;
+        }
+        if (method.isAnnotationPresent(LockedForUpgradableRead.class)) {
+            return LockPlan.LockMode.UPGRADABLE_READ;
+        }
+        return method.isAnnotationPresent(LockedForWrite.class) ? LockPlan.LockMode.WRITE : null;
+    }
+
+    private static JoinPoint.StaticPart getStaticPart(final Method method) {
+        final Class<?> declaringType = method.getDeclaringClass();
+        final Factory factory = new Factory(declaringType.getSimpleName() + ".java", declaringType);
+        final String[] parameterNames = new String[method.getParameterCount()];
+        Arrays.fill(parameterNames, "arg");
+        return factory.makeSJP(JoinPoint.METHOD_EXECUTION, factory.makeMethodSig(method.getModifiers(),
+            method.getName(), declaringType, method.getParameterTypes(), parameterNames, new Class[0],
+            method.getReturnType()), 0);
+    }
+
+    private static void compile(final Path output) throws IOException, URISyntaxException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final JavaFileObject source = new SimpleJavaFileObject(Paths.get("sample", "Planned.java").toUri(),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return PLANNED;
+            }
+        };
+        final String lockerPath = Paths.get(LockedForRead.class.getProtectionDomain().getCodeSource().getLocation()
+            .toURI()).toString();
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, Arrays.asList("-d",
+            output.toString(), "-classpath", lockerPath), null, Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new LockPlanProcessor()));
+        Assertions.assertTrue(task.call());
+    }
+}
\ No newline at end of file
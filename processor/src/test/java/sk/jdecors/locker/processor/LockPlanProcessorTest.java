@@ -0,0 +1,186 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.processor;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+
+class LockPlanProcessorTest {
+
+    private static final String ACCOUNTS = String.join("\n",
+        "package sample;",
+        "import sk.jdecors.locker.annotations.*;",
+        "public class Accounts {",
+        "    @LockedForRead(stamp = {0, 10, 20})",
+        "    public int audit() { return transfer(); }",
+        "    @LockedForWrite(stamp = {0, 30, 10})",
+        "    public int transfer() { return book() + settle(); }",
+        "    @LockedForRead(stamp = 20)",
+        "    public int book() { return 0; }",
+        "    @LockedForRead(stamp = 20, scope = LockScope.HOST)",
+        "    public int settle() { return 0; }",
+        "    @LockedForWrite(stamp = {5, 1, 5}, keyArg = 1, keyGetter = \"length\", stripes = 8,",
+        "        policy = FairnessPolicy.PHASE_FAIR)",
+        "    void update(final int[][] values, final String key) { }",
+        "    @LockedForRead(timeout = 3, unit = java.util.concurrent.TimeUnit.SECONDS, onTimeout = TimeoutPolicy.SKIP)",
+        "    String find(final java.util.Map<String, Integer> values) { return null; }",
+        "}");
+
+    @Test
+    void testIndexContainsPlansOfAnnotatedMethods() throws IOException {
+        final Path output = Files.createTempDirectory("locker-processor");
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile(output, ACCOUNTS);
+        Assertions.assertTrue(getMessages(diagnostics, Diagnostic.Kind.ERROR).isEmpty());
+        final List<String> index = Files.readAllLines(output.resolve(LockPlanProcessor.INDEX_RESOURCE),
+            StandardCharsets.UTF_8);
+        Assertions.assertEquals(Arrays.asList(LockPlanProcessor.INDEX_HEADER,
+            "sample.Accounts#audit()\tREAD\t0,10,20\tfalse\t-1\tTHROW\t\tfalse\t1\tfalse\t-1\t\t64\tfalse\tPROCESS"
+                + "\tDEFAULT",
+            "sample.Accounts#book()\tREAD\t20\tfalse\t-1\tTHROW\t\tfalse\t1\tfalse\t-1\t\t64\tfalse\tPROCESS"
+                + "\tDEFAULT",
+            "sample.Accounts#find(java.util.Map)\tREAD\t0\tfalse\t3000000000\tSKIP\t\tfalse\t1\tfalse\t-1\t\t64"
+                + "\tfalse\tPROCESS\tDEFAULT",
+            "sample.Accounts#settle()\tREAD\t20\tfalse\t-1\tTHROW\t\tfalse\t1\tfalse\t-1\t\t64\tfalse\tHOST"
+                + "\tDEFAULT",
+            "sample.Accounts#transfer()\tWRITE\t0,10,30\tfalse\t-1\tTHROW\t\tfalse\t0\tfalse\t-1\t\t64\tfalse\tPROCESS"
+                + "\tDEFAULT",
+            "sample.Accounts#update(int[][],java.lang.String)\tWRITE\t1,5\tfalse\t-1\tTHROW\t\tfalse\t0\tfalse\t1"
+                + "\tlength\t8\tfalse\tPROCESS\tPHASE_FAIR"), index);
+    }
+
+    @Test
+    void testNestedCallsAreReported() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile(Files.createTempDirectory("locker-processor"),
+            ACCOUNTS);
+        final List<String> warnings = getMessages(diagnostics, Diagnostic.Kind.WARNING);
+        Assertions.assertEquals(5, warnings.size(), warnings.toString());
+        Assertions.assertTrue(warnings.get(0).contains("write-inside-read escalation"), warnings.get(0));
+        Assertions.assertTrue(warnings.get(1).contains("settle() [20] under locks of "
+            + "Accounts.audit()"), warnings.get(1));
+        Assertions.assertTrue(warnings.get(2).contains("book() [20] under locks"),
+            warnings.get(2));
+        Assertions.assertTrue(warnings.get(3).contains("settle() [20] under locks of "
+            + "Accounts.transfer()"), warnings.get(3));
+        Assertions.assertTrue(warnings.get(4).startsWith("Stamps [sample.Accounts#20, sample.Accounts#30] may be "
+            + "locked in conflicting order"), warnings.get(4));
+    }
+
+    @Test
+    void testStampsOfUnrelatedTypesAreNotOrdered() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile(Files.createTempDirectory("locker-processor"),
+            String.join("\n",
+                "package sample;",
+                "import sk.jdecors.locker.annotations.*;",
+                "public class Ledger {",
+                "    @LockedForWrite(stamp = {1, 2})",
+                "    public void post() { }",
+                "}",
+                "class Journal {",
+                "    @LockedForWrite(stamp = 2)",
+                "    public void post() { close(); }",
+                "    @LockedForWrite(stamp = 1)",
+                "    public void close() { }",
+                "}"));
+        final List<String> warnings = getMessages(diagnostics, Diagnostic.Kind.WARNING);
+        Assertions.assertEquals(1, warnings.size(), warnings.toString());
+        Assertions.assertTrue(warnings.get(0).contains("acquires also stamps [1]"), warnings.get(0));
+    }
+
+    @Test
+    void testLockOrderingErrorsFailCompilation() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile(Files.createTempDirectory("locker-processor"),
+            ACCOUNTS, "-A" + LockPlanProcessor.LOCK_ORDERING_OPTION + "=error");
+        Assertions.assertEquals(2, getMessages(diagnostics, Diagnostic.Kind.ERROR).size());
+    }
+
+    @Test
+    void testInvalidAnnotationFailsCompilation() throws IOException {
+        final Path output = Files.createTempDirectory("locker-processor");
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile(output, String.join("\n",
+            "package sample;",
+            "import sk.jdecors.locker.annotations.*;",
+            "@StampGroup(stamp = 10, children = {11, 12})",
+            "public class Invalid {",
+            "    @LockedForWrite(stamp = {1, 2}, combining = true)",
+            "    void combined() { }",
+            "    @LockedForUpgradableRead(onTimeout = TimeoutPolicy.FALLBACK, fallback = \"missing\")",
+            "    void upgradable() { }",
+            "    @LockedForRead(stamp = 1024, scope = LockScope.HOST)",
+            "    void host() { }",
+            "    @LockedForRead(stamp = 11, allOrNothing = true)",
+            "    void grouped() { }",
+            "}"));
+        Assertions.assertEquals(4, getMessages(diagnostics, Diagnostic.Kind.ERROR).size());
+        Assertions.assertFalse(Files.exists(output.resolve(LockPlanProcessor.INDEX_RESOURCE)));
+    }
+
+    private static DiagnosticCollector<JavaFileObject> compile(final Path output, final String source,
+        final String... options) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final List<String> arguments = new ArrayList<>(Arrays.asList("-d", output.toString(), "-classpath",
+            getLockerPath()));
+        arguments.addAll(Arrays.asList(options));
+        final String className = source.replaceAll("(?s).*public class (\\w+).*", "$1");
+        final JavaFileObject sourceFile = new SimpleJavaFileObject(
+            Paths.get("sample", className + ".java").toUri(), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, arguments, null,
+            Collections.singletonList(sourceFile));
+        task.setProcessors(Collections.singletonList(new LockPlanProcessor()));
+        task.call();
+        return diagnostics;
+    }
+
+    private static List<String> getMessages(final DiagnosticCollector<JavaFileObject> diagnostics,
+        final Diagnostic.Kind kind) {
+        return diagnostics.getDiagnostics().stream()
+            .filter(diagnostic -> diagnostic.getKind() == kind)
+            .map(diagnostic -> diagnostic.getMessage(null))
+            .collect(Collectors.toList());
+    }
+
+    private static String getLockerPath() {
+        try {
+            return Paths.get(LockedForRead.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString();
+        } catch (final URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
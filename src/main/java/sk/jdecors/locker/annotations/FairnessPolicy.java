@@ -0,0 +1,47 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.annotations;
+
+/**
+ * Order in which readers and writers of one stamp are admitted to its lock. The policy belongs to the lock
+ * of the stamp, so all methods sharing a stamp of one object must declare the same policy.
+ */
+public enum FairnessPolicy {
+    /**
+     * Plain {@code StampedLock} without fairness guarantees (or its reader-biased variant, if it is enabled).
+     */
+    DEFAULT,
+    /**
+     * Reader-biased variant of {@code StampedLock} - reads scale with the number of cores, a writer revokes
+     * the bias and waits until biased readers drain.
+     */
+    READER_BIASED,
+    /**
+     * Readers don't enter the lock while some writer is waiting for it or holding it - writers can starve readers.
+     */
+    WRITER_PREFERRING,
+    /**
+     * Readers enter the lock whenever it is not write-locked, even if writers are waiting - readers can starve
+     * writers.
+     */
+    READER_PREFERRING,
+    /**
+     * Read and write phases alternate - a reader waits at most for one writer and a writer waits at most for one
+     * phase of readers and for writers that arrived before it. Locks of this policy are never converted
+     * in place, upgrades always release the read lock first.
+     */
+    PHASE_FAIR
+}
\ No newline at end of file
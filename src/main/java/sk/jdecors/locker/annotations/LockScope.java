@@ -0,0 +1,36 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.annotations;
+
+/**
+ * Visibility of the locks of annotated method.
+ */
+public enum LockScope {
+    /**
+     * Locks are owned by the locked object and they exclude only threads of the same JVM.
+     */
+    PROCESS,
+    /**
+     * Locks are additionally shared by all JVMs of the host through a memory-mapped file - stamps of this scope
+     * are global, so the same stamp excludes methods of any object in any JVM that maps the same file.
+     */
+    HOST;
+
+    /**
+     * Host-scoped stamps must be between 0 and this limit (exclusive).
+     */
+    public static final int MAX_HOST_STAMPS = 1024;
+}
\ No newline at end of file
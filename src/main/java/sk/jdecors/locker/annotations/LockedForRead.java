@@ -20,11 +20,83 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 @Target({ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface LockedForRead {
     int DEFAULT_STAMP = 0;
+    long NO_TIMEOUT = -1;
+    int NO_KEY_ARG = -1;
+    int DEFAULT_STRIPES = 64;
+    int DEFAULT_OPTIMISTIC_RETRIES = 1;
     int[] stamp() default DEFAULT_STAMP;
+
+    /**
+     * Locks of all stamps are acquired using non-blocking attempts - if some of them cannot be acquired,
+     * already acquired locks are released and the whole acquisition is repeated after randomized back-off.
+     * Thread never blocks while it is partially holding locks of the annotated method.
+     */
+    boolean allOrNothing() default false;
+
+    /**
+     * Maximum time of waiting for locks of all stamps - negative value stands for unbounded waiting.
+     */
+    long timeout() default NO_TIMEOUT;
+
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Applied when locks are not acquired within {@link #timeout()}.
+     */
+    TimeoutPolicy onTimeout() default TimeoutPolicy.THROW;
+
+    /**
+     * Name of the method executed by {@link TimeoutPolicy#FALLBACK} policy - it must be declared in the same
+     * class with the same parameter types and compatible return type.
+     */
+    String fallback() default "";
+
+    /**
+     * Index of the method argument that is used as a lock key - locks of all stamps are then split into
+     * {@link #stripes()} stripes selected by hash of the key, so calls with different keys usually don't
+     * contend. Keyed locks don't exclude locks of methods without key.
+     */
+    int keyArg() default NO_KEY_ARG;
+
+    /**
+     * Name of a no-argument getter declared by type of the {@link #keyArg()} argument - if it is set,
+     * the key is returned by this getter instead of the argument itself.
+     */
+    String keyGetter() default "";
+
+    /**
+     * Number of stripes of each keyed stamp - all keyed methods that share a stamp must use the same number.
+     */
+    int stripes() default DEFAULT_STRIPES;
+
+    /**
+     * Side-effect-free methods may be executed without acquisition of read locks - the method is executed
+     * under optimistic stamps that are validated after its completion. If some writer has intervened,
+     * the method is executed again.
+     */
+    boolean optimistic() default false;
+
+    /**
+     * Number of repeated optimistic executions after failed validation - after that the method falls back
+     * to a standard read lock. Applied only in the optimistic mode.
+     */
+    int optimisticRetries() default DEFAULT_OPTIMISTIC_RETRIES;
+
+    /**
+     * Locks of {@link LockScope#HOST} scope exclude also other JVMs of the host. Supported only by synchronous
+     * methods without timeout, key, optimistic reading and combining.
+     */
+    LockScope scope() default LockScope.PROCESS;
+
+    /**
+     * Fairness of the locks of all stamps - all methods that share a stamp must use the same policy.
+     */
+    FairnessPolicy policy() default FairnessPolicy.DEFAULT;
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read lock that can be later escalated to write lock by the same thread, which invokes a write method
+ * on the same stamps from the body of the annotated method - at most one upgradable reader
+ * of a stamp coexists with plain readers, so escalation first tries to convert the read lock to write lock
+ * in place and falls back to the barrier-based upgrade only if other readers are still active.
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface LockedForUpgradableRead {
+    int DEFAULT_STAMP = 0;
+    long NO_TIMEOUT = -1;
+    int[] stamp() default DEFAULT_STAMP;
+
+    /**
+     * Locks of all stamps are acquired using non-blocking attempts - if some of them cannot be acquired,
+     * already acquired locks are released and the whole acquisition is repeated after randomized back-off.
+     * Thread never blocks while it is partially holding locks of the annotated method.
+     */
+    boolean allOrNothing() default false;
+
+    /**
+     * Maximum time of waiting for locks of all stamps - negative value stands for unbounded waiting.
+     */
+    long timeout() default NO_TIMEOUT;
+
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Applied when locks are not acquired within {@link #timeout()}.
+     */
+    TimeoutPolicy onTimeout() default TimeoutPolicy.THROW;
+
+    /**
+     * Name of the method executed by {@link TimeoutPolicy#FALLBACK} policy - it must be declared in the same
+     * class with the same parameter types and compatible return type.
+     */
+    String fallback() default "";
+
+    /**
+     * Fairness of the locks of all stamps - all methods that share a stamp must use the same policy.
+     */
+    FairnessPolicy policy() default FairnessPolicy.DEFAULT;
+}
\ No newline at end of file
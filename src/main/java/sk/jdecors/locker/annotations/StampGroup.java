@@ -0,0 +1,42 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a parent stamp covering child stamps of the annotated class. Methods locking the parent stamp lock
+ * all its children by one lock, methods locking child stamps hold an intention lock of the parent, so they
+ * still run in parallel with each other. A stamp can belong only to one group and groups cannot be nested.
+ * Groups are inherited by subclasses that don't declare their own groups, and they apply also to methods
+ * inherited from superclasses.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@Repeatable(StampGroups.class)
+public @interface StampGroup {
+    int stamp();
+
+    int[] children();
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.annotations;
+
+/**
+ * Behaviour of the annotated method when its locks are not acquired within the configured timeout.
+ */
+public enum TimeoutPolicy {
+    /**
+     * {@link sk.jdecors.locker.aspects.LockTimeoutException} is thrown to the caller.
+     */
+    THROW,
+    /**
+     * Execution of the method is skipped - the caller receives default value of the return type.
+     */
+    SKIP,
+    /**
+     * Fallback method declared in the same class with the same parameter types is executed without locks.
+     */
+    FALLBACK
+}
\ No newline at end of file
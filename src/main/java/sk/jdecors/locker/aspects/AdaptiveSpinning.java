@@ -0,0 +1,141 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spin limit of a single lock learned from hold times, enabled by system property '{@value #ENABLED_PROPERTY}=true'.
+ * Holders sample one of {@value #SAMPLE_PERIOD} hold times and the limit is derived from their moving average
+ * - a contended acquisition spins for about twice the average hold time before it parks, locks held longer than
+ * the cost of parking don't spin at all. Spinning is never allowed on a single processor, while the system load
+ * average reaches the number of processors, or if one less than the number of processors threads already spin.
+ */
+final class AdaptiveSpinning {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.adaptiveSpinning";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+    static final int SAMPLE_PERIOD = 64;
+
+    /**
+     * Rough duration of a single spin - one failed attempt to acquire the lock and one spin-wait hint.
+     */
+    private static final long NANOS_PER_SPIN = 25;
+    private static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final int AVERAGE_SHIFT = 3;
+    private static final int INITIAL_SPINS = 64;
+    private static final long LOAD_CHECK_MILLIS = 100;
+
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_SPINNERS = PROCESSORS - 1;
+    private static final AtomicInteger SPINNERS = new AtomicInteger();
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+    private static volatile boolean oversubscribed;
+
+    static {
+        if (ENABLED && MAX_SPINNERS > 0) {
+            startLoadMonitor();
+        }
+    }
+
+    private volatile long averageHoldNanos;
+    private volatile int spinLimit = INITIAL_SPINS;
+
+    /**
+     * Races of concurrent holders may lose some samples, which doesn't matter for the average.
+     */
+    void recordHold(final long holdNanos) {
+        final long previous = averageHoldNanos;
+        final long average = previous + (holdNanos - previous >> AVERAGE_SHIFT);
+        averageHoldNanos = average;
+        spinLimit = 2 * average > MAX_SPIN_NANOS ? 0 : (int) (2 * average / NANOS_PER_SPIN) + 1;
+    }
+
+    /**
+     * Number of spins the current thread may make before it parks - it must call {@link #endSpinning()}
+     * afterwards if it is not zero.
+     */
+    int beginSpinning() {
+        final int spins = spinLimit;
+        if (spins == 0 || oversubscribed) {
+            return 0;
+        }
+        int spinners;
+        do {
+            spinners = SPINNERS.get();
+            if (spinners >= MAX_SPINNERS) {
+                return 0;
+            }
+        } while (!SPINNERS.compareAndSet(spinners, spinners + 1));
+        return spins;
+    }
+
+    static void endSpinning() {
+        SPINNERS.decrementAndGet();
+    }
+
+    int getSpinLimit() {
+        return spinLimit;
+    }
+
+    static void onSpinWait() {
+        try {
+            ON_SPIN_WAIT.invokeExact();
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Thread.onSpinWait() is available since Java 9, older JVMs spin without the hint.
+     */
+    private static MethodHandle findOnSpinWait() {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final MethodType type = MethodType.methodType(void.class);
+        try {
+            return lookup.findStatic(Thread.class, "onSpinWait", type);
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            try {
+                return lookup.findStatic(AdaptiveSpinning.class, "spinWithoutHint", type);
+            } catch (final NoSuchMethodException | IllegalAccessException inner) {
+                throw new IllegalStateException(inner);
+            }
+        }
+    }
+
+    private static void spinWithoutHint() {
+    }
+
+    private static void startLoadMonitor() {
+        final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        final Thread loadMonitor = new Thread(() -> {
+            while (true) {
+                oversubscribed = operatingSystem.getSystemLoadAverage() >= PROCESSORS;
+                try {
+                    Thread.sleep(LOAD_CHECK_MILLIS);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        }, "locker-load-monitor");
+        loadMonitor.setDaemon(true);
+        loadMonitor.start();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+/**
+ * Marks threads executing the body of an asynchronous method - locks of the method are not owned by the thread,
+ * so annotated methods and {@link Locker} blocks invoked by the body are executed without locking. Other nested
+ * calls are advised and they acquire only locks that the thread doesn't hold yet.
+ */
+final class AdviceGuard {
+    private static final ThreadLocal<AdviceGuard> GUARDS = ThreadLocal.withInitial(AdviceGuard::new);
+
+    private boolean entered;
+
+    private AdviceGuard() {
+    }
+
+    static AdviceGuard current() {
+        return GUARDS.get();
+    }
+
+    /**
+     * Returns false if the current thread is already executing the body of an asynchronous method -
+     * {@link #exit()} must be invoked only after successful entry.
+     */
+    boolean tryEnter() {
+        if (entered) {
+            return false;
+        }
+        entered = true;
+        return true;
+    }
+
+    boolean isEntered() {
+        return entered;
+    }
+
+    void exit() {
+        entered = false;
+    }
+}
\ No newline at end of file
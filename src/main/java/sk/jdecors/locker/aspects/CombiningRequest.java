@@ -0,0 +1,58 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.locks.LockSupport;
+import org.aspectj.lang.ProceedingJoinPoint;
+
+/**
+ * Invocation of a combining method published by its caller - it is executed by whichever thread holds
+ * the write lock of the stamp and the result or thrown exception is handed back to the caller.
+ */
+final class CombiningRequest {
+    private final ProceedingJoinPoint joinPoint;
+    private final Thread caller = Thread.currentThread();
+    private Object result;
+    private Throwable throwable;
+    private volatile boolean done;
+
+    CombiningRequest(final ProceedingJoinPoint joinPoint) {
+        this.joinPoint = joinPoint;
+    }
+
+    void execute() {
+        try {
+            result = joinPoint.proceed();
+        } catch (final Throwable e) {
+            throwable = e;
+        }
+        done = true;
+        if (caller != Thread.currentThread()) {
+            LockSupport.unpark(caller);
+        }
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    Object getResult() throws Throwable {
+        if (throwable != null) {
+            throw throwable;
+        }
+        return result;
+    }
+}
\ No newline at end of file
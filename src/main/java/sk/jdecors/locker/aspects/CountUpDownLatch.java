@@ -15,48 +15,79 @@
 
 package sk.jdecors.locker.aspects;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 
+/**
+ * Latch that can be counted up and down repeatedly - threads that wait for zero count are parked only while
+ * the count is non-zero, otherwise the check costs single volatile read.
+ */
 final class CountUpDownLatch {
-    private CountDownLatch latch;
-    private final Object lock = new Object();
 
-    CountUpDownLatch(final int count) {
-        this.latch = new CountDownLatch(count);
-    }
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 4982264981922014374L;
+
+        private Sync(final int count) {
+            setState(count);
+        }
 
-    void countDownOrWaitIfZero() {
-        synchronized (lock) {
-            while (latch.getCount() == 0) {
-                try {
-                    lock.wait();
-                } catch (final InterruptedException e) {
-                    throw new IllegalStateException("Unexpected interruption on count-down-or-wait-if-zero " +
-                        "has occurred.", e);
+        private int getCount() {
+            return getState();
+        }
+
+        private void countUp() {
+            for (;;) {
+                final int count = getState();
+                if (compareAndSetState(count, count + 1)) {
+                    return;
                 }
             }
-            latch.countDown();
-            lock.notifyAll();
         }
-    }
 
-    void waitUntilZero() {
-        synchronized (lock) {
-            while (latch.getCount() != 0) {
-                try {
-                    lock.wait();
-                } catch (final InterruptedException e) {
-                    throw new IllegalStateException("Unexpected interruption on latch wait-for-zero operation " +
-                        "has occurred.", e);
+        @Override
+        protected int tryAcquireShared(final int acquires) {
+            return getState() == 0 ? 1 : -1;
+        }
+
+        @Override
+        protected boolean tryReleaseShared(final int releases) {
+            for (;;) {
+                final int count = getState();
+                if (count == 0) {
+                    throw new IllegalStateException("Latch cannot be counted down below zero.");
+                }
+                final int nextCount = count - 1;
+                if (compareAndSetState(count, nextCount)) {
+                    return nextCount == 0;
                 }
             }
         }
     }
 
-    void countUp() {
-        synchronized (lock) {
-            latch = new CountDownLatch((int) latch.getCount() + 1);
-            lock.notifyAll();
+    private final Sync sync;
+
+    CountUpDownLatch(final int count) {
+        this.sync = new Sync(count);
+    }
+
+    void countDown() {
+        sync.releaseShared(1);
+    }
+
+    void waitUntilZero() {
+        if (sync.getCount() != 0) {
+            sync.acquireShared(1);
         }
     }
+
+    boolean waitUntilZero(final long nanosTimeout) throws InterruptedException {
+        return sync.getCount() == 0 || sync.tryAcquireSharedNanos(1, nanosTimeout);
+    }
+
+    boolean isZero() {
+        return sync.getCount() == 0;
+    }
+
+    void countUp() {
+        sync.countUp();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,457 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Watchdog of lock cycles, enabled by system property '{@value #ENABLED_PROPERTY}=true'. Each thread publishes
+ * locks it holds and the lock it waits for in its own {@link ThreadState}, the waiting path costs one volatile
+ * write and no timestamps. The watchdog thread samples all states every '{@value #INTERVAL_PROPERTY}' (1000 ms
+ * by default) - a wait observed by two consecutive samples is stable and only stable waits are joined into
+ * a wait-for graph, together with owners of monitors and ownable synchronizers reported by the JVM for threads
+ * blocked outside the locker. A cycle of the graph must be found by two consecutive samples too before it is
+ * reported to listeners of {@link DeadlockWatchdog}. With '{@value #BREAK_CYCLES_PROPERTY}=true', one participant
+ * waiting for a plain read or write lock is failed by {@link LockDeadlockException} carrying the cycle (waits
+ * of upgrades and upgrade permits are not breakable).
+ */
+final class DeadlockDetector {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.deadlockDetection";
+    static final String INTERVAL_PROPERTY = "sk.jdecors.locker.deadlockDetection.intervalMillis";
+    static final String BREAK_CYCLES_PROPERTY = "sk.jdecors.locker.deadlockDetection.breakCycles";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+    static final boolean BREAKING_CYCLES = ENABLED && Boolean.getBoolean(BREAK_CYCLES_PROPERTY);
+
+    static final int WAIT_READ = 1;
+    static final int WAIT_WRITE = 2;
+    static final int WAIT_UPGRADE = 3;
+    static final int WAIT_UPGRADE_PERMIT = 4;
+
+    static final int HELD_READ = 1;
+    static final int HELD_WRITE = 2;
+    static final int HELD_UPGRADE_PERMIT = 4;
+    static final int HELD_BARRIER = 8;
+
+    private static final int MAX_CYCLES = 64;
+    private static final String[] WAIT_NAMES = {"", "read lock", "write lock", "upgrade", "upgrade permit"};
+
+    private static final DeadlockDetector INSTANCE = ENABLED ? new DeadlockDetector(BREAKING_CYCLES) : null;
+    private static final ThreadLocal<ThreadState> STATES =
+        ThreadLocal.withInitial(() -> INSTANCE.register(Thread.currentThread()));
+
+    static {
+        if (ENABLED) {
+            INSTANCE.start(Long.getLong(INTERVAL_PROPERTY, 1000));
+        }
+    }
+
+    /**
+     * Locks held and waited for by a single thread - it is written only by its thread and read by the watchdog.
+     * Reads of the watchdog are racy, stale values are filtered out by the stability of waits.
+     */
+    static final class ThreadState {
+        private final Thread thread;
+        private Class<?> targetClass;
+        private String method;
+        private long waitEpisode;
+        private int waitMode;
+        private volatile LockData waitedLock;
+        private LockData[] heldLocks = new LockData[4];
+        private int[] heldFlags = new int[4];
+        private volatile int heldCount;
+        private volatile LockCycle victimCycle;
+
+        private ThreadState(final Thread thread) {
+            this.thread = thread;
+        }
+
+        void enter(final Object target, final String method) {
+            this.targetClass = target == null ? null : target.getClass();
+            this.method = method;
+        }
+
+        void beginWait(final LockData lockData, final int waitMode) {
+            this.waitMode = waitMode;
+            waitEpisode++;
+            waitedLock = lockData;
+        }
+
+        void endWait() {
+            waitedLock = null;
+        }
+
+        /**
+         * Records current holds of the lock, zero flags remove the lock from held locks.
+         */
+        void track(final LockData lockData, final int flags) {
+            final int count = heldCount;
+            for (int i = 0; i < count; i++) {
+                if (heldLocks[i] == lockData) {
+                    if (flags != 0) {
+                        heldFlags[i] = flags;
+                    } else {
+                        heldLocks[i] = heldLocks[count - 1];
+                        heldFlags[i] = heldFlags[count - 1];
+                        heldLocks[count - 1] = null;
+                        heldCount = count - 1;
+                    }
+                    return;
+                }
+            }
+            if (flags == 0) {
+                return;
+            }
+            if (count == heldLocks.length) {
+                heldLocks = Arrays.copyOf(heldLocks, count * 2);
+                heldFlags = Arrays.copyOf(heldFlags, count * 2);
+            }
+            heldLocks[count] = lockData;
+            heldFlags[count] = flags;
+            heldCount = count + 1;
+        }
+
+        /**
+         * Cycle broken by failing the current thread, or null - the cycle is consumed.
+         */
+        LockCycle takeVictimCycle() {
+            final LockCycle cycle = victimCycle;
+            if (cycle != null) {
+                victimCycle = null;
+            }
+            return cycle;
+        }
+
+        private void fail(final LockCycle cycle) {
+            victimCycle = cycle;
+            thread.interrupt();
+        }
+
+        private String describe() {
+            final String name = '"' + thread.getName() + '"';
+            return method == null ? name : name + " in " + method;
+        }
+    }
+
+    /**
+     * Stable wait of a thread for a lock of the locker.
+     */
+    private static final class Wait {
+        private final ThreadState state;
+        private final LockData lockData;
+        private final int mode;
+        private final long episode;
+
+        private Wait(final ThreadState state, final LockData lockData, final int mode, final long episode) {
+            this.state = state;
+            this.lockData = lockData;
+            this.mode = mode;
+            this.episode = episode;
+        }
+
+        private boolean isBreakable() {
+            return mode == WAIT_READ || mode == WAIT_WRITE;
+        }
+    }
+
+    private static final class Edge {
+        private final long target;
+        private final String description;
+        private final Wait wait;
+
+        private Edge(final long target, final String description, final Wait wait) {
+            this.target = target;
+            this.description = description;
+            this.wait = wait;
+        }
+    }
+
+    private final boolean breakingCycles;
+    private final Queue<ThreadState> states = new ConcurrentLinkedQueue<>();
+    private final Deque<LockCycle> cycles = new ArrayDeque<>();
+    private final List<Consumer<LockCycle>> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private Map<ThreadState, Long> previousWaits = Collections.emptyMap();
+    private Set<List<String>> previousCycles = Collections.emptySet();
+    private final Set<List<String>> reportedCycles = new HashSet<>();
+
+    DeadlockDetector(final boolean breakingCycles) {
+        this.breakingCycles = breakingCycles;
+    }
+
+    static DeadlockDetector instance() {
+        return INSTANCE;
+    }
+
+    static ThreadState current() {
+        return STATES.get();
+    }
+
+    ThreadState register(final Thread thread) {
+        final ThreadState state = new ThreadState(thread);
+        states.add(state);
+        return state;
+    }
+
+    void addListener(final Consumer<LockCycle> listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(final Consumer<LockCycle> listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized List<LockCycle> getCycles() {
+        return new ArrayList<>(cycles);
+    }
+
+    /**
+     * Takes one sample of all thread states and returns cycles that were found by this and the previous sample
+     * for the first time.
+     */
+    synchronized List<LockCycle> sample() {
+        final Map<ThreadState, Long> waits = new HashMap<>();
+        final List<Wait> stableWaits = new ArrayList<>();
+        final Iterator<ThreadState> iterator = states.iterator();
+        while (iterator.hasNext()) {
+            final ThreadState state = iterator.next();
+            if (!state.thread.isAlive()) {
+                iterator.remove();
+                continue;
+            }
+            final LockData lockData = state.waitedLock;
+            if (lockData != null && isParked(state.thread)) {
+                final long episode = state.waitEpisode;
+                waits.put(state, episode);
+                if (previousWaits.containsKey(state) && previousWaits.get(state) == episode) {
+                    stableWaits.add(new Wait(state, lockData, state.waitMode, episode));
+                }
+            }
+        }
+        previousWaits = waits;
+        if (stableWaits.isEmpty()) {
+            previousCycles = Collections.emptySet();
+            reportedCycles.clear();
+            return Collections.emptyList();
+        }
+        final Map<Long, List<Edge>> graph = buildGraph(stableWaits);
+        final Set<List<String>> foundCycles = new HashSet<>();
+        final List<LockCycle> newCycles = new ArrayList<>();
+        for (final Wait wait : stableWaits) {
+            final List<Edge> cycle = findCycle(wait.state.thread.getId(), graph);
+            if (cycle == null) {
+                continue;
+            }
+            final List<String> key = cycleKey(wait.state.thread.getId(), cycle);
+            if (foundCycles.add(key) && previousCycles.contains(key) && reportedCycles.add(key)) {
+                newCycles.add(report(cycle));
+            }
+        }
+        previousCycles = foundCycles;
+        reportedCycles.retainAll(foundCycles);
+        return newCycles;
+    }
+
+    private void start(final long intervalMillis) {
+        final Thread watchdog = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                    sample();
+                } catch (final InterruptedException e) {
+                    return;
+                } catch (final RuntimeException e) {
+                    // a failed sample must not stop the watchdog
+                }
+            }
+        }, "locker-deadlock-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private static boolean isParked(final Thread thread) {
+        final Thread.State state = thread.getState();
+        return state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING;
+    }
+
+    /**
+     * Edges of the wait-for graph lead from waiting threads to threads that block them. Writers and upgrades wait
+     * for all holders of the lock (except upgrades that released their read locks), readers wait for writers,
+     * for upgrades in progress and for queued writers, upgradable readers wait for the holder of the permit.
+     */
+    private Map<Long, List<Edge>> buildGraph(final List<Wait> stableWaits) {
+        final Map<LockData, List<ThreadState>> holders = new HashMap<>();
+        final Map<ThreadState, Map<LockData, Integer>> holds = new HashMap<>();
+        for (final ThreadState state : states) {
+            final LockData[] heldLocks = state.heldLocks;
+            final int[] heldFlags = state.heldFlags;
+            final int count = Math.min(state.heldCount, Math.min(heldLocks.length, heldFlags.length));
+            for (int i = 0; i < count; i++) {
+                final LockData lockData = heldLocks[i];
+                if (lockData != null && heldFlags[i] != 0) {
+                    holders.computeIfAbsent(lockData, l -> new ArrayList<>()).add(state);
+                    holds.computeIfAbsent(state, s -> new HashMap<>()).put(lockData, heldFlags[i]);
+                }
+            }
+        }
+        final Map<Long, List<Edge>> graph = new HashMap<>();
+        for (final Wait wait : stableWaits) {
+            for (final ThreadState holder : holders.getOrDefault(wait.lockData, Collections.emptyList())) {
+                final int flags = holds.get(holder).get(wait.lockData);
+                if (holder != wait.state && blocks(wait, flags) && !isUpgrading(holder, wait.lockData, stableWaits)) {
+                    addEdge(graph, wait, holder.thread.getId(), holder.describe());
+                }
+            }
+            if (wait.mode == WAIT_READ) {
+                for (final Wait other : stableWaits) {
+                    if (other.lockData == wait.lockData && (other.mode == WAIT_WRITE || other.mode == WAIT_UPGRADE)) {
+                        addEdge(graph, wait, other.state.thread.getId(), "queued " + other.state.describe());
+                    }
+                }
+            }
+        }
+        addMonitorEdges(graph, stableWaits);
+        return graph;
+    }
+
+    private static boolean blocks(final Wait wait, final int flags) {
+        switch (wait.mode) {
+            case WAIT_READ:
+                return (flags & (HELD_WRITE | HELD_BARRIER)) != 0;
+            case WAIT_UPGRADE_PERMIT:
+                return (flags & HELD_UPGRADE_PERMIT) != 0;
+            default:
+                return (flags & (HELD_READ | HELD_WRITE)) != 0;
+        }
+    }
+
+    private static boolean isUpgrading(final ThreadState holder, final LockData lockData, final List<Wait> waits) {
+        for (final Wait wait : waits) {
+            if (wait.state == holder && wait.lockData == lockData && wait.mode == WAIT_UPGRADE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addEdge(final Map<Long, List<Edge>> graph, final Wait wait, final long target,
+        final String holder) {
+        final String description = String.format("%s waits for %s of stamp %d held by %s",
+            wait.state.describe(), WAIT_NAMES[wait.mode], wait.lockData.getLockStamp(), holder);
+        graph.computeIfAbsent(wait.state.thread.getId(), t -> new ArrayList<>()).add(new Edge(target, description,
+            wait));
+    }
+
+    /**
+     * Threads blocked on monitors or ownable synchronizers (for example ReentrantLock) are joined into the graph
+     * by owners reported by the JVM, so cycles mixing the locker with other locks are found as well.
+     */
+    private void addMonitorEdges(final Map<Long, List<Edge>> graph, final List<Wait> stableWaits) {
+        final Map<Long, ThreadState> trackedThreads = new HashMap<>();
+        for (final ThreadState state : states) {
+            trackedThreads.put(state.thread.getId(), state);
+        }
+        for (final ThreadInfo info : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+            if (info == null || info.getLockOwnerId() < 0 || graph.containsKey(info.getThreadId())) {
+                continue;
+            }
+            final ThreadState waiter = trackedThreads.get(info.getThreadId());
+            final ThreadState owner = trackedThreads.get(info.getLockOwnerId());
+            final String description = String.format("%s waits for %s held by %s",
+                waiter == null ? '"' + info.getThreadName() + '"' : waiter.describe(), info.getLockName(),
+                owner == null ? '"' + info.getLockOwnerName() + '"' : owner.describe());
+            graph.computeIfAbsent(info.getThreadId(), t -> new ArrayList<>()).add(new Edge(info.getLockOwnerId(),
+                description, null));
+        }
+    }
+
+    private static List<Edge> findCycle(final long start, final Map<Long, List<Edge>> graph) {
+        final Deque<Edge> path = new ArrayDeque<>();
+        return findPath(start, start, graph, new HashSet<>(), path) ? new ArrayList<>(path) : null;
+    }
+
+    private static boolean findPath(final long node, final long start, final Map<Long, List<Edge>> graph,
+        final Set<Long> visited, final Deque<Edge> path) {
+        for (final Edge edge : graph.getOrDefault(node, Collections.emptyList())) {
+            path.addLast(edge);
+            if (edge.target == start || visited.add(edge.target) && findPath(edge.target, start, graph, visited,
+                path)) {
+                return true;
+            }
+            path.removeLast();
+        }
+        return false;
+    }
+
+    /**
+     * Identity of a cycle - sorted participants with episodes of their waits, so the same cycle found from
+     * different threads or by consecutive samples has the same key.
+     */
+    private static List<String> cycleKey(final long start, final List<Edge> cycle) {
+        final List<String> key = new ArrayList<>();
+        long node = start;
+        for (final Edge edge : cycle) {
+            key.add(edge.wait == null ? Long.toString(node) : node + ":" + edge.wait.episode);
+            node = edge.target;
+        }
+        Collections.sort(key);
+        return key;
+    }
+
+    private LockCycle report(final List<Edge> cycle) {
+        final List<String> edges = new ArrayList<>();
+        Wait victim = null;
+        for (final Edge edge : cycle) {
+            edges.add(edge.description);
+            if (victim == null && edge.wait != null && edge.wait.isBreakable()) {
+                victim = edge.wait;
+            }
+        }
+        final boolean breaking = breakingCycles && victim != null;
+        final LockCycle lockCycle = new LockCycle(System.currentTimeMillis(), edges,
+            breaking ? victim.state.thread.getName() : null);
+        if (breaking && victim.state.waitedLock == victim.lockData && victim.state.waitEpisode == victim.episode) {
+            victim.state.fail(lockCycle);
+        }
+        if (cycles.size() == MAX_CYCLES) {
+            cycles.removeFirst();
+        }
+        cycles.addLast(lockCycle);
+        for (final Consumer<LockCycle> listener : listeners) {
+            try {
+                listener.accept(lockCycle);
+            } catch (final RuntimeException e) {
+                // listeners are isolated from each other and from the watchdog
+            }
+        }
+        return lockCycle;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Programmatic access to lock cycles found by the deadlock watchdog. The watchdog runs only if the JVM is started
+ * with system property 'sk.jdecors.locker.deadlockDetection=true', the locker doesn't log found cycles itself.
+ */
+public final class DeadlockWatchdog {
+
+    private DeadlockWatchdog() {
+    }
+
+    public static boolean enabled() {
+        return DeadlockDetector.ENABLED;
+    }
+
+    /**
+     * Listener is invoked by the watchdog thread for each newly detected cycle, its exceptions are ignored.
+     */
+    public static void addListener(final Consumer<LockCycle> listener) {
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.instance().addListener(listener);
+        }
+    }
+
+    public static void removeListener(final Consumer<LockCycle> listener) {
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.instance().removeListener(listener);
+        }
+    }
+
+    /**
+     * Recently detected cycles, the oldest first.
+     */
+    public static List<LockCycle> detectedCycles() {
+        return DeadlockDetector.ENABLED ? DeadlockDetector.instance().getCycles() : Collections.emptyList();
+    }
+}
\ No newline at end of file
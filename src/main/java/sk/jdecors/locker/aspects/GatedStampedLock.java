@@ -0,0 +1,94 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@link StampedLock} whose acquisitions are admitted by a gate of a fairness policy. The underlying lock still
+ * provides the exclusion, the gate only decides which threads may compete for it. Threads that are not admitted
+ * wait on a condition that is signalled only if some thread is waiting. The gate is not owned by any thread,
+ * so locks acquired by one thread may be released by another one. Only operations used
+ * by {@link StampedLockWithBarrier} are gated.
+ */
+abstract class GatedStampedLock extends StampedLock {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ReentrantLock gateLock = new ReentrantLock();
+    private final transient Condition gateChanged = gateLock.newCondition();
+    private transient volatile int waiters;
+
+    final void awaitGate(final BooleanSupplier open) {
+        if (open.getAsBoolean()) {
+            return;
+        }
+        gateLock.lock();
+        try {
+            waiters++;
+            try {
+                while (!open.getAsBoolean()) {
+                    gateChanged.awaitUninterruptibly();
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            gateLock.unlock();
+        }
+    }
+
+    final boolean awaitGate(final BooleanSupplier open, final long deadline) throws InterruptedException {
+        if (open.getAsBoolean()) {
+            return true;
+        }
+        gateLock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                while (!open.getAsBoolean()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    gateChanged.await(remaining, TimeUnit.NANOSECONDS);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        } finally {
+            gateLock.unlock();
+        }
+    }
+
+    /**
+     * Must be invoked after every change of the state that is tested by the gates.
+     */
+    final void signalGate() {
+        if (waiters > 0) {
+            gateLock.lock();
+            try {
+                gateChanged.signalAll();
+            } finally {
+                gateLock.unlock();
+            }
+        }
+    }
+}
\ No newline at end of file
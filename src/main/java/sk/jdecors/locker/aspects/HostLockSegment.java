@@ -0,0 +1,286 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+import sk.jdecors.locker.annotations.LockScope;
+import sk.jdecors.locker.aspects.LockPlan.LockMode;
+
+/**
+ * Reader-writer locks of {@link sk.jdecors.locker.annotations.LockScope#HOST} stamps shared by JVMs through
+ * a memory-mapped file. Each JVM registers in one of {@value #MAX_PROCESSES} process slots and holds an OS lock
+ * of a byte that represents the slot for its whole life. Every stamp has a writer word with the slot of its
+ * writer and a reader count of each slot; all of them are updated by atomic operations of {@link HostMemory}.
+ * A reader increments its count and backs off if it sees a writer, a writer claims the writer word and waits
+ * until reader counts drain. Processes may die while holding locks - the OS releases their slot locks, so
+ * a thread that waits long enough probes slots that block it and clears the state of dead processes.
+ * Holds of each thread are counted, so nested methods don't lock stamps that their thread already holds.
+ */
+final class HostLockSegment {
+    static final String FILE_PROPERTY = "sk.jdecors.locker.hostLockFile";
+    static final int MAX_STAMPS = LockScope.MAX_HOST_STAMPS;
+    static final int MAX_PROCESSES = 64;
+
+    private static final long MAGIC = 0x6A6C6F636B657231L;
+    private static final int HEADER_SIZE = 64;
+    private static final int READERS_OFFSET = 64;
+    private static final int STAMP_SIZE = READERS_OFFSET + MAX_PROCESSES * Integer.BYTES;
+    private static final int SEGMENT_SIZE = HEADER_SIZE + MAX_STAMPS * STAMP_SIZE;
+    private static final long NO_WRITER = 0;
+    private static final int SPINS = 64;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+    private static final long RECOVERY_INTERVAL_NANOS = 10_000_000;
+
+    private static final ThreadLocal<Holds> HOLDS = ThreadLocal.withInitial(Holds::new);
+
+    private final FileChannel channel;
+    private final HostMemory memory;
+    private final FileLock slotLock;
+    private final int slot;
+
+    /**
+     * Holds of stamps by one thread - host locks are shared by all threads of the JVM, so they don't know
+     * their holders.
+     */
+    private static final class Holds {
+        private final int[] readHolds = new int[MAX_STAMPS];
+        private final int[] writeHolds = new int[MAX_STAMPS];
+    }
+
+    private static final class Holder {
+        private static final String FILE = System.getProperty(FILE_PROPERTY);
+        private static final HostLockSegment INSTANCE = FILE == null ? null : open(Paths.get(FILE));
+    }
+
+    private HostLockSegment(final FileChannel channel, final MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.memory = new HostMemory(buffer);
+        if (!memory.compareAndSetLong(0, 0, MAGIC) && memory.getLongVolatile(0) != MAGIC) {
+            throw new IllegalStateException("Host lock file has unsupported format.");
+        }
+        FileLock lock = null;
+        int registeredSlot = 0;
+        for (; lock == null && registeredSlot < MAX_PROCESSES; registeredSlot++) {
+            lock = tryLockSlot(registeredSlot);
+        }
+        if (lock == null) {
+            throw new IllegalStateException(String.format("All %d process slots of the host lock file are used.",
+                MAX_PROCESSES));
+        }
+        this.slotLock = lock;
+        this.slot = registeredSlot - 1;
+        clearSlot(slot);
+    }
+
+    /**
+     * Segment of the file configured by system property '{@value #FILE_PROPERTY}'. There is no default file,
+     * a predictable path would let any process on the host join or corrupt the locks of the application.
+     */
+    static HostLockSegment get() {
+        final HostLockSegment segment = Holder.INSTANCE;
+        if (segment == null) {
+            throw new IllegalStateException(String.format("Host scope requires system property '%s' with path "
+                + "of the lock file shared by JVMs of the application.", FILE_PROPERTY));
+        }
+        return segment;
+    }
+
+    static HostLockSegment open(final Path file) {
+        try {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+            final FileChannel channel = randomAccessFile.getChannel();
+            return new HostLockSegment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Host lock file %s cannot be mapped.", file), e);
+        }
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void lock(final LockMode lockMode, final int stamp) {
+        checkStamp(stamp);
+        final Holds holds = HOLDS.get();
+        if (lockMode == LockMode.READ) {
+            if (holds.readHolds[stamp] == 0 && holds.writeHolds[stamp] == 0) {
+                lockRead(stamp);
+            }
+            holds.readHolds[stamp]++;
+        } else {
+            if (holds.writeHolds[stamp] == 0) {
+                if (holds.readHolds[stamp] > 0) {
+                    throw new IllegalStateException(String.format("Read lock of host stamp %d cannot be upgraded "
+                        + "to write lock.", stamp));
+                }
+                lockWrite(stamp);
+            }
+            holds.writeHolds[stamp]++;
+        }
+    }
+
+    void unlock(final LockMode lockMode, final int stamp) {
+        final Holds holds = HOLDS.get();
+        if (lockMode == LockMode.READ) {
+            if (--holds.readHolds[stamp] == 0 && holds.writeHolds[stamp] == 0) {
+                memory.getAndAddInt(readersOffset(stamp, slot), -1);
+            }
+        } else if (--holds.writeHolds[stamp] == 0) {
+            memory.putLongVolatile(writerOffset(stamp), NO_WRITER);
+        }
+    }
+
+    /**
+     * The slot is released by the OS when the process dies - it is released explicitly only by tests.
+     */
+    void close() throws IOException {
+        slotLock.release();
+        channel.close();
+    }
+
+    private void lockRead(final int stamp) {
+        final int writerOffset = writerOffset(stamp);
+        final int readersOffset = readersOffset(stamp, slot);
+        final long waitStart = System.nanoTime();
+        for (int attempt = 0; ; attempt++) {
+            if (memory.getLongVolatile(writerOffset) == NO_WRITER) {
+                memory.getAndAddInt(readersOffset, 1);
+                if (memory.getLongVolatile(writerOffset) == NO_WRITER) {
+                    return;
+                }
+                memory.getAndAddInt(readersOffset, -1);
+            }
+            await(stamp, attempt, waitStart);
+        }
+    }
+
+    private void lockWrite(final int stamp) {
+        final int writerOffset = writerOffset(stamp);
+        final long waitStart = System.nanoTime();
+        int attempt = 0;
+        while (!memory.compareAndSetLong(writerOffset, NO_WRITER, slot + 1L)) {
+            await(stamp, attempt++, waitStart);
+        }
+        while (hasReaders(stamp)) {
+            await(stamp, attempt++, waitStart);
+        }
+    }
+
+    private boolean hasReaders(final int stamp) {
+        for (int i = 0; i < MAX_PROCESSES; i++) {
+            if (memory.getIntVolatile(readersOffset(stamp, i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void await(final int stamp, final int attempt, final long waitStart) {
+        if (attempt < SPINS) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(Math.min(1L << Math.min(attempt - SPINS, 20), MAX_PARK_NANOS));
+        if ((attempt & 0xF) == 0 && System.nanoTime() - waitStart >= RECOVERY_INTERVAL_NANOS) {
+            recover(stamp);
+        }
+    }
+
+    /**
+     * Clears the writer word and reader counts of dead processes that block the stamp.
+     */
+    private void recover(final int stamp) {
+        final int writerOffset = writerOffset(stamp);
+        final long writer = memory.getLongVolatile(writerOffset);
+        if (writer != NO_WRITER && writer != slot + 1L) {
+            final FileLock lock = tryLockSlot((int) writer - 1);
+            if (lock != null) {
+                try {
+                    memory.compareAndSetLong(writerOffset, writer, NO_WRITER);
+                } finally {
+                    releaseSlot(lock);
+                }
+            }
+        }
+        for (int i = 0; i < MAX_PROCESSES; i++) {
+            if (i != slot && memory.getIntVolatile(readersOffset(stamp, i)) != 0) {
+                final FileLock lock = tryLockSlot(i);
+                if (lock != null) {
+                    try {
+                        memory.putIntVolatile(readersOffset(stamp, i), 0);
+                    } finally {
+                        releaseSlot(lock);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * State left by a previous owner of the slot is cleared on registration.
+     */
+    private void clearSlot(final int clearedSlot) {
+        for (int stamp = 0; stamp < MAX_STAMPS; stamp++) {
+            memory.compareAndSetLong(writerOffset(stamp), clearedSlot + 1L, NO_WRITER);
+            memory.putIntVolatile(readersOffset(stamp, clearedSlot), 0);
+        }
+    }
+
+    /**
+     * Locks of slots lie beyond the mapped segment. Returns null if the slot is owned by a live process,
+     * including this one.
+     */
+    private FileLock tryLockSlot(final int lockedSlot) {
+        try {
+            return channel.tryLock(SEGMENT_SIZE + lockedSlot, 1, false);
+        } catch (final OverlappingFileLockException e) {
+            return null;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Process slot of the host lock file cannot be locked.", e);
+        }
+    }
+
+    private static void releaseSlot(final FileLock lock) {
+        try {
+            lock.release();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Process slot of the host lock file cannot be released.", e);
+        }
+    }
+
+    private static int writerOffset(final int stamp) {
+        return HEADER_SIZE + stamp * STAMP_SIZE;
+    }
+
+    private static int readersOffset(final int stamp, final int readerSlot) {
+        return writerOffset(stamp) + READERS_OFFSET + readerSlot * Integer.BYTES;
+    }
+
+    private static void checkStamp(final int stamp) {
+        if (stamp < 0 || stamp >= MAX_STAMPS) {
+            throw new IllegalStateException(String.format("Stamp of host scope must be between 0 and %d: %d",
+                MAX_STAMPS - 1, stamp));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Atomic access to the mapped memory of the host lock file. Java 9 and later access the buffer through
+ * byte buffer view var handles, Java 8 falls back to sun.misc.Unsafe at the address of the buffer. Both are
+ * looked up reflectively and adapted to handles of the same type - the memory is addressed by a base object
+ * and a position, which are the buffer and the offset, or null and the absolute address.
+ */
+final class HostMemory {
+    private static final Object UNSAFE = findUnsafe();
+
+    private static final MethodHandle GET_LONG_VOLATILE = find(long[].class, "GET_VOLATILE", "getLongVolatile",
+        MethodType.methodType(long.class, Object.class, long.class));
+    private static final MethodHandle PUT_LONG_VOLATILE = find(long[].class, "SET_VOLATILE", "putLongVolatile",
+        MethodType.methodType(void.class, Object.class, long.class, long.class));
+    private static final MethodHandle COMPARE_AND_SET_LONG = find(long[].class, "COMPARE_AND_SET",
+        "compareAndSwapLong", MethodType.methodType(boolean.class, Object.class, long.class, long.class, long.class));
+    private static final MethodHandle GET_INT_VOLATILE = find(int[].class, "GET_VOLATILE", "getIntVolatile",
+        MethodType.methodType(int.class, Object.class, long.class));
+    private static final MethodHandle PUT_INT_VOLATILE = find(int[].class, "SET_VOLATILE", "putIntVolatile",
+        MethodType.methodType(void.class, Object.class, long.class, int.class));
+    private static final MethodHandle GET_AND_ADD_INT = find(int[].class, "GET_AND_ADD", "getAndAddInt",
+        MethodType.methodType(int.class, Object.class, long.class, int.class));
+
+    /**
+     * Reference to the buffer keeps the file mapped.
+     */
+    private final MappedByteBuffer buffer;
+    private final Object base;
+    private final long origin;
+
+    HostMemory(final MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.base = UNSAFE == null ? buffer : null;
+        this.origin = UNSAFE == null ? 0 : getAddress(buffer);
+    }
+
+    long getLongVolatile(final int offset) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact(base, origin + offset);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void putLongVolatile(final int offset, final long value) {
+        try {
+            PUT_LONG_VOLATILE.invokeExact(base, origin + offset, value);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean compareAndSetLong(final int offset, final long expected, final long value) {
+        try {
+            return (boolean) COMPARE_AND_SET_LONG.invokeExact(base, origin + offset, expected, value);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int getIntVolatile(final int offset) {
+        try {
+            return (int) GET_INT_VOLATILE.invokeExact(base, origin + offset);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void putIntVolatile(final int offset, final int value) {
+        try {
+            PUT_INT_VOLATILE.invokeExact(base, origin + offset, value);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int getAndAddInt(final int offset, final int delta) {
+        try {
+            return (int) GET_AND_ADD_INT.invokeExact(base, origin + offset, delta);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Unsafe is needed only if var handles are not available.
+     */
+    private static Object findUnsafe() {
+        try {
+            Class.forName("java.lang.invoke.VarHandle");
+            return null;
+        } catch (final ClassNotFoundException e) {
+            try {
+                final Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return field.get(null);
+            } catch (final ReflectiveOperationException inner) {
+                throw new IllegalStateException("Atomic access to the host lock file is not available.", inner);
+            }
+        }
+    }
+
+    /**
+     * Var handle of the access mode viewing the buffer as an array of the given type, or the Unsafe method.
+     */
+    private static MethodHandle find(final Class<?> viewType, final String accessMode, final String unsafeMethod,
+        final MethodType type) {
+        try {
+            if (UNSAFE != null) {
+                return MethodHandles.lookup().findVirtual(UNSAFE.getClass(), unsafeMethod, type).bindTo(UNSAFE);
+            }
+            final Class<?> varHandleType = Class.forName("java.lang.invoke.VarHandle");
+            final Class<?> accessModeType = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            final Object varHandle = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class,
+                ByteOrder.class).invoke(null, viewType, ByteOrder.nativeOrder());
+            final MethodHandle handle = (MethodHandle) varHandleType.getMethod("toMethodHandle", accessModeType)
+                .invoke(varHandle, accessModeType.getMethod("valueOf", String.class).invoke(null, accessMode));
+            return MethodHandles.explicitCastArguments(handle, type);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Atomic access to the host lock file is not available.", e);
+        }
+    }
+
+    private static long getAddress(final Buffer buffer) {
+        try {
+            final Field field = Buffer.class.getDeclaredField("address");
+            final Object offset = UNSAFE.getClass().getMethod("objectFieldOffset", Field.class).invoke(UNSAFE,
+                field);
+            return (long) UNSAFE.getClass().getMethod("getLong", Object.class, long.class).invoke(UNSAFE, buffer,
+                offset);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Address of the host lock file is not available.", e);
+        }
+    }
+}
\ No newline at end of file
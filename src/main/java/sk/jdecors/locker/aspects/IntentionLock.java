@@ -0,0 +1,203 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock of a parent stamp of {@link sk.jdecors.locker.annotations.StampGroup}. Methods locking the whole group
+ * hold it in shared or exclusive mode, methods locking child stamps hold it in an intention mode. Intention modes
+ * are compatible with each other, so methods locking different children are excluded only by locks of their own
+ * stamps. Counts of holders of all modes are kept in one word that is updated by CAS, blocked threads wait
+ * on a condition that is signalled only if some thread is waiting. Holds of the current thread are excluded
+ * from the compatibility check, so the lock is reentrant in all modes. Exclusive mode is preferred - while some
+ * thread waits for it, other modes are not granted to threads that don't hold the lock yet, so methods locking
+ * children don't starve methods locking the whole group.
+ */
+final class IntentionLock {
+
+    enum Mode {
+        INTENTION_SHARED(1L),
+        INTENTION_EXCLUSIVE(1L << 20),
+        SHARED(1L << 40),
+        EXCLUSIVE(1L << 60);
+
+        private final long unit;
+
+        Mode(final long unit) {
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * Modes held by one thread, kept as the state word of its own holds of each lock.
+     */
+    private static final class HeldModes {
+        private IntentionLock[] locks = new IntentionLock[4];
+        private long[] states = new long[4];
+        private int size;
+
+        long get(final IntentionLock lock) {
+            for (int i = 0; i < size; i++) {
+                if (locks[i] == lock) {
+                    return states[i];
+                }
+            }
+            return 0;
+        }
+
+        void add(final IntentionLock lock, final long unit) {
+            for (int i = 0; i < size; i++) {
+                if (locks[i] == lock) {
+                    states[i] += unit;
+                    if (states[i] == 0) {
+                        size--;
+                        locks[i] = locks[size];
+                        states[i] = states[size];
+                        locks[size] = null;
+                    }
+                    return;
+                }
+            }
+            if (size == locks.length) {
+                locks = Arrays.copyOf(locks, 2 * size);
+                states = Arrays.copyOf(states, 2 * size);
+            }
+            locks[size] = lock;
+            states[size++] = unit;
+        }
+    }
+
+    private static final long COUNT_MASK = (1L << 20) - 1;
+    private static final ThreadLocal<HeldModes> HELD_MODES = ThreadLocal.withInitial(HeldModes::new);
+
+    private final AtomicLong state = new AtomicLong();
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition released = waitLock.newCondition();
+    private volatile int waiters;
+    private volatile int exclusiveWaiters;
+
+    void lock(final Mode mode) {
+        if (tryLock(mode)) {
+            return;
+        }
+        waitLock.lock();
+        try {
+            enqueue(mode);
+            try {
+                while (!tryLock(mode)) {
+                    released.awaitUninterruptibly();
+                }
+            } finally {
+                dequeue(mode);
+            }
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    boolean tryLock(final Mode mode) {
+        final HeldModes heldModes = HELD_MODES.get();
+        final long ownState = heldModes.get(this);
+        if (mode != Mode.EXCLUSIVE && ownState == 0 && exclusiveWaiters > 0) {
+            return false;
+        }
+        long current;
+        do {
+            current = state.get();
+            if (!isCompatible(mode, current - ownState)) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, current + mode.unit));
+        heldModes.add(this, mode.unit);
+        return true;
+    }
+
+    boolean tryLock(final Mode mode, final long deadline) throws InterruptedException {
+        if (tryLock(mode)) {
+            return true;
+        }
+        waitLock.lockInterruptibly();
+        try {
+            enqueue(mode);
+            try {
+                while (!tryLock(mode)) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    released.await(remaining, TimeUnit.NANOSECONDS);
+                }
+                return true;
+            } finally {
+                dequeue(mode);
+            }
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    void unlock(final Mode mode) {
+        state.addAndGet(-mode.unit);
+        HELD_MODES.get().add(this, -mode.unit);
+        if (waiters > 0) {
+            waitLock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private void enqueue(final Mode mode) {
+        waiters++;
+        if (mode == Mode.EXCLUSIVE) {
+            exclusiveWaiters++;
+        }
+    }
+
+    /**
+     * Threads held back by a leaving exclusive waiter are woken up, it may have given up without the lock.
+     */
+    private void dequeue(final Mode mode) {
+        waiters--;
+        if (mode == Mode.EXCLUSIVE && --exclusiveWaiters == 0) {
+            released.signalAll();
+        }
+    }
+
+    private static boolean isCompatible(final Mode mode, final long state) {
+        switch (mode) {
+            case INTENTION_SHARED:
+                return state < Mode.EXCLUSIVE.unit;
+            case INTENTION_EXCLUSIVE:
+                return state < Mode.EXCLUSIVE.unit && count(state, Mode.SHARED) == 0;
+            case SHARED:
+                return state < Mode.EXCLUSIVE.unit && count(state, Mode.INTENTION_EXCLUSIVE) == 0;
+            default:
+                return state == 0;
+        }
+    }
+
+    private static long count(final long state, final Mode mode) {
+        return state / mode.unit & COUNT_MASK;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with power-of-two buckets - bucket with index i counts durations from 2^i ns
+ * (inclusive) to 2^(i+1) ns (exclusive), the first bucket also contains zero durations. All counters are
+ * striped, so concurrent recording doesn't contend on a single memory location.
+ */
+final class LatencyHistogram {
+    static final int BUCKETS = Long.SIZE - 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        final long duration = Math.max(nanos, 0);
+        buckets[Math.max(Long.SIZE - 1 - Long.numberOfLeadingZeros(duration), 0)].increment();
+        totalNanos.add(duration);
+        maxNanos.accumulate(duration);
+    }
+
+    LatencySnapshot snapshot() {
+        final long[] bucketCounts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketCounts[i] = buckets[i].sum();
+            count += bucketCounts[i];
+        }
+        return new LatencySnapshot(count, totalNanos.sum(), maxNanos.get(), bucketCounts);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,80 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+
+/**
+ * Point-in-time copy of one latency histogram. Bucket with index i counts durations from 2^i ns (inclusive)
+ * to 2^(i+1) ns (exclusive).
+ */
+public final class LatencySnapshot {
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] bucketCounts;
+
+    @ConstructorProperties({"count", "totalNanos", "maxNanos", "bucketCounts"})
+    public LatencySnapshot(final long count, final long totalNanos, final long maxNanos, final long[] bucketCounts) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.bucketCounts = bucketCounts.clone();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long[] getBucketCounts() {
+        return bucketCounts.clone();
+    }
+
+    /**
+     * Upper bound of the bucket that contains the requested percentile (0 - 100) of recorded durations.
+     */
+    public long valueAtPercentile(final double percentile) {
+        final long threshold = (long) Math.ceil(count * percentile / 100);
+        long accumulated = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            accumulated += bucketCounts[i];
+            if (accumulated >= threshold && accumulated > 0) {
+                return Math.min((1L << (i + 1)) - 1, maxNanos);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LatencySnapshot{");
+        sb.append("count=").append(count);
+        sb.append(", totalNanos=").append(totalNanos);
+        sb.append(", maxNanos=").append(maxNanos);
+        sb.append(", bucketCounts=").append(Arrays.toString(bucketCounts));
+        sb.append('}');
+        return sb.toString();
+    }
+}
\ No newline at end of file
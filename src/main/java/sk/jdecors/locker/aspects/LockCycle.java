@@ -0,0 +1,68 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cycle of threads waiting for each other found by the deadlock watchdog. Each edge describes a waiting thread
+ * with the advised method it executes, the lock it waits for and the thread that holds the lock.
+ */
+public final class LockCycle implements Serializable {
+    private static final long serialVersionUID = -4170297468232281654L;
+
+    private final long detectedAt;
+    private final List<String> edges;
+    private final String victim;
+
+    LockCycle(final long detectedAt, final List<String> edges, final String victim) {
+        this.detectedAt = detectedAt;
+        this.edges = Collections.unmodifiableList(new ArrayList<>(edges));
+        this.victim = victim;
+    }
+
+    /**
+     * Time of the detection in milliseconds since the epoch.
+     */
+    public long getDetectedAt() {
+        return detectedAt;
+    }
+
+    public List<String> getEdges() {
+        return edges;
+    }
+
+    /**
+     * Name of the thread failed by {@link LockDeadlockException}, or null if the cycle was only reported.
+     */
+    public String getVictim() {
+        return victim;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Lock cycle of ").append(edges.size()).append(" threads:");
+        for (final String edge : edges) {
+            builder.append(System.lineSeparator()).append("    ").append(edge);
+        }
+        if (victim != null) {
+            builder.append(System.lineSeparator()).append("    failed thread \"").append(victim).append('"');
+        }
+        return builder.toString();
+    }
+}
\ No newline at end of file
@@ -15,8 +15,18 @@
 
 package sk.jdecors.locker.aspects;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+import sk.jdecors.locker.aspects.LockPlan.LockMode;
 
 final class LockData {
 
@@ -26,68 +36,735 @@ final class LockData {
         READ_WRITE_LOCKED
     }
 
-    private static final class LockSourceInformation {
-        private final long stamp;
-        private final boolean cameFromUpgradeProcess;
-        private final boolean cameFromDowngradeProcess;
+    /**
+     * Lock bookkeeping of a single thread - it is created once per thread and lock and it is reused by all
+     * subsequent acquisitions, so the locking path doesn't touch any shared structure except the lock itself.
+     */
+    private static final class HoldRecord {
+        private final long lockId;
+        private final WeakReference<LockData> owner;
+        private long stamp;
+        private int readHolds;
+        private int writeHolds;
+        private int upgradableHolds;
+        private boolean holdsUpgradePermit;
+        private boolean cameFromUpgradeProcess;
+        private boolean releasedForEscalation;
+        private boolean cameFromConversion;
+        private int finishedUpgrades;
+        private long readAcquiredAt;
+        private long writeAcquiredAt;
+        private int holdSamples;
+        private long sampledHoldAt;
+        private LockHoldEvent readHoldEvent;
+        private LockHoldEvent writeHoldEvent;
 
-        private LockSourceInformation(final long stamp, final boolean cameFromUpgradeProcess,
-            final boolean cameFromDowngradeProcess) {
-            this.stamp = stamp;
-            this.cameFromUpgradeProcess = cameFromUpgradeProcess;
-            this.cameFromDowngradeProcess = cameFromDowngradeProcess;
+        private HoldRecord(final LockData lockData) {
+            this.lockId = lockData.lockId;
+            this.owner = new WeakReference<>(lockData);
         }
     }
 
+    /**
+     * Hold records of one thread in an open-addressing table keyed by identifiers of locks, so all locks share
+     * a single thread-local. Records of collected locks are dropped when the table is full.
+     */
+    private static final class HoldRecords {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private HoldRecord[] records = new HoldRecord[INITIAL_CAPACITY];
+        private int size;
+
+        /**
+         * Record of the lock, null if the current thread has never acquired it.
+         */
+        HoldRecord find(final LockData lockData) {
+            final HoldRecord[] table = records;
+            final int mask = table.length - 1;
+            for (int i = indexOf(lockData.lockId, mask); ; i = i + 1 & mask) {
+                final HoldRecord holdRecord = table[i];
+                if (holdRecord == null || holdRecord.lockId == lockData.lockId) {
+                    return holdRecord;
+                }
+            }
+        }
+
+        /**
+         * Record of the lock, it is created by the first acquisition of the lock by the current thread.
+         */
+        HoldRecord getOrCreate(final LockData lockData) {
+            final HoldRecord holdRecord = find(lockData);
+            return holdRecord != null ? holdRecord : add(new HoldRecord(lockData));
+        }
+
+        private HoldRecord add(final HoldRecord holdRecord) {
+            if (2 * (size + 1) > records.length) {
+                rebuild();
+            }
+            insert(records, holdRecord);
+            size++;
+            return holdRecord;
+        }
+
+        private void rebuild() {
+            int liveRecords = 0;
+            for (final HoldRecord holdRecord : records) {
+                if (holdRecord != null && holdRecord.owner.get() != null) {
+                    liveRecords++;
+                }
+            }
+            final HoldRecord[] table = new HoldRecord[4 * (liveRecords + 1) > records.length ? 2 * records.length
+                : records.length];
+            for (final HoldRecord holdRecord : records) {
+                if (holdRecord != null && holdRecord.owner.get() != null) {
+                    insert(table, holdRecord);
+                }
+            }
+            records = table;
+            size = liveRecords;
+        }
+
+        private static void insert(final HoldRecord[] table, final HoldRecord holdRecord) {
+            final int mask = table.length - 1;
+            int i = indexOf(holdRecord.lockId, mask);
+            while (table[i] != null) {
+                i = i + 1 & mask;
+            }
+            table[i] = holdRecord;
+        }
+
+        private static int indexOf(final long lockId, final int mask) {
+            return (int) (lockId * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+    }
+
+    /**
+     * Pending asynchronous acquisition - it is completed by the stamp of the granted lock. Asynchronous locks
+     * are not owned by any thread, so they are neither reentrant nor upgradable.
+     */
+    private static final class AsyncAcquisition extends CompletableFuture<Long> {
+        private final LockMode lockMode;
+
+        private AsyncAcquisition(final LockMode lockMode) {
+            this.lockMode = lockMode;
+        }
+    }
+
+    private static final AtomicLong LOCK_IDS = new AtomicLong();
+    private static final ThreadLocal<HoldRecords> HOLD_RECORDS = ThreadLocal.withInitial(HoldRecords::new);
+
+    private final long lockId = LOCK_IDS.getAndIncrement();
+    private final int lockStamp;
     private final StampedLockWithBarrier stampedLock;
-    private final Map<Thread, LockSourceInformation> currentThreads = new ConcurrentHashMap<>();
+    private final LockMetrics metrics;
+    private final Queue<AsyncAcquisition> asyncAcquisitions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger asyncDrainRequests = new AtomicInteger();
+    private final Queue<CombiningRequest> combiningRequests = new ConcurrentLinkedQueue<>();
+    /**
+     * Permit of the single upgradable reader - plain readers don't touch it.
+     */
+    private final ReentrantLock upgradePermit = new ReentrantLock();
+    private final LongAdder optimisticReadSuccesses = new LongAdder();
+    private final LongAdder optimisticReadFallbacks = new LongAdder();
 
-    LockData(final StampedLockWithBarrier stampedLock) {
+    LockData(final int lockStamp, final StampedLockWithBarrier stampedLock) {
+        this.lockStamp = lockStamp;
         this.stampedLock = stampedLock;
+        this.metrics = stampedLock.getMetrics();
     }
 
     void allocateReadLock() {
-        final long stamp = stampedLock.readLock();
-        currentThreads.put(Thread.currentThread(), new LockSourceInformation(stamp, false, false));
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.readHolds == 0 && holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            beginWait(DeadlockDetector.WAIT_READ);
+            try {
+                holdRecord.stamp = stampedLock.readLock();
+            } finally {
+                endWait();
+            }
+            readLockAcquired(holdRecord, startTime);
+        }
+        holdRecord.readHolds++;
+        trackHolds(holdRecord);
     }
 
     void allocateWriteLock() {
-        final Thread currentThread = Thread.currentThread();
-        if (getLockStateInCurrentThread().equals(CurrentThreadLockState.READ_ONLY_LOCKED)) {
-            final long stamp = stampedLock.upgradeLock(currentThreads.get(currentThread).stamp);
-            currentThreads.replace(currentThread, new LockSourceInformation(stamp, true, false));
-        } else {
-            final long stamp = stampedLock.writeLock();
-            currentThreads.put(currentThread, new LockSourceInformation(stamp, false, false));
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            if (holdRecord.releasedForEscalation) {
+                beginWait(DeadlockDetector.WAIT_WRITE);
+                try {
+                    holdRecord.stamp = stampedLock.escalateWriteLock();
+                } finally {
+                    endWait();
+                }
+                holdRecord.releasedForEscalation = false;
+                holdRecord.cameFromConversion = true;
+            } else if (holdRecord.readHolds > 0) {
+                if (!tryConvertUpgradableReadLock(holdRecord)) {
+                    beginWait(DeadlockDetector.WAIT_UPGRADE);
+                    try {
+                        holdRecord.stamp = stampedLock.upgradeLock(holdRecord.stamp);
+                    } finally {
+                        endWait();
+                    }
+                    holdRecord.cameFromUpgradeProcess = true;
+                }
+            } else {
+                beginWait(DeadlockDetector.WAIT_WRITE);
+                try {
+                    holdRecord.stamp = stampedLock.writeLock();
+                } finally {
+                    endWait();
+                }
+            }
+            writeLockAcquired(holdRecord, startTime);
+        }
+        holdRecord.writeHolds++;
+        trackHolds(holdRecord);
+    }
+
+    boolean tryAllocateReadLock() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.readHolds == 0 && holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            final long stamp = stampedLock.tryReadLock();
+            if (stamp == 0) {
+                return false;
+            }
+            holdRecord.stamp = stamp;
+            readLockAcquired(holdRecord, startTime);
+        }
+        holdRecord.readHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    boolean tryAllocateWriteLock() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            if (holdRecord.readHolds > 0) {
+                final long stamp = stampedLock.tryConvertToWriteLock(holdRecord.stamp);
+                if (stamp == 0) {
+                    return false;
+                }
+                holdRecord.stamp = stamp;
+                holdRecord.cameFromConversion = true;
+                writeLockAcquired(holdRecord, startTime);
+            } else {
+                final long stamp = stampedLock.tryWriteLock();
+                if (stamp == 0) {
+                    return false;
+                }
+                holdRecord.stamp = stamp;
+                writeLockAcquired(holdRecord, startTime);
+            }
+        }
+        holdRecord.writeHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    boolean tryAllocateReadLock(final long deadline) throws InterruptedException {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.readHolds == 0 && holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            beginWait(DeadlockDetector.WAIT_READ);
+            final long stamp;
+            try {
+                stamp = stampedLock.tryReadLock(deadline);
+            } finally {
+                endWait();
+            }
+            if (stamp == 0) {
+                return false;
+            }
+            holdRecord.stamp = stamp;
+            readLockAcquired(holdRecord, startTime);
+        }
+        holdRecord.readHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    boolean tryAllocateWriteLock(final long deadline) throws InterruptedException {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (holdRecord.writeHolds == 0) {
+            final long startTime = beginAcquisition();
+            if (holdRecord.releasedForEscalation) {
+                final long stamp;
+                beginWait(DeadlockDetector.WAIT_WRITE);
+                try {
+                    stamp = stampedLock.tryEscalateWriteLock(deadline);
+                } catch (final InterruptedException e) {
+                    restoreReadLock(holdRecord);
+                    throw e;
+                } finally {
+                    endWait();
+                }
+                if (stamp == 0) {
+                    restoreReadLock(holdRecord);
+                    return false;
+                }
+                holdRecord.stamp = stamp;
+                holdRecord.releasedForEscalation = false;
+                holdRecord.cameFromConversion = true;
+                writeLockAcquired(holdRecord, startTime);
+                holdRecord.writeHolds++;
+                trackHolds(holdRecord);
+                return true;
+            }
+            if (tryConvertUpgradableReadLock(holdRecord)) {
+                writeLockAcquired(holdRecord, startTime);
+                holdRecord.writeHolds++;
+                trackHolds(holdRecord);
+                return true;
+            }
+            if (holdRecord.readHolds > 0) {
+                final long stamp;
+                beginWait(DeadlockDetector.WAIT_UPGRADE);
+                try {
+                    stamp = stampedLock.tryUpgradeLock(holdRecord.stamp, deadline);
+                } catch (final InterruptedException e) {
+                    holdRecord.stamp = stampedLock.restoreReadLock();
+                    grantPendingAsyncAcquisitions();
+                    throw e;
+                } finally {
+                    endWait();
+                }
+                if (stamp == 0) {
+                    holdRecord.stamp = stampedLock.restoreReadLock();
+                    grantPendingAsyncAcquisitions();
+                    return false;
+                }
+                holdRecord.stamp = stamp;
+                holdRecord.cameFromUpgradeProcess = true;
+            } else {
+                beginWait(DeadlockDetector.WAIT_WRITE);
+                final long stamp;
+                try {
+                    stamp = stampedLock.tryWriteLock(deadline);
+                } finally {
+                    endWait();
+                }
+                if (stamp == 0) {
+                    return false;
+                }
+                holdRecord.stamp = stamp;
+            }
+            writeLockAcquired(holdRecord, startTime);
+        }
+        holdRecord.writeHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    /**
+     * Releases the read lock of the current thread, which escalates more stamps and waits for write lock
+     * of an earlier one - otherwise it would block another thread escalating the same stamps. The write lock
+     * is then acquired by {@link #allocateWriteLock()} without the barrier and it is downgraded on release.
+     */
+    void releaseReadLockForEscalation() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().find(this);
+        if (holdRecord != null && holdRecord.readHolds > 0 && holdRecord.writeHolds == 0
+            && !holdRecord.releasedForEscalation) {
+            stampedLock.unlockRead(holdRecord.stamp, 0);
+            holdRecord.releasedForEscalation = true;
+            grantPendingAsyncAcquisitions();
+            trackHolds(holdRecord);
         }
     }
 
+    /**
+     * Takes back the read lock released by {@link #releaseReadLockForEscalation()} if the write lock was not
+     * acquired.
+     */
+    void restoreReadLockAfterEscalation() {
+        restoreReadLock(HOLD_RECORDS.get().find(this));
+    }
+
+    private void restoreReadLock(final HoldRecord holdRecord) {
+        if (holdRecord != null && holdRecord.releasedForEscalation) {
+            holdRecord.stamp = stampedLock.restoreEscalatedReadLock();
+            holdRecord.releasedForEscalation = false;
+            trackHolds(holdRecord);
+        }
+    }
+
+    /**
+     * Read lock that can coexist with plain readers, but only a single thread may hold it at once - its escalation
+     * to write lock is tried as an in-place conversion first.
+     */
+    void allocateUpgradableReadLock() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (needsUpgradePermit(holdRecord)) {
+            beginWait(DeadlockDetector.WAIT_UPGRADE_PERMIT);
+            try {
+                upgradePermit.lock();
+            } finally {
+                endWait();
+            }
+            holdRecord.holdsUpgradePermit = true;
+            trackHolds(holdRecord);
+        }
+        allocateReadLock();
+        holdRecord.upgradableHolds++;
+        trackHolds(holdRecord);
+    }
+
+    boolean tryAllocateUpgradableReadLock() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (needsUpgradePermit(holdRecord)) {
+            if (!upgradePermit.tryLock()) {
+                return false;
+            }
+            holdRecord.holdsUpgradePermit = true;
+        }
+        if (!tryAllocateReadLock()) {
+            releaseUpgradePermit(holdRecord);
+            return false;
+        }
+        holdRecord.upgradableHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    boolean tryAllocateUpgradableReadLock(final long deadline) throws InterruptedException {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().getOrCreate(this);
+        if (needsUpgradePermit(holdRecord)) {
+            beginWait(DeadlockDetector.WAIT_UPGRADE_PERMIT);
+            try {
+                if (!upgradePermit.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            } finally {
+                endWait();
+            }
+            holdRecord.holdsUpgradePermit = true;
+            trackHolds(holdRecord);
+        }
+        boolean acquired = false;
+        try {
+            acquired = tryAllocateReadLock(deadline);
+        } finally {
+            if (!acquired) {
+                releaseUpgradePermit(holdRecord);
+            }
+        }
+        if (!acquired) {
+            return false;
+        }
+        holdRecord.upgradableHolds++;
+        trackHolds(holdRecord);
+        return true;
+    }
+
+    void unlockUpgradableReadLock() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().find(this);
+        if (holdRecord == null || holdRecord.upgradableHolds == 0) {
+            throw new IllegalStateException("Upgradable read lock is not held by the current thread.");
+        }
+        holdRecord.upgradableHolds--;
+        unlockReadLock();
+        if (holdRecord.upgradableHolds == 0) {
+            releaseUpgradePermit(holdRecord);
+        }
+        trackHolds(holdRecord);
+    }
+
     void unlockReadLock() {
-        final Thread currentThread = Thread.currentThread();
-        final LockSourceInformation lockInformation = currentThreads.get(currentThread);
-        stampedLock.unlockRead(lockInformation.stamp, lockInformation.cameFromDowngradeProcess);
-        currentThreads.remove(currentThread);
+        final HoldRecord holdRecord = HOLD_RECORDS.get().find(this);
+        if (holdRecord == null || holdRecord.readHolds == 0) {
+            throw new IllegalStateException("Read lock is not held by the current thread.");
+        }
+        holdRecord.readHolds--;
+        if (holdRecord.readHolds == 0 && holdRecord.writeHolds == 0) {
+            if (LockMetrics.ENABLED) {
+                metrics.recordReadHold(System.nanoTime() - holdRecord.readAcquiredAt);
+            }
+            if (LockEvents.ENABLED) {
+                LockEvents.current().commitHold(holdRecord.readHoldEvent, lockStamp, LockMode.READ);
+            }
+            recordSampledHold(holdRecord);
+            stampedLock.unlockRead(holdRecord.stamp, holdRecord.finishedUpgrades);
+            holdRecord.finishedUpgrades = 0;
+            grantPendingAsyncAcquisitions();
+        }
+        trackHolds(holdRecord);
     }
 
     void unlockWriteLock() {
-        final Thread currentThread = Thread.currentThread();
-        final LockSourceInformation lockInformation = currentThreads.get(currentThread);
-        if (lockInformation.cameFromUpgradeProcess) {
-            final long stamp = stampedLock.downgradeLock(currentThreads.get(currentThread).stamp);
-            currentThreads.replace(currentThread, new LockSourceInformation(stamp, false, true));
+        final HoldRecord holdRecord = HOLD_RECORDS.get().find(this);
+        if (holdRecord == null || holdRecord.writeHolds == 0) {
+            throw new IllegalStateException("Write lock is not held by the current thread.");
+        }
+        holdRecord.writeHolds--;
+        if (holdRecord.writeHolds == 0) {
+            if (LockMetrics.ENABLED) {
+                metrics.recordWriteHold(System.nanoTime() - holdRecord.writeAcquiredAt);
+            }
+            if (LockEvents.ENABLED) {
+                LockEvents.current().commitHold(holdRecord.writeHoldEvent, lockStamp, LockMode.WRITE);
+            }
+            recordSampledHold(holdRecord);
+            if (holdRecord.cameFromUpgradeProcess) {
+                holdRecord.stamp = stampedLock.downgradeLock(holdRecord.stamp);
+                holdRecord.cameFromUpgradeProcess = false;
+                holdRecord.finishedUpgrades++;
+            } else if (holdRecord.cameFromConversion) {
+                holdRecord.stamp = stampedLock.downgradeLock(holdRecord.stamp);
+                holdRecord.cameFromConversion = false;
+            } else {
+                stampedLock.unlockWrite(holdRecord.stamp);
+            }
+            grantPendingAsyncAcquisitions();
+        }
+        trackHolds(holdRecord);
+    }
+
+    /**
+     * Acquisition of a lock that is not owned by the current thread - the returned future is completed
+     * by the stamp that must be passed to {@link #unlockAsync(LockMode, long)}. If the lock is not available
+     * immediately, the acquisition is queued and it is granted by the common pool after one of the conflicting
+     * locks is released.
+     */
+    CompletableFuture<Long> allocateLockAsync(final LockMode lockMode) {
+        if (asyncAcquisitions.isEmpty()) {
+            final long stamp = tryAllocateLockAsync(lockMode);
+            if (stamp != 0) {
+                return CompletableFuture.completedFuture(stamp);
+            }
+        }
+        final AsyncAcquisition acquisition = new AsyncAcquisition(lockMode);
+        asyncAcquisitions.add(acquisition);
+        drainAsyncAcquisitions();
+        return acquisition;
+    }
+
+    void unlockAsync(final LockMode lockMode, final long stamp) {
+        if (lockMode == LockMode.READ) {
+            stampedLock.unlockRead(stamp, 0);
         } else {
-            stampedLock.unlockWrite(currentThreads.get(currentThread).stamp);
-            currentThreads.remove(currentThread);
+            stampedLock.unlockWrite(stamp);
         }
+        grantPendingAsyncAcquisitions();
     }
 
-    CurrentThreadLockState getLockStateInCurrentThread() {
-        if (currentThreads.containsKey(Thread.currentThread())) {
-            if (stampedLock.isWriteLocked()) {
-                return CurrentThreadLockState.READ_WRITE_LOCKED;
+    void publishCombiningRequest(final CombiningRequest request) {
+        combiningRequests.add(request);
+    }
+
+    /**
+     * Executes up to the given number of published combining requests - the write lock must be held
+     * by the current thread.
+     */
+    void executeCombiningRequests(final int maxRequests) {
+        CombiningRequest request;
+        for (int i = 0; i < maxRequests && (request = combiningRequests.poll()) != null; i++) {
+            request.execute();
+        }
+    }
+
+    private long tryAllocateLockAsync(final LockMode lockMode) {
+        return lockMode == LockMode.READ ? stampedLock.tryReadLock() : stampedLock.tryWriteLock();
+    }
+
+    private static boolean needsUpgradePermit(final HoldRecord holdRecord) {
+        if (holdRecord.upgradableHolds > 0 || holdRecord.writeHolds > 0) {
+            return false;
+        }
+        if (holdRecord.readHolds > 0) {
+            throw new IllegalStateException("Upgradable read lock cannot be acquired by the thread that already "
+                + "holds plain read lock.");
+        }
+        return true;
+    }
+
+    private void releaseUpgradePermit(final HoldRecord holdRecord) {
+        if (holdRecord.holdsUpgradePermit) {
+            holdRecord.holdsUpgradePermit = false;
+            upgradePermit.unlock();
+        }
+    }
+
+    /**
+     * Fast path of the upgradable reader - the read lock is converted to write lock atomically if no other
+     * reader holds it, so neither the barrier nor a window without lock is involved.
+     */
+    private boolean tryConvertUpgradableReadLock(final HoldRecord holdRecord) {
+        if (holdRecord.upgradableHolds == 0) {
+            return false;
+        }
+        final long stamp = stampedLock.tryConvertToWriteLock(holdRecord.stamp);
+        if (stamp == 0) {
+            return false;
+        }
+        holdRecord.stamp = stamp;
+        holdRecord.cameFromConversion = true;
+        return true;
+    }
+
+    private void grantPendingAsyncAcquisitions() {
+        if (!asyncAcquisitions.isEmpty()) {
+            drainAsyncAcquisitions();
+        }
+    }
+
+    private void drainAsyncAcquisitions() {
+        if (asyncDrainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int drainRequests = 1;
+        do {
+            AsyncAcquisition acquisition;
+            while ((acquisition = asyncAcquisitions.peek()) != null) {
+                final long stamp = tryAllocateLockAsync(acquisition.lockMode);
+                if (stamp == 0) {
+                    break;
+                }
+                asyncAcquisitions.poll();
+                final AsyncAcquisition grantedAcquisition = acquisition;
+                ForkJoinPool.commonPool().execute(() -> grantedAcquisition.complete(stamp));
+            }
+            drainRequests = asyncDrainRequests.addAndGet(-drainRequests);
+        } while (drainRequests != 0);
+    }
+
+    private long beginAcquisition() {
+        if (LockEvents.ENABLED) {
+            LockEvents.current().beginWait(lockStamp);
+        }
+        return LockMetrics.ENABLED ? System.nanoTime() : 0;
+    }
+
+    private void beginWait(final int waitMode) {
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().beginWait(this, waitMode);
+        }
+    }
+
+    private static void endWait() {
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().endWait();
+        }
+    }
+
+    /**
+     * Publishes holds of the current thread to the deadlock watchdog - a thread that finished an upgrade blocks
+     * new readers by the barrier until it releases its read lock.
+     */
+    private void trackHolds(final HoldRecord holdRecord) {
+        if (DeadlockDetector.ENABLED) {
+            int flags = 0;
+            if (holdRecord.readHolds > 0 && !holdRecord.releasedForEscalation) {
+                flags |= DeadlockDetector.HELD_READ;
+            }
+            if (holdRecord.writeHolds > 0) {
+                flags |= DeadlockDetector.HELD_WRITE;
+            }
+            if (holdRecord.holdsUpgradePermit) {
+                flags |= DeadlockDetector.HELD_UPGRADE_PERMIT;
+            }
+            if (holdRecord.finishedUpgrades > 0 || holdRecord.cameFromUpgradeProcess) {
+                flags |= DeadlockDetector.HELD_BARRIER;
+            }
+            DeadlockDetector.current().track(this, flags);
+        }
+    }
+
+    private static void sampleHold(final HoldRecord holdRecord) {
+        if (AdaptiveSpinning.ENABLED && ++holdRecord.holdSamples % AdaptiveSpinning.SAMPLE_PERIOD == 0) {
+            holdRecord.sampledHoldAt = System.nanoTime();
+        }
+    }
+
+    private void recordSampledHold(final HoldRecord holdRecord) {
+        if (AdaptiveSpinning.ENABLED && holdRecord.sampledHoldAt != 0) {
+            stampedLock.recordHold(System.nanoTime() - holdRecord.sampledHoldAt);
+            holdRecord.sampledHoldAt = 0;
+        }
+    }
+
+    private void readLockAcquired(final HoldRecord holdRecord, final long startTime) {
+        sampleHold(holdRecord);
+        if (LockMetrics.ENABLED) {
+            holdRecord.readAcquiredAt = System.nanoTime();
+            metrics.recordReadAcquisition(holdRecord.readAcquiredAt - startTime);
+        }
+        if (LockEvents.ENABLED) {
+            LockEvents.current().commitWait(LockMode.READ);
+            holdRecord.readHoldEvent = LockEvents.beginHold(holdRecord.readHoldEvent);
+        }
+    }
+
+    private void writeLockAcquired(final HoldRecord holdRecord, final long startTime) {
+        sampleHold(holdRecord);
+        if (LockMetrics.ENABLED) {
+            holdRecord.writeAcquiredAt = System.nanoTime();
+            metrics.recordWriteAcquisition(holdRecord.writeAcquiredAt - startTime);
+            if (holdRecord.readHolds > 0) {
+                metrics.recordUpgrade();
+            }
+        }
+        if (LockEvents.ENABLED) {
+            final LockEvents events = LockEvents.current();
+            if (holdRecord.readHolds > 0) {
+                events.commitUpgrade();
             } else {
-                return CurrentThreadLockState.READ_ONLY_LOCKED;
+                events.commitWait(LockMode.WRITE);
             }
+            holdRecord.writeHoldEvent = LockEvents.beginHold(holdRecord.writeHoldEvent);
+        }
+    }
+
+    long tryOptimisticRead() {
+        return stampedLock.tryOptimisticRead();
+    }
+
+    boolean validate(final long stamp) {
+        return stampedLock.validate(stamp);
+    }
+
+    int getLockStamp() {
+        return lockStamp;
+    }
+
+    FairnessPolicy getPolicy() {
+        return stampedLock.getPolicy();
+    }
+
+    void recordOptimisticReadSuccess() {
+        optimisticReadSuccesses.increment();
+    }
+
+    void recordOptimisticReadFallback() {
+        optimisticReadFallbacks.increment();
+    }
+
+    long getOptimisticReadSuccesses() {
+        return optimisticReadSuccesses.sum();
+    }
+
+    long getOptimisticReadFallbacks() {
+        return optimisticReadFallbacks.sum();
+    }
+
+    LockStatistics snapshot(final String ownerType, final int ownerIdentity, final int stripe) {
+        return metrics.snapshot(ownerType, ownerIdentity, lockStamp, stripe, getOptimisticReadSuccesses(),
+            getOptimisticReadFallbacks());
+    }
+
+    CurrentThreadLockState getLockStateInCurrentThread() {
+        final HoldRecord holdRecord = HOLD_RECORDS.get().find(this);
+        if (holdRecord == null) {
+            return CurrentThreadLockState.UNLOCKED;
+        } else if (holdRecord.writeHolds > 0) {
+            return CurrentThreadLockState.READ_WRITE_LOCKED;
+        } else if (holdRecord.readHolds > 0) {
+            return CurrentThreadLockState.READ_ONLY_LOCKED;
         } else {
             return CurrentThreadLockState.UNLOCKED;
         }
@@ -0,0 +1,33 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+/**
+ * Thrown to the thread selected by the deadlock watchdog to break a cycle of waiting threads.
+ */
+public final class LockDeadlockException extends RuntimeException {
+    private static final long serialVersionUID = 6051827340913465730L;
+
+    private final LockCycle cycle;
+
+    LockDeadlockException(final LockCycle cycle) {
+        super(cycle.toString());
+        this.cycle = cycle;
+    }
+
+    public LockCycle getCycle() {
+        return cycle;
+    }
+}
\ No newline at end of file
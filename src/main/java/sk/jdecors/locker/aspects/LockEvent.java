@@ -0,0 +1,35 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of flight recorder events emitted by the locker. Instances are reused by one thread,
+ * so every emission must start with {@link #begin()} and finish with {@link #end()} before the commit.
+ */
+@Category("Locker")
+abstract class LockEvent extends Event {
+    @Label("Stamp")
+    int stamp;
+
+    @Label("Target Class")
+    Class<?> targetClass;
+
+    @Label("Method")
+    String method;
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+package sk.jdecors.locker.aspects;
+
+import sk.jdecors.locker.aspects.LockPlan.LockMode;
+
+/**
+ * Per-thread emitter of flight recorder events. Events are emitted only if the JVM is started with system
+ * property '{@value #ENABLED_PROPERTY}=true' and the flight recorder API is present in the running JVM.
+ * Each thread reuses its own event instances and the invocation context (target class and signature
+ * of the advised method) is set by the aspect before allocation of locks, so lock data and barriers
+ * can emit events without any knowledge about join points.
+ */
+final class LockEvents {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.events";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY) && isFlightRecorderAvailable();
+
+    private static final ThreadLocal<LockEvents> EVENTS = ThreadLocal.withInitial(LockEvents::new);
+
+    private final LockWaitEvent waitEvent = new LockWaitEvent();
+    private final LockUpgradeEvent upgradeEvent = new LockUpgradeEvent();
+    private final BarrierStallEvent barrierStallEvent = new BarrierStallEvent();
+    private Class<?> targetClass;
+    private String method;
+    private int stamp;
+
+    private LockEvents() {
+    }
+
+    static LockEvents current() {
+        return EVENTS.get();
+    }
+
+    void enter(final Object target, final String method) {
+        this.targetClass = target == null ? null : target.getClass();
+        this.method = method;
+    }
+
+    void beginWait(final int stamp) {
+        this.stamp = stamp;
+        waitEvent.begin();
+        upgradeEvent.begin();
+    }
+
+    void commitWait(final LockMode lockMode) {
+        waitEvent.end();
+        if (waitEvent.shouldCommit()) {
+            waitEvent.lockMode = lockMode.name();
+            commit(waitEvent, stamp);
+        }
+    }
+
+    void commitUpgrade() {
+        upgradeEvent.end();
+        if (upgradeEvent.shouldCommit()) {
+            commit(upgradeEvent, stamp);
+        }
+    }
+
+    void beginBarrierStall() {
+        barrierStallEvent.begin();
+    }
+
+    void commitBarrierStall() {
+        barrierStallEvent.end();
+        if (barrierStallEvent.shouldCommit()) {
+            commit(barrierStallEvent, stamp);
+        }
+    }
+
+    static LockHoldEvent beginHold(final LockHoldEvent holdEvent) {
+        final LockHoldEvent event = holdEvent == null ? new LockHoldEvent() : holdEvent;
+        event.begin();
+        return event;
+    }
+
+    void commitHold(final LockHoldEvent holdEvent, final int stamp, final LockMode lockMode) {
+        holdEvent.end();
+        if (holdEvent.shouldCommit()) {
+            holdEvent.lockMode = lockMode.name();
+            commit(holdEvent, stamp);
+        }
+    }
+
+    private void commit(final LockEvent event, final int stamp) {
+        event.stamp = stamp;
+        event.targetClass = targetClass;
+        event.method = method;
+        event.commit();
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, LockEvents.class.getClassLoader());
+            return true;
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
\ No newline at end of file
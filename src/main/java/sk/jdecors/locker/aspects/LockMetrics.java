@@ -0,0 +1,77 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention and hold-time statistics of one stamp. Metrics are collected only if system property
+ * '{@value #ENABLED_PROPERTY}' is set to 'true' - otherwise the flag is folded by JIT and the instrumentation
+ * disappears from the locking path together with the metrics objects.
+ */
+final class LockMetrics {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.metrics";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private final LongAdder readAcquisitions = new LongAdder();
+    private final LongAdder writeAcquisitions = new LongAdder();
+    private final LongAdder upgrades = new LongAdder();
+    private final LongAdder barrierWaits = new LongAdder();
+    private final LatencyHistogram readWaitTime = new LatencyHistogram();
+    private final LatencyHistogram writeWaitTime = new LatencyHistogram();
+    private final LatencyHistogram readHoldTime = new LatencyHistogram();
+    private final LatencyHistogram writeHoldTime = new LatencyHistogram();
+    private final LatencyHistogram barrierWaitTime = new LatencyHistogram();
+
+    static LockMetrics create() {
+        return ENABLED ? new LockMetrics() : null;
+    }
+
+    void recordReadAcquisition(final long waitNanos) {
+        readAcquisitions.increment();
+        readWaitTime.record(waitNanos);
+    }
+
+    void recordWriteAcquisition(final long waitNanos) {
+        writeAcquisitions.increment();
+        writeWaitTime.record(waitNanos);
+    }
+
+    void recordUpgrade() {
+        upgrades.increment();
+    }
+
+    void recordBarrierWait(final long waitNanos) {
+        barrierWaits.increment();
+        barrierWaitTime.record(waitNanos);
+    }
+
+    void recordReadHold(final long holdNanos) {
+        readHoldTime.record(holdNanos);
+    }
+
+    void recordWriteHold(final long holdNanos) {
+        writeHoldTime.record(holdNanos);
+    }
+
+    LockStatistics snapshot(final String ownerType, final int ownerIdentity, final int stamp, final int stripe,
+        final long optimisticReadSuccesses, final long optimisticReadFallbacks) {
+        return new LockStatistics(ownerType, ownerIdentity, stamp, stripe, readAcquisitions.sum(),
+            writeAcquisitions.sum(), upgrades.sum(), barrierWaits.sum(), optimisticReadSuccesses,
+            optimisticReadFallbacks, readWaitTime.snapshot(), writeWaitTime.snapshot(), readHoldTime.snapshot(),
+            writeHoldTime.snapshot(), barrierWaitTime.snapshot());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,566 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForUpgradableRead;
+import sk.jdecors.locker.annotations.LockScope;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.annotations.TimeoutPolicy;
+
+/**
+ * Immutable description of the locks that must be allocated before execution of one annotated method. Plans
+ * are resolved only once per static join point, so the advice doesn't have to touch reflection or annotations
+ * on the steady-state path. Stamps are always ordered in the canonical (ascending) order, so two methods
+ * that share some stamps cannot deadlock each other regardless of the order of stamps in the annotations.
+ * Methods returning {@link CompletionStage} are planned as asynchronous - their locks are held until
+ * the returned stage completes. Plans generated at build time are taken from {@link LockPlanIndex}.
+ */
+final class LockPlan {
+
+    enum LockMode {
+        READ,
+        UPGRADABLE_READ,
+        WRITE
+    }
+
+    static final int NO_STRIPE = -1;
+
+    private static final Map<JoinPoint.StaticPart, LockPlan> READ_PLANS = new ConcurrentHashMap<>();
+    private static final Map<JoinPoint.StaticPart, LockPlan> UPGRADABLE_READ_PLANS = new ConcurrentHashMap<>();
+    private static final Map<JoinPoint.StaticPart, LockPlan> WRITE_PLANS = new ConcurrentHashMap<>();
+
+    private final LockMode lockMode;
+    private final String signature;
+    private final int[] declaredStamps;
+    private final int[] stamps;
+    private final int[] groupStamps;
+    private final IntentionLock.Mode[] groupModes;
+    private final boolean allOrNothing;
+    private final long timeoutNanos;
+    private final TimeoutPolicy timeoutPolicy;
+    private final Method fallbackMethod;
+    private final Object skippedResult;
+    private final boolean optimistic;
+    private final int optimisticRetries;
+    private final boolean asynchronous;
+    private final int keyArg;
+    private final Method keyGetter;
+    private final int stripes;
+    private final boolean combining;
+    private final boolean hostScoped;
+    private final FairnessPolicy policy;
+    private final ClassValue<LockPlan> targetPlans = new ClassValue<LockPlan>() {
+        @Override
+        protected LockPlan computeValue(final Class<?> targetType) {
+            final StampHierarchy hierarchy = StampHierarchy.of(targetType);
+            return hierarchy.hasGroups() || hasGroups() ? new LockPlan(LockPlan.this, hierarchy) : LockPlan.this;
+        }
+    };
+
+    private LockPlan(final Method method, final String signature, final LockedForRead annotation) {
+        this(LockMode.READ, method, signature, annotation.stamp(), annotation.allOrNothing(),
+            annotation.timeout(), annotation.unit(), annotation.onTimeout(), annotation.fallback(),
+            annotation.optimistic(), annotation.optimisticRetries(), annotation.keyArg(), annotation.keyGetter(),
+            annotation.stripes(), false, annotation.scope() == LockScope.HOST, annotation.policy());
+    }
+
+    private LockPlan(final Method method, final String signature, final LockedForUpgradableRead annotation) {
+        this(LockMode.UPGRADABLE_READ, method, signature, annotation.stamp(), annotation.allOrNothing(),
+            annotation.timeout(), annotation.unit(), annotation.onTimeout(), annotation.fallback(), false, 0,
+            LockedForRead.NO_KEY_ARG, "", LockedForRead.DEFAULT_STRIPES, false, false, annotation.policy());
+    }
+
+    private LockPlan(final Method method, final String signature, final LockedForWrite annotation) {
+        this(LockMode.WRITE, method, signature, annotation.stamp(), annotation.allOrNothing(),
+            annotation.timeout(), annotation.unit(), annotation.onTimeout(), annotation.fallback(), false, 0,
+            annotation.keyArg(), annotation.keyGetter(), annotation.stripes(), annotation.combining(),
+            annotation.scope() == LockScope.HOST, annotation.policy());
+    }
+
+    private LockPlan(final LockMode lockMode, final Method method, final String signature, final int[] stamps,
+        final boolean allOrNothing, final long timeout, final TimeUnit unit, final TimeoutPolicy timeoutPolicy,
+        final String fallback, final boolean optimistic, final int optimisticRetries, final int keyArg,
+        final String keyGetter, final int stripes, final boolean combining, final boolean hostScoped,
+        final FairnessPolicy policy) {
+        this.lockMode = lockMode;
+        this.signature = signature;
+        this.declaredStamps = reduceStamps(stamps);
+        final StampHierarchy.Split split = StampHierarchy.of(method.getDeclaringClass())
+            .split(declaredStamps, lockMode == LockMode.WRITE);
+        this.stamps = split.getStamps();
+        this.groupStamps = split.getGroupStamps();
+        this.groupModes = split.getGroupModes();
+        this.allOrNothing = allOrNothing;
+        this.timeoutNanos = timeout < 0 ? -1 : unit.toNanos(timeout);
+        this.timeoutPolicy = timeoutPolicy;
+        this.skippedResult = getDefaultValue(method.getReturnType());
+        this.optimistic = optimistic;
+        this.optimisticRetries = optimisticRetries;
+        this.asynchronous = isAsynchronous(method.getReturnType(), signature);
+        this.keyArg = keyArg;
+        this.stripes = stripes;
+        this.combining = combining;
+        this.hostScoped = hostScoped;
+        this.policy = policy;
+        validate(method.getParameterCount());
+        this.fallbackMethod = timeoutPolicy == TimeoutPolicy.FALLBACK ? findFallbackMethod(method, fallback) : null;
+        this.keyGetter = findKeyGetter(method, keyArg, keyGetter);
+    }
+
+    /**
+     * Plan generated by the annotation processor - it is validated and its stamps are ordered by the same rules
+     * as plans read from annotations, so a stale or edited index cannot bypass them. The method is looked up
+     * reflectively only if the plan refers to a fallback method or a key getter.
+     */
+    private LockPlan(final JoinPoint.StaticPart staticPart, final String[] indexedPlan) {
+        final MethodSignature methodSignature = (MethodSignature) staticPart.getSignature();
+        this.lockMode = LockMode.valueOf(indexedPlan[LockPlanIndex.MODE]);
+        this.signature = methodSignature.toLongString();
+        this.declaredStamps = reduceStamps(Arrays.stream(indexedPlan[LockPlanIndex.STAMPS].split(","))
+            .mapToInt(Integer::parseInt).toArray());
+        final StampHierarchy.Split split = StampHierarchy.of(methodSignature.getDeclaringType())
+            .split(declaredStamps, lockMode == LockMode.WRITE);
+        this.stamps = split.getStamps();
+        this.groupStamps = split.getGroupStamps();
+        this.groupModes = split.getGroupModes();
+        this.allOrNothing = Boolean.parseBoolean(indexedPlan[LockPlanIndex.ALL_OR_NOTHING]);
+        this.timeoutNanos = Long.parseLong(indexedPlan[LockPlanIndex.TIMEOUT_NANOS]);
+        this.timeoutPolicy = TimeoutPolicy.valueOf(indexedPlan[LockPlanIndex.TIMEOUT_POLICY]);
+        this.skippedResult = getDefaultValue(methodSignature.getReturnType());
+        this.optimistic = Boolean.parseBoolean(indexedPlan[LockPlanIndex.OPTIMISTIC]);
+        this.optimisticRetries = Integer.parseInt(indexedPlan[LockPlanIndex.OPTIMISTIC_RETRIES]);
+        this.asynchronous = isAsynchronous(methodSignature.getReturnType(), signature);
+        if (asynchronous != Boolean.parseBoolean(indexedPlan[LockPlanIndex.ASYNCHRONOUS])) {
+            throw new IllegalStateException(String.format("Indexed lock plan doesn't match return type of %s, "
+                + "the index of lock plans is stale.", signature));
+        }
+        this.keyArg = Integer.parseInt(indexedPlan[LockPlanIndex.KEY_ARG]);
+        this.stripes = Integer.parseInt(indexedPlan[LockPlanIndex.STRIPES]);
+        this.combining = Boolean.parseBoolean(indexedPlan[LockPlanIndex.COMBINING]);
+        this.hostScoped = LockScope.HOST.name().equals(indexedPlan[LockPlanIndex.SCOPE]);
+        this.policy = FairnessPolicy.valueOf(indexedPlan[LockPlanIndex.POLICY]);
+        validate(methodSignature.getParameterTypes().length);
+        this.fallbackMethod = timeoutPolicy == TimeoutPolicy.FALLBACK
+            ? findFallbackMethod(getMethod(staticPart), indexedPlan[LockPlanIndex.FALLBACK]) : null;
+        this.keyGetter = indexedPlan[LockPlanIndex.KEY_GETTER].isEmpty() ? null
+            : findKeyGetter(getMethod(staticPart), keyArg, indexedPlan[LockPlanIndex.KEY_GETTER]);
+    }
+
+    /**
+     * Plan of a {@link Locker} block - it waits for locks without timeout and the block cannot be keyed. Stamp
+     * groups are taken from the class of the locked object and the block uses locks of any policy.
+     */
+    private LockPlan(final LockMode lockMode, final int[] stamps, final Class<?> targetType) {
+        final int[] reducedStamps = reduceStamps(stamps);
+        final StampHierarchy.Split split = StampHierarchy.of(targetType).split(reducedStamps,
+            lockMode == LockMode.WRITE);
+        this.lockMode = lockMode;
+        this.declaredStamps = reducedStamps;
+        this.stamps = split.getStamps();
+        this.groupStamps = split.getGroupStamps();
+        this.groupModes = split.getGroupModes();
+        this.signature = String.format("%s.%s %s", Locker.class.getName(), lockMode == LockMode.READ ? "read"
+            : "write", Arrays.toString(reducedStamps));
+        this.allOrNothing = false;
+        this.timeoutNanos = -1;
+        this.timeoutPolicy = TimeoutPolicy.THROW;
+        this.fallbackMethod = null;
+        this.skippedResult = null;
+        this.optimistic = false;
+        this.optimisticRetries = 0;
+        this.asynchronous = false;
+        this.keyArg = LockedForRead.NO_KEY_ARG;
+        this.keyGetter = null;
+        this.stripes = LockedForRead.DEFAULT_STRIPES;
+        this.combining = false;
+        this.hostScoped = false;
+        this.policy = null;
+    }
+
+    /**
+     * Plan of the same method split by stamp groups of another class.
+     */
+    private LockPlan(final LockPlan plan, final StampHierarchy hierarchy) {
+        final StampHierarchy.Split split = hierarchy.split(plan.declaredStamps, plan.lockMode == LockMode.WRITE);
+        this.lockMode = plan.lockMode;
+        this.signature = plan.signature;
+        this.declaredStamps = plan.declaredStamps;
+        this.stamps = split.getStamps();
+        this.groupStamps = split.getGroupStamps();
+        this.groupModes = split.getGroupModes();
+        this.allOrNothing = plan.allOrNothing;
+        this.timeoutNanos = plan.timeoutNanos;
+        this.timeoutPolicy = plan.timeoutPolicy;
+        this.fallbackMethod = plan.fallbackMethod;
+        this.skippedResult = plan.skippedResult;
+        this.optimistic = plan.optimistic;
+        this.optimisticRetries = plan.optimisticRetries;
+        this.asynchronous = plan.asynchronous;
+        this.keyArg = plan.keyArg;
+        this.keyGetter = plan.keyGetter;
+        this.stripes = plan.stripes;
+        this.combining = plan.combining;
+        this.hostScoped = plan.hostScoped;
+        this.policy = plan.policy;
+        validateGroups();
+    }
+
+    static LockPlan ofReadLocks(final JoinPoint.StaticPart staticPart) {
+        final LockPlan lockPlan = READ_PLANS.get(staticPart);
+        if (lockPlan != null) {
+            return lockPlan;
+        }
+        return READ_PLANS.computeIfAbsent(staticPart, part -> create(part, LockMode.READ));
+    }
+
+    static LockPlan ofUpgradableReadLocks(final JoinPoint.StaticPart staticPart) {
+        final LockPlan lockPlan = UPGRADABLE_READ_PLANS.get(staticPart);
+        if (lockPlan != null) {
+            return lockPlan;
+        }
+        return UPGRADABLE_READ_PLANS.computeIfAbsent(staticPart, part -> create(part, LockMode.UPGRADABLE_READ));
+    }
+
+    static LockPlan ofWriteLocks(final JoinPoint.StaticPart staticPart) {
+        final LockPlan lockPlan = WRITE_PLANS.get(staticPart);
+        if (lockPlan != null) {
+            return lockPlan;
+        }
+        return WRITE_PLANS.computeIfAbsent(staticPart, part -> create(part, LockMode.WRITE));
+    }
+
+    static LockPlan ofIndexedPlan(final JoinPoint.StaticPart staticPart, final String[] indexedPlan) {
+        return new LockPlan(staticPart, indexedPlan);
+    }
+
+    private static LockPlan create(final JoinPoint.StaticPart staticPart, final LockMode lockMode) {
+        final String[] indexedPlan = LockPlanIndex.find((MethodSignature) staticPart.getSignature());
+        if (indexedPlan != null && lockMode.name().equals(indexedPlan[LockPlanIndex.MODE])) {
+            return ofIndexedPlan(staticPart, indexedPlan);
+        }
+        return ofAnnotation(staticPart, lockMode);
+    }
+
+    /**
+     * Plan read reflectively from the annotation of the method - both ways of planning describe the method
+     * by the same signature.
+     */
+    static LockPlan ofAnnotation(final JoinPoint.StaticPart staticPart, final LockMode lockMode) {
+        final Method method = getMethod(staticPart);
+        final String signature = staticPart.getSignature().toLongString();
+        switch (lockMode) {
+            case READ:
+                return new LockPlan(method, signature, method.getAnnotation(LockedForRead.class));
+            case UPGRADABLE_READ:
+                return new LockPlan(method, signature, method.getAnnotation(LockedForUpgradableRead.class));
+            default:
+                return new LockPlan(method, signature, method.getAnnotation(LockedForWrite.class));
+        }
+    }
+
+    static LockPlan ofStamps(final LockMode lockMode, final int[] stamps, final Class<?> targetType) {
+        return new LockPlan(lockMode, stamps, targetType);
+    }
+
+    /**
+     * Plan following stamp groups of the runtime class of the locked object, so an inherited method and methods
+     * of the subclass lock the same hierarchy. Plans of each class are resolved only once.
+     */
+    LockPlan forTarget(final Object target) {
+        return target == null ? this : targetPlans.get(target.getClass());
+    }
+
+    LockMode getLockMode() {
+        return lockMode;
+    }
+
+    String getSignature() {
+        return signature;
+    }
+
+    boolean isAllOrNothing() {
+        return allOrNothing;
+    }
+
+    boolean hasTimeout() {
+        return timeoutNanos >= 0;
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    Method getFallbackMethod() {
+        return fallbackMethod;
+    }
+
+    Object getSkippedResult() {
+        return skippedResult;
+    }
+
+    boolean isOptimistic() {
+        return optimistic;
+    }
+
+    int getOptimisticRetries() {
+        return optimisticRetries;
+    }
+
+    boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    boolean isKeyed() {
+        return keyArg >= 0;
+    }
+
+    int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Stripe of keyed locks selected by the key derived from invocation arguments.
+     */
+    int getStripe(final Object[] args) {
+        final int hash = Objects.hashCode(getKey(args[keyArg]));
+        return Math.floorMod(hash ^ (hash >>> 16), stripes);
+    }
+
+    boolean isCombining() {
+        return combining;
+    }
+
+    /**
+     * Locks of the plan are shared also with other JVMs through {@link HostLockSegment}.
+     */
+    boolean isHostScoped() {
+        return hostScoped;
+    }
+
+    /**
+     * Fairness policy of the locks, null if the plan uses existing locks of any policy.
+     */
+    FairnessPolicy getPolicy() {
+        return policy;
+    }
+
+    int size() {
+        return stamps.length;
+    }
+
+    int getStamp(final int index) {
+        return stamps[index];
+    }
+
+    String getStamps() {
+        return Arrays.toString(stamps);
+    }
+
+    /**
+     * Plan locks parent stamps of {@link sk.jdecors.locker.annotations.StampGroup} declared by the locked class.
+     */
+    boolean hasGroups() {
+        return groupStamps.length > 0;
+    }
+
+    int groupSize() {
+        return groupStamps.length;
+    }
+
+    int getGroupStamp(final int index) {
+        return groupStamps[index];
+    }
+
+    IntentionLock.Mode getGroupMode(final int index) {
+        return groupModes[index];
+    }
+
+    /**
+     * Rules shared by plans read from annotations and plans loaded from the index.
+     */
+    private void validate(final int parameterCount) {
+        if (optimisticRetries < 0) {
+            throw new IllegalStateException(String.format("Number of optimistic retries must be non-negative: %s",
+                signature));
+        }
+        if (optimistic && lockMode != LockMode.READ || combining && lockMode != LockMode.WRITE) {
+            throw new IllegalStateException(String.format("Optimistic reading is supported only by read locks "
+                + "and combining only by write locks: %s", signature));
+        }
+        if (keyArg >= parameterCount || keyArg >= 0 && stripes <= 0) {
+            throw new IllegalStateException(String.format("Key argument index must refer to a parameter "
+                + "and number of stripes must be positive: %s", signature));
+        }
+        if (asynchronous && (hasTimeout() || optimistic)) {
+            throw new IllegalStateException(String.format("Timeout and optimistic reading are not supported "
+                + "by asynchronous method: %s", signature));
+        }
+        if (asynchronous && lockMode == LockMode.UPGRADABLE_READ) {
+            throw new IllegalStateException(String.format("Upgradable read lock is not supported by asynchronous "
+                + "method: %s", signature));
+        }
+        if (combining && (stamps.length != 1 || hasTimeout() || asynchronous)) {
+            throw new IllegalStateException(String.format("Combining is supported only by synchronous methods "
+                + "with single stamp and without timeout: %s", signature));
+        }
+        if (hostScoped && (hasTimeout() || optimistic || asynchronous || isKeyed() || combining
+            || stamps.length > 0 && (stamps[0] < 0 || stamps[stamps.length - 1] >= LockScope.MAX_HOST_STAMPS))) {
+            throw new IllegalStateException(String.format("Host scope is supported only by synchronous methods "
+                + "with stamps between 0 and %d, without timeout, key, optimistic reading and combining: %s",
+                LockScope.MAX_HOST_STAMPS - 1, signature));
+        }
+        validateGroups();
+    }
+
+    private void validateGroups() {
+        if (hasGroups() && (lockMode == LockMode.UPGRADABLE_READ || allOrNothing || optimistic || asynchronous
+            || isKeyed() || combining || hostScoped)) {
+            throw new IllegalStateException(String.format("Stamp groups are supported only by synchronous read "
+                + "and write methods without all-or-nothing locking, key, optimistic reading, combining and host "
+                + "scope: %s", signature));
+        }
+    }
+
+    private static Method getMethod(final JoinPoint.StaticPart staticPart) {
+        final MethodSignature signature = (MethodSignature) staticPart.getSignature();
+        return signature.getMethod();
+    }
+
+    private static Method findFallbackMethod(final Method method, final String fallback) {
+        final Method fallbackMethod;
+        try {
+            fallbackMethod = method.getDeclaringClass().getDeclaredMethod(fallback, method.getParameterTypes());
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(String.format("Fallback method '%s' with the same parameter types "
+                + "is not declared next to %s.", fallback, method), e);
+        }
+        if (!method.getReturnType().isAssignableFrom(fallbackMethod.getReturnType())) {
+            throw new IllegalStateException(String.format("Return type of fallback method %s is not compatible "
+                + "with %s.", fallbackMethod, method));
+        }
+        fallbackMethod.setAccessible(true);
+        return fallbackMethod;
+    }
+
+    private Object getKey(final Object arg) {
+        if (keyGetter == null || arg == null) {
+            return arg;
+        }
+        try {
+            return keyGetter.invoke(arg);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(String.format("Key getter %s is not accessible.", keyGetter), e);
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException(String.format("Key getter %s has failed.", keyGetter), e.getCause());
+        }
+    }
+
+    /**
+     * Key argument must have been validated already.
+     */
+    private static Method findKeyGetter(final Method method, final int keyArg, final String keyGetter) {
+        if (keyArg < 0) {
+            if (!keyGetter.isEmpty()) {
+                throw new IllegalStateException(String.format("Key getter is set without key argument: %s", method));
+            }
+            return null;
+        }
+        if (keyGetter.isEmpty()) {
+            return null;
+        }
+        final Method getter;
+        try {
+            getter = method.getParameterTypes()[keyArg].getMethod(keyGetter);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(String.format("Key getter '%s' is not declared by type of key argument "
+                + "of %s.", keyGetter, method), e);
+        }
+        getter.setAccessible(true);
+        return getter;
+    }
+
+    private static boolean isAsynchronous(final Class<?> returnType, final String signature) {
+        if (!CompletionStage.class.isAssignableFrom(returnType)) {
+            return false;
+        }
+        if (!returnType.isAssignableFrom(CompletableFuture.class)) {
+            throw new IllegalStateException(String.format("Asynchronous method must declare CompletionStage "
+                + "or CompletableFuture as its return type: %s", signature));
+        }
+        return true;
+    }
+
+    private static Object getDefaultValue(final Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        } else {
+            return 0D;
+        }
+    }
+
+    private static int[] reduceStamps(final int[] stamps) {
+        final int[] outputStamps = new int[stamps.length];
+        int size = 0;
+        for (final int stamp : stamps) {
+            if (!containsStamp(outputStamps, size, stamp)) {
+                outputStamps[size++] = stamp;
+            }
+        }
+        final int[] reducedStamps = Arrays.copyOf(outputStamps, size);
+        Arrays.sort(reducedStamps);
+        return reducedStamps;
+    }
+
+    private static boolean containsStamp(final int[] stamps, final int size, final int stamp) {
+        for (int i = 0; i < size; i++) {
+            if (stamps[i] == stamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
\ No newline at end of file
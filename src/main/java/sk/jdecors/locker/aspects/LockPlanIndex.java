@@ -0,0 +1,125 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.aspectj.lang.reflect.MethodSignature;
+
+/**
+ * Lock plans generated at build time by the locker annotation processor. Index resources are loaded lazily,
+ * once per class loader of advised classes; the aspect plans methods without an entry from their annotations.
+ * Each line of the index holds the method key followed by tab-separated values of the plan.
+ */
+final class LockPlanIndex {
+    static final String RESOURCE = "META-INF/sk.jdecors.locker/lock-plans.idx";
+    static final String HEADER = "# sk.jdecors.locker lock plans v3";
+
+    static final int MODE = 0;
+    static final int STAMPS = 1;
+    static final int ALL_OR_NOTHING = 2;
+    static final int TIMEOUT_NANOS = 3;
+    static final int TIMEOUT_POLICY = 4;
+    static final int FALLBACK = 5;
+    static final int OPTIMISTIC = 6;
+    static final int OPTIMISTIC_RETRIES = 7;
+    static final int ASYNCHRONOUS = 8;
+    static final int KEY_ARG = 9;
+    static final int KEY_GETTER = 10;
+    static final int STRIPES = 11;
+    static final int COMBINING = 12;
+    static final int SCOPE = 13;
+    static final int POLICY = 14;
+    private static final int VALUES = 15;
+
+    private static final Map<ClassLoader, Map<String, String[]>> INDEXES = new WeakHashMap<>();
+
+    private LockPlanIndex() {
+    }
+
+    /**
+     * Values of the generated plan, or null if the method is not indexed.
+     */
+    static String[] find(final MethodSignature signature) {
+        final Class<?> declaringType = signature.getDeclaringType();
+        final Map<String, String[]> index = getIndex(declaringType.getClassLoader());
+        return index.isEmpty() ? null : index.get(getKey(signature));
+    }
+
+    /**
+     * Key of the method - binary name of the declaring type, method name and names of parameter types.
+     */
+    static String getKey(final MethodSignature signature) {
+        final StringBuilder key = new StringBuilder();
+        key.append(signature.getDeclaringType().getName()).append('#').append(signature.getName()).append('(');
+        final Class<?>[] parameterTypes = signature.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getTypeName());
+        }
+        return key.append(')').toString();
+    }
+
+    private static synchronized Map<String, String[]> getIndex(final ClassLoader classLoader) {
+        if (classLoader == null) {
+            return Collections.emptyMap();
+        }
+        return INDEXES.computeIfAbsent(classLoader, LockPlanIndex::load);
+    }
+
+    private static Map<String, String[]> load(final ClassLoader classLoader) {
+        final Map<String, String[]> index = new HashMap<>();
+        try {
+            final Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+            while (resources.hasMoreElements()) {
+                load(resources.nextElement(), index);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Index of lock plans cannot be read.", e);
+        }
+        return index.isEmpty() ? Collections.emptyMap() : index;
+    }
+
+    private static void load(final URL resource, final Map<String, String[]> index) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(),
+            StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IllegalStateException(String.format("Index of lock plans has unsupported format: %s",
+                    resource));
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", -1);
+                if (fields.length != VALUES + 1) {
+                    throw new IllegalStateException(String.format("Index of lock plans %s contains malformed "
+                        + "line: %s", resource, line));
+                }
+                index.put(fields[0], Arrays.copyOfRange(fields, 1, fields.length));
+            }
+        }
+    }
+}
\ No newline at end of file
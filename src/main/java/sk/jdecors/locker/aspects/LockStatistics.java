@@ -0,0 +1,147 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time statistics of one stamp owned by one locked object.
+ */
+public final class LockStatistics {
+    private final String ownerType;
+    private final int ownerIdentity;
+    private final int stamp;
+    private final int stripe;
+    private final long readAcquisitions;
+    private final long writeAcquisitions;
+    private final long upgrades;
+    private final long barrierWaits;
+    private final long optimisticReadSuccesses;
+    private final long optimisticReadFallbacks;
+    private final LatencySnapshot readWaitTime;
+    private final LatencySnapshot writeWaitTime;
+    private final LatencySnapshot readHoldTime;
+    private final LatencySnapshot writeHoldTime;
+    private final LatencySnapshot barrierWaitTime;
+
+    @ConstructorProperties({"ownerType", "ownerIdentity", "stamp", "stripe", "readAcquisitions",
+        "writeAcquisitions", "upgrades", "barrierWaits", "optimisticReadSuccesses", "optimisticReadFallbacks",
+        "readWaitTime", "writeWaitTime", "readHoldTime", "writeHoldTime", "barrierWaitTime"})
+    public LockStatistics(final String ownerType, final int ownerIdentity, final int stamp, final int stripe,
+        final long readAcquisitions, final long writeAcquisitions, final long upgrades, final long barrierWaits,
+        final long optimisticReadSuccesses, final long optimisticReadFallbacks, final LatencySnapshot readWaitTime,
+        final LatencySnapshot writeWaitTime, final LatencySnapshot readHoldTime,
+        final LatencySnapshot writeHoldTime, final LatencySnapshot barrierWaitTime) {
+        this.ownerType = ownerType;
+        this.ownerIdentity = ownerIdentity;
+        this.stamp = stamp;
+        this.stripe = stripe;
+        this.readAcquisitions = readAcquisitions;
+        this.writeAcquisitions = writeAcquisitions;
+        this.upgrades = upgrades;
+        this.barrierWaits = barrierWaits;
+        this.optimisticReadSuccesses = optimisticReadSuccesses;
+        this.optimisticReadFallbacks = optimisticReadFallbacks;
+        this.readWaitTime = readWaitTime;
+        this.writeWaitTime = writeWaitTime;
+        this.readHoldTime = readHoldTime;
+        this.writeHoldTime = writeHoldTime;
+        this.barrierWaitTime = barrierWaitTime;
+    }
+
+    public String getOwnerType() {
+        return ownerType;
+    }
+
+    /**
+     * Identity hash code of the locked object - it distinguishes instances of the same type.
+     */
+    public int getOwnerIdentity() {
+        return ownerIdentity;
+    }
+
+    public int getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Stripe of keyed stamp, or -1 if the statistics belong to the lock of methods without key.
+     */
+    public int getStripe() {
+        return stripe;
+    }
+
+    public long getReadAcquisitions() {
+        return readAcquisitions;
+    }
+
+    public long getWriteAcquisitions() {
+        return writeAcquisitions;
+    }
+
+    public long getUpgrades() {
+        return upgrades;
+    }
+
+    public long getBarrierWaits() {
+        return barrierWaits;
+    }
+
+    public long getOptimisticReadSuccesses() {
+        return optimisticReadSuccesses;
+    }
+
+    public long getOptimisticReadFallbacks() {
+        return optimisticReadFallbacks;
+    }
+
+    public LatencySnapshot getReadWaitTime() {
+        return readWaitTime;
+    }
+
+    public LatencySnapshot getWriteWaitTime() {
+        return writeWaitTime;
+    }
+
+    public LatencySnapshot getReadHoldTime() {
+        return readHoldTime;
+    }
+
+    public LatencySnapshot getWriteHoldTime() {
+        return writeHoldTime;
+    }
+
+    public LatencySnapshot getBarrierWaitTime() {
+        return barrierWaitTime;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LockStatistics{");
+        sb.append("ownerType='").append(ownerType).append('\'');
+        sb.append(", ownerIdentity=").append(ownerIdentity);
+        sb.append(", stamp=").append(stamp);
+        sb.append(", stripe=").append(stripe);
+        sb.append(", readAcquisitions=").append(readAcquisitions);
+        sb.append(", writeAcquisitions=").append(writeAcquisitions);
+        sb.append(", upgrades=").append(upgrades);
+        sb.append(", barrierWaits=").append(barrierWaits);
+        sb.append(", optimisticReadSuccesses=").append(optimisticReadSuccesses);
+        sb.append(", optimisticReadFallbacks=").append(optimisticReadFallbacks);
+        sb.append('}');
+        return sb.toString();
+    }
+}
\ No newline at end of file
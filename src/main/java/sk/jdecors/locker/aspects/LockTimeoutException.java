@@ -0,0 +1,27 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+/**
+ * Thrown when locks of the annotated method could not be acquired within the configured timeout.
+ */
+public final class LockTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = -2312530867461380291L;
+
+    LockTimeoutException(final String message) {
+        super(message);
+    }
+}
\ No newline at end of file
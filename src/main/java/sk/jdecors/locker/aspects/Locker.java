@@ -0,0 +1,103 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.function.Supplier;
+import org.aspectj.lang.Aspects;
+import sk.jdecors.locker.aspects.LockPlan.LockMode;
+
+/**
+ * Programmatic access to the locks that the aspect keeps for one object. The body of {@link #read(int[], Supplier)}
+ * or {@link #write(int[], Supplier)} is executed under locks of the given stamps - the same locks that are
+ * acquired by annotated methods of the object. Locks already held by the current thread are not acquired again,
+ * so annotated methods invoked by the body only count holds of the stamps locked by the block and a batch
+ * of annotated calls pays for a single acquisition. Other stamps, other objects and write methods invoked
+ * from a read block are locked as usual. The object must declare some annotated method unless the shared lock
+ * table is enabled.
+ */
+public final class Locker {
+    private static final String BIND_METHOD = "ajc$perObjectBind";
+
+    private final Object target;
+
+    private Locker(final Object target) {
+        this.target = target;
+    }
+
+    public static Locker of(final Object target) {
+        return new Locker(Objects.requireNonNull(target, "Locked object must not be null."));
+    }
+
+    public <T> T read(final int[] stamps, final Supplier<T> body) {
+        return lockAndCall(LockMode.READ, stamps, body);
+    }
+
+    public void read(final int[] stamps, final Runnable body) {
+        lockAndCall(LockMode.READ, stamps, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    public <T> T write(final int[] stamps, final Supplier<T> body) {
+        return lockAndCall(LockMode.WRITE, stamps, body);
+    }
+
+    public void write(final int[] stamps, final Runnable body) {
+        lockAndCall(LockMode.WRITE, stamps, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /**
+     * A block entered from the body of an asynchronous method is executed without locking, like annotated methods
+     * invoked there.
+     */
+    private <T> T lockAndCall(final LockMode lockMode, final int[] stamps, final Supplier<T> body) {
+        if (AdviceGuard.current().isEntered()) {
+            return body.get();
+        }
+        final LockPlan lockPlan = LockPlan.ofStamps(lockMode, stamps, target.getClass());
+        if (SharedLockTable.ENABLED) {
+            return Aspects.aspectOf(SharedReadWriteLocker.class).lockAndCall(target, lockPlan, body);
+        }
+        return getLocker().getLocks().lockAndCall(target, lockPlan, body);
+    }
+
+    /**
+     * The per-object aspect is bound to the object by the first execution of an annotated method - if there
+     * was no such execution yet, it is bound by the method that the weaver generates for it.
+     */
+    private ReadWriteLocker getLocker() {
+        if (!Aspects.hasAspect(ReadWriteLocker.class, target)) {
+            try {
+                final Method bindMethod = ReadWriteLocker.class.getMethod(BIND_METHOD, Object.class);
+                bindMethod.invoke(null, target);
+            } catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Locking aspect cannot be bound to the object.", e);
+            }
+            if (!Aspects.hasAspect(ReadWriteLocker.class, target)) {
+                throw new IllegalStateException(String.format("%s doesn't declare any locked method.",
+                    target.getClass()));
+            }
+        }
+        return Aspects.aspectOf(ReadWriteLocker.class, target);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Programmatic access to per-stamp lock statistics of all live locked objects. Statistics are collected only
+ * if the JVM is started with system property 'sk.jdecors.locker.metrics=true' - in that case the same data
+ * is also exposed by the {@link LockerMetricsMXBean} registered in the platform MBean server.
+ */
+public final class LockerMetrics implements LockerMetricsMXBean {
+    public static final String OBJECT_NAME = "sk.jdecors.locker:type=LockerMetrics";
+
+    /**
+     * Registration is enqueued when locks of the object are collected, so it is removed by the next registration.
+     */
+    private static final class RegisteredLocker extends WeakReference<ObjectLocks> {
+        private final String ownerType;
+        private final int ownerIdentity;
+
+        private RegisteredLocker(final ObjectLocks locks, final Object owner) {
+            super(locks, COLLECTED_LOCKERS);
+            this.ownerType = owner == null ? "" : owner.getClass().getName();
+            this.ownerIdentity = System.identityHashCode(owner);
+        }
+    }
+
+    private static final Set<RegisteredLocker> LOCKERS = ConcurrentHashMap.newKeySet();
+    private static final ReferenceQueue<ObjectLocks> COLLECTED_LOCKERS = new ReferenceQueue<>();
+    private static final LockerMetrics INSTANCE = new LockerMetrics();
+
+    static {
+        if (LockMetrics.ENABLED) {
+            registerMBean();
+        }
+    }
+
+    private LockerMetrics() {
+    }
+
+    public static boolean enabled() {
+        return LockMetrics.ENABLED;
+    }
+
+    /**
+     * Statistics of all stamps of all live locked objects - empty if metrics are disabled.
+     */
+    public static List<LockStatistics> snapshot() {
+        if (!LockMetrics.ENABLED) {
+            return Collections.emptyList();
+        }
+        removeCollectedLockers();
+        final List<LockStatistics> statistics = new ArrayList<>();
+        for (final RegisteredLocker registeredLocker : LOCKERS) {
+            final ObjectLocks locks = registeredLocker.get();
+            if (locks != null) {
+                locks.collectStatistics(registeredLocker.ownerType, registeredLocker.ownerIdentity, statistics);
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled();
+    }
+
+    @Override
+    public List<LockStatistics> getStatistics() {
+        return snapshot();
+    }
+
+    static void register(final ObjectLocks locks, final Object owner) {
+        removeCollectedLockers();
+        LOCKERS.add(new RegisteredLocker(locks, owner));
+    }
+
+    static int countRegisteredLockers() {
+        return LOCKERS.size();
+    }
+
+    private static void removeCollectedLockers() {
+        Reference<? extends ObjectLocks> collected;
+        while ((collected = COLLECTED_LOCKERS.poll()) != null) {
+            LOCKERS.remove(collected);
+        }
+    }
+
+    private static void registerMBean() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(INSTANCE, objectName);
+            }
+        } catch (final JMException e) {
+            throw new IllegalStateException("Registration of locker metrics MBean has failed.", e);
+        }
+    }
+}
\ No newline at end of file
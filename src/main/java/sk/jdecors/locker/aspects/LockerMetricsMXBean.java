@@ -0,0 +1,28 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link LockerMetrics} registered under {@value LockerMetrics#OBJECT_NAME}.
+ */
+public interface LockerMetricsMXBean {
+
+    boolean isEnabled();
+
+    List<LockStatistics> getStatistics();
+}
\ No newline at end of file
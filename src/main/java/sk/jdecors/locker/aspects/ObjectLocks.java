@@ -0,0 +1,738 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import org.aspectj.lang.ProceedingJoinPoint;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+import sk.jdecors.locker.aspects.LockData.CurrentThreadLockState;
+import sk.jdecors.locker.aspects.LockPlan.LockMode;
+
+/**
+ * Locks of one locked object - kept by its {@link ReadWriteLocker} aspect or by an entry of
+ * {@link SharedLockTable}.
+ */
+final class ObjectLocks {
+
+    private static final Object FAILED_OPTIMISTIC_READ = new Object();
+    private static final int BACK_OFF_YIELDS = 4;
+    private static final long MIN_BACK_OFF_NANOS = 1_000;
+    private static final int MAX_BACK_OFF_SHIFT = 10;
+    private static final int MAX_COMBINED_REQUESTS = 64;
+    private static final int COMBINING_SPINS = 16;
+    private static final long COMBINING_PARK_NANOS = 50_000;
+
+    private final StampTable<LockData> locks = new StampTable<>();
+    private final StampTable<AtomicReferenceArray<LockData>> stripedLocks = new StampTable<>();
+    private final StampTable<IntentionLock> groupLocks = new StampTable<>();
+    private final AtomicBoolean registeredForMetrics = new AtomicBoolean();
+
+    Object lockForRead(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (LockMetrics.ENABLED && !registeredForMetrics.get()) {
+            registerForMetrics(joinPoint.getThis());
+        }
+        final LockPlan lockPlan = LockPlan.ofReadLocks(joinPoint.getStaticPart()).forTarget(joinPoint.getThis());
+        final int stripe = lockPlan.isKeyed() ? lockPlan.getStripe(joinPoint.getArgs()) : LockPlan.NO_STRIPE;
+        if (LockEvents.ENABLED) {
+            LockEvents.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        if (lockPlan.isHostScoped()) {
+            return proceedHostLocked(joinPoint, lockPlan);
+        }
+        if (lockPlan.isAsynchronous()) {
+            return proceedAsynchronously(joinPoint, lockPlan, stripe);
+        }
+        if (lockPlan.isOptimistic()) {
+            return proceedOptimistically(joinPoint, lockPlan, stripe);
+        }
+        return proceedLocked(joinPoint, lockPlan, stripe);
+    }
+
+    Object lockForUpgradableRead(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (LockMetrics.ENABLED && !registeredForMetrics.get()) {
+            registerForMetrics(joinPoint.getThis());
+        }
+        final LockPlan lockPlan = LockPlan.ofUpgradableReadLocks(joinPoint.getStaticPart())
+            .forTarget(joinPoint.getThis());
+        if (LockEvents.ENABLED) {
+            LockEvents.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        return proceedLocked(joinPoint, lockPlan, LockPlan.NO_STRIPE);
+    }
+
+    Object lockForWrite(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (LockMetrics.ENABLED && !registeredForMetrics.get()) {
+            registerForMetrics(joinPoint.getThis());
+        }
+        final LockPlan lockPlan = LockPlan.ofWriteLocks(joinPoint.getStaticPart()).forTarget(joinPoint.getThis());
+        final int stripe = lockPlan.isKeyed() ? lockPlan.getStripe(joinPoint.getArgs()) : LockPlan.NO_STRIPE;
+        if (LockEvents.ENABLED) {
+            LockEvents.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().enter(joinPoint.getThis(), lockPlan.getSignature());
+        }
+        if (lockPlan.isHostScoped()) {
+            return proceedHostLocked(joinPoint, lockPlan);
+        }
+        if (lockPlan.isAsynchronous()) {
+            return proceedAsynchronously(joinPoint, lockPlan, stripe);
+        }
+        if (lockPlan.isCombining()) {
+            final LockData lockData = getLockData(lockPlan, 0, stripe);
+            if (lockData.getLockStateInCurrentThread() == CurrentThreadLockState.UNLOCKED) {
+                return proceedCombined(joinPoint, lockData);
+            }
+        }
+        return proceedLocked(joinPoint, lockPlan, stripe);
+    }
+
+    /**
+     * Executes the body of a {@link Locker} block under locks of the plan - locks already held by the current
+     * thread are only counted, so annotated methods invoked by the body don't acquire them again.
+     */
+    <T> T lockAndCall(final Object target, final LockPlan lockPlan, final Supplier<T> body) {
+        if (LockMetrics.ENABLED && !registeredForMetrics.get()) {
+            registerForMetrics(target);
+        }
+        if (LockEvents.ENABLED) {
+            LockEvents.current().enter(target, lockPlan.getSignature());
+        }
+        if (DeadlockDetector.ENABLED) {
+            DeadlockDetector.current().enter(target, lockPlan.getSignature());
+        }
+        allocateGroupLocks(lockPlan);
+        try {
+            allocateLocks(lockPlan, LockPlan.NO_STRIPE);
+        } catch (final RuntimeException | Error e) {
+            unlockGroupLocks(lockPlan, lockPlan.groupSize());
+            throw e;
+        }
+        try {
+            return body.get();
+        } finally {
+            unlockLocks(lockPlan, LockPlan.NO_STRIPE, lockPlan.size());
+            unlockGroupLocks(lockPlan, lockPlan.groupSize());
+        }
+    }
+
+    /**
+     * Publishes the invocation and tries to become the combiner - the thread that has acquired the write lock
+     * executes published invocations of all waiting threads. Threads that fail to acquire the lock wait
+     * for execution of their invocation by the current combiner. It is used only by threads that don't hold
+     * the lock yet, because their own lock would block any other combiner.
+     */
+    private static Object proceedCombined(final ProceedingJoinPoint joinPoint, final LockData lockData)
+        throws Throwable {
+        final CombiningRequest request = new CombiningRequest(joinPoint);
+        lockData.publishCombiningRequest(request);
+        for (int attempt = 0; !request.isDone(); attempt++) {
+            if (lockData.tryAllocateWriteLock()) {
+                try {
+                    lockData.executeCombiningRequests(MAX_COMBINED_REQUESTS);
+                } finally {
+                    lockData.unlockWriteLock();
+                }
+            } else if (attempt < COMBINING_SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(request, COMBINING_PARK_NANOS);
+            }
+        }
+        return request.getResult();
+    }
+
+    private Object proceedAsynchronously(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan,
+        final int stripe) throws Throwable {
+        final boolean[] heldLocks = getHeldLocks(lockPlan, stripe);
+        final long[] stamps = new long[lockPlan.size()];
+        final CompletableFuture<Void> acquisition = allocateLocksAsync(lockPlan, stripe, heldLocks, stamps, 0);
+        if (acquisition.isDone()) {
+            final Object stage;
+            try {
+                stage = proceedGuarded(joinPoint);
+            } catch (final Throwable throwable) {
+                unlockLocksAsync(lockPlan, stripe, heldLocks, stamps, lockPlan.size());
+                throw throwable;
+            }
+            return unlockOnCompletion(lockPlan, stripe, heldLocks, stamps, stage);
+        }
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        acquisition.thenRun(() -> {
+            try {
+                final CompletionStage<?> stage = unlockOnCompletion(lockPlan, stripe, heldLocks, stamps,
+                    proceedGuarded(joinPoint));
+                if (stage == null) {
+                    result.complete(null);
+                } else {
+                    stage.whenComplete((value, throwable) -> {
+                        if (throwable == null) {
+                            result.complete(value);
+                        } else {
+                            result.completeExceptionally(throwable);
+                        }
+                    });
+                }
+            } catch (final Throwable throwable) {
+                unlockLocksAsync(lockPlan, stripe, heldLocks, stamps, lockPlan.size());
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Proceeds with the asynchronous method - its locks are not owned by the thread that executes the body,
+     * so nested locked methods must be excluded explicitly.
+     */
+    private static Object proceedGuarded(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final AdviceGuard guard = AdviceGuard.current();
+        if (!guard.tryEnter()) {
+            return joinPoint.proceed();
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            guard.exit();
+        }
+    }
+
+    /**
+     * Stamps that the calling thread already holds in the mode of the plan are not acquired again - they protect
+     * the returned stage only until the caller releases them.
+     */
+    private boolean[] getHeldLocks(final LockPlan lockPlan, final int stripe) {
+        final boolean[] heldLocks = new boolean[lockPlan.size()];
+        for (int i = 0; i < lockPlan.size(); i++) {
+            final CurrentThreadLockState state = getLockData(lockPlan, i, stripe).getLockStateInCurrentThread();
+            heldLocks[i] = state == CurrentThreadLockState.READ_WRITE_LOCKED
+                || state == CurrentThreadLockState.READ_ONLY_LOCKED && lockPlan.getLockMode() == LockMode.READ;
+        }
+        return heldLocks;
+    }
+
+    private CompletableFuture<Void> allocateLocksAsync(final LockPlan lockPlan, final int stripe,
+        final boolean[] heldLocks, final long[] stamps, final int index) {
+        if (index == lockPlan.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (heldLocks[index]) {
+            return allocateLocksAsync(lockPlan, stripe, heldLocks, stamps, index + 1);
+        }
+        return getLockData(lockPlan, index, stripe).allocateLockAsync(lockPlan.getLockMode())
+            .thenCompose(stamp -> {
+                stamps[index] = stamp;
+                return allocateLocksAsync(lockPlan, stripe, heldLocks, stamps, index + 1);
+            });
+    }
+
+    private CompletionStage<?> unlockOnCompletion(final LockPlan lockPlan, final int stripe,
+        final boolean[] heldLocks, final long[] stamps, final Object stage) {
+        if (stage == null) {
+            unlockLocksAsync(lockPlan, stripe, heldLocks, stamps, lockPlan.size());
+            return null;
+        }
+        return ((CompletionStage<?>) stage).whenComplete((value, throwable) ->
+            unlockLocksAsync(lockPlan, stripe, heldLocks, stamps, lockPlan.size()));
+    }
+
+    private void unlockLocksAsync(final LockPlan lockPlan, final int stripe, final boolean[] heldLocks,
+        final long[] stamps, final int allocatedLocks) {
+        for (int i = allocatedLocks - 1; i >= 0; i--) {
+            if (!heldLocks[i]) {
+                getLockData(lockPlan, i, stripe).unlockAsync(lockPlan.getLockMode(), stamps[i]);
+            }
+        }
+    }
+
+    private Object proceedOptimistically(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan,
+        final int stripe) throws Throwable {
+        if (!isUnlockedInCurrentThread(lockPlan, stripe)) {
+            return proceedLocked(joinPoint, lockPlan, stripe);
+        }
+        final long[] stamps = lockPlan.size() == 1 ? null : new long[lockPlan.size()];
+        for (int attempt = 0; attempt <= lockPlan.getOptimisticRetries(); attempt++) {
+            final Object result = stamps == null
+                ? tryProceedOptimistically(joinPoint, getLockData(lockPlan, 0, stripe))
+                : tryProceedOptimistically(joinPoint, lockPlan, stripe, stamps);
+            if (result != FAILED_OPTIMISTIC_READ) {
+                return result;
+            }
+        }
+        for (int i = 0; i < lockPlan.size(); i++) {
+            getLockData(lockPlan, i, stripe).recordOptimisticReadFallback();
+        }
+        return proceedLocked(joinPoint, lockPlan, stripe);
+    }
+
+    private static Object tryProceedOptimistically(final ProceedingJoinPoint joinPoint, final LockData lockData)
+        throws Throwable {
+        final long stamp = lockData.tryOptimisticRead();
+        if (stamp == 0) {
+            return FAILED_OPTIMISTIC_READ;
+        }
+        final Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (final Throwable throwable) {
+            if (lockData.validate(stamp)) {
+                lockData.recordOptimisticReadSuccess();
+                throw throwable;
+            }
+            return FAILED_OPTIMISTIC_READ;
+        }
+        if (lockData.validate(stamp)) {
+            lockData.recordOptimisticReadSuccess();
+            return result;
+        }
+        return FAILED_OPTIMISTIC_READ;
+    }
+
+    private Object tryProceedOptimistically(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan,
+        final int stripe, final long[] stamps) throws Throwable {
+        for (int i = 0; i < lockPlan.size(); i++) {
+            stamps[i] = getLockData(lockPlan, i, stripe).tryOptimisticRead();
+            if (stamps[i] == 0) {
+                return FAILED_OPTIMISTIC_READ;
+            }
+        }
+        final Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (final Throwable throwable) {
+            if (validateOptimisticRead(lockPlan, stripe, stamps)) {
+                throw throwable;
+            }
+            return FAILED_OPTIMISTIC_READ;
+        }
+        if (validateOptimisticRead(lockPlan, stripe, stamps)) {
+            return result;
+        }
+        return FAILED_OPTIMISTIC_READ;
+    }
+
+    private boolean validateOptimisticRead(final LockPlan lockPlan, final int stripe, final long[] stamps) {
+        for (int i = 0; i < lockPlan.size(); i++) {
+            if (!getLockData(lockPlan, i, stripe).validate(stamps[i])) {
+                return false;
+            }
+        }
+        for (int i = 0; i < lockPlan.size(); i++) {
+            getLockData(lockPlan, i, stripe).recordOptimisticReadSuccess();
+        }
+        return true;
+    }
+
+    private boolean isUnlockedInCurrentThread(final LockPlan lockPlan, final int stripe) {
+        for (int i = 0; i < lockPlan.size(); i++) {
+            if (getLockData(lockPlan, i, stripe).getLockStateInCurrentThread() != CurrentThreadLockState.UNLOCKED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object proceedLocked(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan, final int stripe)
+        throws Throwable {
+        if (lockPlan.hasGroups()) {
+            return proceedGroupLocked(joinPoint, lockPlan);
+        }
+        if (lockPlan.hasTimeout()) {
+            if (!tryAllocateLocks(lockPlan, stripe, System.nanoTime() + lockPlan.getTimeoutNanos())) {
+                return proceedAfterTimeout(joinPoint, lockPlan);
+            }
+        } else {
+            allocateLocks(lockPlan, stripe);
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            unlockLocks(lockPlan, stripe, lockPlan.size());
+        }
+    }
+
+    /**
+     * Parent stamps of groups are locked before child stamps, so a method locking a whole group waits for one
+     * lock and methods locking different children hold compatible intention locks of their parent.
+     */
+    private Object proceedGroupLocked(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan)
+        throws Throwable {
+        if (lockPlan.hasTimeout()) {
+            final long deadline = System.nanoTime() + lockPlan.getTimeoutNanos();
+            if (!tryAllocateGroupLocks(lockPlan, deadline)) {
+                return proceedAfterTimeout(joinPoint, lockPlan);
+            }
+            final boolean allocated;
+            try {
+                allocated = tryAllocateLocks(lockPlan, LockPlan.NO_STRIPE, deadline);
+            } catch (final RuntimeException | Error e) {
+                unlockGroupLocks(lockPlan, lockPlan.groupSize());
+                throw e;
+            }
+            if (!allocated) {
+                unlockGroupLocks(lockPlan, lockPlan.groupSize());
+                return proceedAfterTimeout(joinPoint, lockPlan);
+            }
+        } else {
+            allocateGroupLocks(lockPlan);
+            try {
+                allocateLocks(lockPlan, LockPlan.NO_STRIPE);
+            } catch (final RuntimeException | Error e) {
+                unlockGroupLocks(lockPlan, lockPlan.groupSize());
+                throw e;
+            }
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            unlockLocks(lockPlan, LockPlan.NO_STRIPE, lockPlan.size());
+            unlockGroupLocks(lockPlan, lockPlan.groupSize());
+        }
+    }
+
+    /**
+     * Locks of the object exclude threads of this JVM first, so only one writer of each JVM competes
+     * for locks of the host.
+     */
+    private Object proceedHostLocked(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan)
+        throws Throwable {
+        allocateLocks(lockPlan, LockPlan.NO_STRIPE);
+        int hostLocks = 0;
+        try {
+            final HostLockSegment segment = HostLockSegment.get();
+            for (; hostLocks < lockPlan.size(); hostLocks++) {
+                segment.lock(lockPlan.getLockMode(), lockPlan.getStamp(hostLocks));
+            }
+            return joinPoint.proceed();
+        } finally {
+            for (int i = hostLocks - 1; i >= 0; i--) {
+                HostLockSegment.get().unlock(lockPlan.getLockMode(), lockPlan.getStamp(i));
+            }
+            unlockLocks(lockPlan, LockPlan.NO_STRIPE, lockPlan.size());
+        }
+    }
+
+    private void allocateLocks(final LockPlan lockPlan, final int stripe) {
+        if (lockPlan.isAllOrNothing()) {
+            for (int attempt = 0; !tryAllocateLocks(lockPlan, stripe); attempt++) {
+                backOff(attempt);
+            }
+            return;
+        }
+        int allocatedLocks = 0;
+        try {
+            for (; allocatedLocks < lockPlan.size(); allocatedLocks++) {
+                final LockData lockData = getLockData(lockPlan, allocatedLocks, stripe);
+                if (!tryEscalateInPlace(lockPlan, stripe, allocatedLocks, lockData)) {
+                    allocateLock(lockPlan, lockData);
+                }
+            }
+        } catch (final RuntimeException | Error e) {
+            restoreReadLocks(lockPlan, stripe, allocatedLocks);
+            unlockLocks(lockPlan, stripe, allocatedLocks);
+            throw e;
+        }
+    }
+
+    /**
+     * Read lock of the current thread is converted to write lock in place if possible. Otherwise the stamp
+     * is upgraded behind the barrier and read locks of all following stamps of the plan are released before
+     * the thread waits, so it doesn't block another thread escalating the same stamps.
+     */
+    private boolean tryEscalateInPlace(final LockPlan lockPlan, final int stripe, final int index,
+        final LockData lockData) {
+        if (lockPlan.getLockMode() != LockMode.WRITE
+            || lockData.getLockStateInCurrentThread() != CurrentThreadLockState.READ_ONLY_LOCKED) {
+            return false;
+        }
+        if (lockData.tryAllocateWriteLock()) {
+            return true;
+        }
+        for (int i = index + 1; i < lockPlan.size(); i++) {
+            getLockData(lockPlan, i, stripe).releaseReadLockForEscalation();
+        }
+        return false;
+    }
+
+    private void restoreReadLocks(final LockPlan lockPlan, final int stripe, final int allocatedLocks) {
+        if (lockPlan.getLockMode() == LockMode.WRITE) {
+            for (int i = lockPlan.size() - 1; i >= allocatedLocks; i--) {
+                getLockData(lockPlan, i, stripe).restoreReadLockAfterEscalation();
+            }
+        }
+    }
+
+    private boolean tryAllocateLocks(final LockPlan lockPlan, final int stripe, final long deadline) {
+        if (lockPlan.isAllOrNothing()) {
+            for (int attempt = 0; !tryAllocateLocks(lockPlan, stripe); attempt++) {
+                if (deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                backOff(attempt);
+            }
+            return true;
+        }
+        int allocatedLocks = 0;
+        try {
+            for (; allocatedLocks < lockPlan.size(); allocatedLocks++) {
+                final LockData lockData = getLockData(lockPlan, allocatedLocks, stripe);
+                if (!tryEscalateInPlace(lockPlan, stripe, allocatedLocks, lockData)
+                    && !tryAllocateLock(lockPlan, lockData, deadline)) {
+                    restoreReadLocks(lockPlan, stripe, allocatedLocks);
+                    unlockLocks(lockPlan, stripe, allocatedLocks);
+                    return false;
+                }
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            restoreReadLocks(lockPlan, stripe, allocatedLocks);
+            unlockLocks(lockPlan, stripe, allocatedLocks);
+            final LockCycle cycle = DeadlockDetector.ENABLED ? DeadlockDetector.current().takeVictimCycle() : null;
+            if (cycle != null) {
+                throw new LockDeadlockException(cycle);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Acquisition of locks %s for %s was interrupted.",
+                lockPlan.getStamps(), lockPlan.getSignature()), e);
+        } catch (final RuntimeException | Error e) {
+            restoreReadLocks(lockPlan, stripe, allocatedLocks);
+            unlockLocks(lockPlan, stripe, allocatedLocks);
+            throw e;
+        }
+    }
+
+    private static Object proceedAfterTimeout(final ProceedingJoinPoint joinPoint, final LockPlan lockPlan)
+        throws Throwable {
+        switch (lockPlan.getTimeoutPolicy()) {
+            case SKIP:
+                return lockPlan.getSkippedResult();
+            case FALLBACK:
+                try {
+                    return lockPlan.getFallbackMethod().invoke(joinPoint.getThis(), joinPoint.getArgs());
+                } catch (final InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            default:
+                throw new LockTimeoutException(String.format("Locks %s for %s were not acquired within %d ns.",
+                    lockPlan.getStamps(), lockPlan.getSignature(), lockPlan.getTimeoutNanos()));
+        }
+    }
+
+    private boolean tryAllocateLocks(final LockPlan lockPlan, final int stripe) {
+        for (int i = 0; i < lockPlan.size(); i++) {
+            if (!tryAllocateLock(lockPlan, getLockData(lockPlan, i, stripe))) {
+                unlockLocks(lockPlan, stripe, i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void backOff(final int attempt) {
+        if (attempt < BACK_OFF_YIELDS) {
+            Thread.yield();
+        } else {
+            final long maxBackOff = MIN_BACK_OFF_NANOS << Math.min(attempt - BACK_OFF_YIELDS, MAX_BACK_OFF_SHIFT);
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxBackOff) + 1);
+        }
+    }
+
+    private void unlockLocks(final LockPlan lockPlan, final int stripe, final int allocatedLocks) {
+        for (int i = allocatedLocks - 1; i >= 0; i--) {
+            unlockLock(lockPlan, getLockData(lockPlan, i, stripe));
+        }
+    }
+
+    private void allocateGroupLocks(final LockPlan lockPlan) {
+        for (int i = 0; i < lockPlan.groupSize(); i++) {
+            getGroupLock(lockPlan.getGroupStamp(i)).lock(lockPlan.getGroupMode(i));
+        }
+    }
+
+    private boolean tryAllocateGroupLocks(final LockPlan lockPlan, final long deadline) {
+        int allocatedLocks = 0;
+        try {
+            for (; allocatedLocks < lockPlan.groupSize(); allocatedLocks++) {
+                final int stamp = lockPlan.getGroupStamp(allocatedLocks);
+                if (!getGroupLock(stamp).tryLock(lockPlan.getGroupMode(allocatedLocks), deadline)) {
+                    unlockGroupLocks(lockPlan, allocatedLocks);
+                    return false;
+                }
+            }
+            return true;
+        } catch (final InterruptedException e) {
+            unlockGroupLocks(lockPlan, allocatedLocks);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Acquisition of group locks for %s was interrupted.",
+                lockPlan.getSignature()), e);
+        }
+    }
+
+    private void unlockGroupLocks(final LockPlan lockPlan, final int allocatedLocks) {
+        for (int i = allocatedLocks - 1; i >= 0; i--) {
+            getGroupLock(lockPlan.getGroupStamp(i)).unlock(lockPlan.getGroupMode(i));
+        }
+    }
+
+    private IntentionLock getGroupLock(final int stamp) {
+        final IntentionLock groupLock = groupLocks.get(stamp);
+        if (groupLock != null) {
+            return groupLock;
+        }
+        return groupLocks.computeIfAbsent(stamp, s -> new IntentionLock());
+    }
+
+    private static void allocateLock(final LockPlan lockPlan, final LockData lockData) {
+        switch (lockPlan.getLockMode()) {
+            case READ:
+                lockData.allocateReadLock();
+                break;
+            case UPGRADABLE_READ:
+                lockData.allocateUpgradableReadLock();
+                break;
+            default:
+                lockData.allocateWriteLock();
+        }
+    }
+
+    private static boolean tryAllocateLock(final LockPlan lockPlan, final LockData lockData) {
+        switch (lockPlan.getLockMode()) {
+            case READ:
+                return lockData.tryAllocateReadLock();
+            case UPGRADABLE_READ:
+                return lockData.tryAllocateUpgradableReadLock();
+            default:
+                return lockData.tryAllocateWriteLock();
+        }
+    }
+
+    private static boolean tryAllocateLock(final LockPlan lockPlan, final LockData lockData, final long deadline)
+        throws InterruptedException {
+        switch (lockPlan.getLockMode()) {
+            case READ:
+                return lockData.tryAllocateReadLock(deadline);
+            case UPGRADABLE_READ:
+                return lockData.tryAllocateUpgradableReadLock(deadline);
+            default:
+                return lockData.tryAllocateWriteLock(deadline);
+        }
+    }
+
+    private static void unlockLock(final LockPlan lockPlan, final LockData lockData) {
+        switch (lockPlan.getLockMode()) {
+            case READ:
+                lockData.unlockReadLock();
+                break;
+            case UPGRADABLE_READ:
+                lockData.unlockUpgradableReadLock();
+                break;
+            default:
+                lockData.unlockWriteLock();
+        }
+    }
+
+    LockData getLockData(final int stamp) {
+        return getLockData(stamp, null);
+    }
+
+    /**
+     * Lock of the stamp - the policy of the lock is fixed by its first user, null policy accepts any lock.
+     */
+    LockData getLockData(final int stamp, final FairnessPolicy policy) {
+        LockData lockData = locks.get(stamp);
+        if (lockData == null) {
+            lockData = locks.computeIfAbsent(stamp, s -> new LockData(s, createLock(policy)));
+        }
+        checkPolicy(lockData, stamp, policy);
+        return lockData;
+    }
+
+    private LockData getLockData(final LockPlan lockPlan, final int index, final int stripe) {
+        if (stripe == LockPlan.NO_STRIPE) {
+            return getLockData(lockPlan.getStamp(index), lockPlan.getPolicy());
+        }
+        return getLockData(lockPlan.getStamp(index), stripe, lockPlan.getStripes(), lockPlan.getPolicy());
+    }
+
+    LockData getLockData(final int stamp, final int stripe, final int stripes) {
+        return getLockData(stamp, stripe, stripes, null);
+    }
+
+    /**
+     * Lock of one stripe of keyed stamp - stripes are kept separately from locks of methods without key.
+     */
+    LockData getLockData(final int stamp, final int stripe, final int stripes, final FairnessPolicy policy) {
+        AtomicReferenceArray<LockData> stampStripes = stripedLocks.get(stamp);
+        if (stampStripes == null) {
+            stampStripes = stripedLocks.computeIfAbsent(stamp, s -> new AtomicReferenceArray<>(stripes));
+        }
+        if (stampStripes.length() != stripes) {
+            throw new IllegalStateException(String.format("Keyed stamp %d is already split into %d stripes, "
+                + "it cannot be used with %d stripes.", stamp, stampStripes.length(), stripes));
+        }
+        LockData lockData = stampStripes.get(stripe);
+        if (lockData == null) {
+            stampStripes.compareAndSet(stripe, null, new LockData(stamp, createLock(policy)));
+            lockData = stampStripes.get(stripe);
+        }
+        checkPolicy(lockData, stamp, policy);
+        return lockData;
+    }
+
+    private static StampedLockWithBarrier createLock(final FairnessPolicy policy) {
+        return new StampedLockWithBarrier(policy == null ? FairnessPolicy.DEFAULT : policy);
+    }
+
+    private static void checkPolicy(final LockData lockData, final int stamp, final FairnessPolicy policy) {
+        if (policy != null && lockData.getPolicy() != policy) {
+            throw new IllegalStateException(String.format("Stamp %d is already locked with %s policy, it cannot "
+                + "be used with %s policy.", stamp, lockData.getPolicy(), policy));
+        }
+    }
+
+    private void registerForMetrics(final Object owner) {
+        if (registeredForMetrics.compareAndSet(false, true)) {
+            LockerMetrics.register(this, owner);
+        }
+    }
+
+    void collectStatistics(final String ownerType, final int ownerIdentity, final List<LockStatistics> statistics) {
+        locks.forEach(lockData -> statistics.add(lockData.snapshot(ownerType, ownerIdentity,
+            LockPlan.NO_STRIPE)));
+        stripedLocks.forEach(stampStripes -> {
+            for (int stripe = 0; stripe < stampStripes.length(); stripe++) {
+                final LockData lockData = stampStripes.get(stripe);
+                if (lockData != null) {
+                    statistics.add(lockData.snapshot(ownerType, ownerIdentity, stripe));
+                }
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,190 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock of {@link sk.jdecors.locker.annotations.FairnessPolicy#PHASE_FAIR} policy, the gate follows the phase-fair
+ * ticket lock of Brandenburg and Anderson. Writers take turns in FIFO order of a fair semaphore. A writer
+ * on turn marks its presence in the word of entering readers and waits only for readers that entered before it,
+ * readers entering afterwards wait until the presence of that writer changes. So readers wait at most for one
+ * writer and a writer waits at most for one phase of readers. Presence bits alternate their phase, so readers
+ * blocked by one writer are not blocked again by the next one. In-place conversion to write lock would bypass
+ * writers waiting for their turn, so it always fails.
+ */
+final class PhaseFairStampedLock extends GatedStampedLock {
+    private static final long serialVersionUID = 1L;
+    private static final long PHASE = 1;
+    private static final long PRESENT = 2;
+    private static final long WRITER_BITS = PRESENT | PHASE;
+    private static final long READER = 4;
+
+    private final transient AtomicLong readersIn = new AtomicLong();
+    private final transient AtomicLong readersOut = new AtomicLong();
+    private final transient Semaphore writerTurn = new Semaphore(1, true);
+    /**
+     * Guarded by the writer turn.
+     */
+    private transient long writerPhase;
+
+    @Override
+    public long readLock() {
+        final long writerBits = readersIn.getAndAdd(READER) & WRITER_BITS;
+        if (writerBits != 0) {
+            awaitGate(() -> (readersIn.get() & WRITER_BITS) != writerBits);
+        }
+        return super.readLock();
+    }
+
+    @Override
+    public long tryReadLock() {
+        if ((readersIn.getAndAdd(READER) & WRITER_BITS) == 0) {
+            final long stamp = super.tryReadLock();
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        readerLeft();
+        return 0;
+    }
+
+    @Override
+    public long tryReadLock(final long time, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        final long writerBits = readersIn.getAndAdd(READER) & WRITER_BITS;
+        long stamp = 0;
+        try {
+            if (writerBits == 0 || awaitGate(() -> (readersIn.get() & WRITER_BITS) != writerBits, deadline)) {
+                stamp = super.tryReadLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return stamp;
+        } finally {
+            if (stamp == 0) {
+                readerLeft();
+            }
+        }
+    }
+
+    @Override
+    public void unlockRead(final long stamp) {
+        super.unlockRead(stamp);
+        readerLeft();
+    }
+
+    @Override
+    public long writeLock() {
+        writerTurn.acquireUninterruptibly();
+        final long enteredReaders = enterWritePhase();
+        awaitGate(() -> readersOut.get() - enteredReaders >= 0);
+        return super.writeLock();
+    }
+
+    @Override
+    public long tryWriteLock() {
+        if (!tryTakeWriterTurn()) {
+            return 0;
+        }
+        final long enteredReaders = enterWritePhase();
+        if (readersOut.get() - enteredReaders >= 0) {
+            final long stamp = super.tryWriteLock();
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        leaveWritePhase();
+        return 0;
+    }
+
+    @Override
+    public long tryWriteLock(final long time, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        if (!writerTurn.tryAcquire(time, unit)) {
+            return 0;
+        }
+        final long enteredReaders = enterWritePhase();
+        long stamp = 0;
+        try {
+            if (awaitGate(() -> readersOut.get() - enteredReaders >= 0, deadline)) {
+                stamp = super.tryWriteLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            return stamp;
+        } finally {
+            if (stamp == 0) {
+                leaveWritePhase();
+            }
+        }
+    }
+
+    @Override
+    public void unlockWrite(final long stamp) {
+        super.unlockWrite(stamp);
+        leaveWritePhase();
+    }
+
+    @Override
+    public long tryConvertToWriteLock(final long stamp) {
+        return 0;
+    }
+
+    /**
+     * Converts only write stamps - the writer enters as a reader of the next phase before it leaves.
+     */
+    @Override
+    public long tryConvertToReadLock(final long stamp) {
+        readersIn.getAndAdd(READER);
+        final long readStamp = super.tryConvertToReadLock(stamp);
+        if (readStamp == 0) {
+            readerLeft();
+            return 0;
+        }
+        leaveWritePhase();
+        return readStamp;
+    }
+
+    /**
+     * Untimed attempt of the fair semaphore barges ahead of queued writers, the timed one respects their order.
+     */
+    private boolean tryTakeWriterTurn() {
+        try {
+            return writerTurn.tryAcquire(0, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Count of readers that entered before the presence of the writer was marked.
+     */
+    private long enterWritePhase() {
+        return readersIn.getAndAdd(PRESENT | writerPhase) & ~WRITER_BITS;
+    }
+
+    private void leaveWritePhase() {
+        readersIn.getAndAdd(-(PRESENT | writerPhase));
+        writerPhase ^= PHASE;
+        writerTurn.release();
+        signalGate();
+    }
+
+    private void readerLeft() {
+        readersOut.getAndAdd(READER);
+        signalGate();
+    }
+}
\ No newline at end of file
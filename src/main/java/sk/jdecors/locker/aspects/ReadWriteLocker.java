@@ -15,28 +15,21 @@
 
 package sk.jdecors.locker.aspects;
 
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
-import org.aspectj.lang.reflect.MethodSignature;
-import sk.jdecors.locker.annotations.LockedForRead;
-import sk.jdecors.locker.annotations.LockedForWrite;
-import sk.jdecors.locker.aspects.LockData.CurrentThreadLockState;
 
 @Aspect("perthis(executionContext())")
 public final class ReadWriteLocker {
 
-    private final Map<Integer, LockData> locksMap = new ConcurrentHashMap<>();
+    private final ObjectLocks locks = new ObjectLocks();
 
-    @Pointcut("cflow(within(sk.jdecors.locker.aspects..*))")
+    /**
+     * Join points of the aspects package itself - nested annotated methods are advised, but they don't acquire
+     * locks already held by the thread (see {@link AdviceGuard} for bodies of asynchronous methods).
+     */
+    @Pointcut("within(sk.jdecors.locker.aspects..*)")
     public void deprecatedAspectTraces() {
     }
 
@@ -48,6 +41,10 @@ public final class ReadWriteLocker {
     public void readOnlyMethods() {
     }
 
+    @Pointcut("@annotation(sk.jdecors.locker.annotations.LockedForUpgradableRead)")
+    public void upgradableReadMethods() {
+    }
+
     @Pointcut("@annotation(sk.jdecors.locker.annotations.LockedForWrite)")
     public void readWriteMethods() {
     }
@@ -56,90 +53,51 @@ public final class ReadWriteLocker {
     public void executionOfReadOnlyMethods() {
     }
 
+    @Pointcut("!deprecatedAspectTraces() && executionOfAllMethods() && upgradableReadMethods()")
+    public void executionOfUpgradableReadMethods() {
+    }
+
     @Pointcut("!deprecatedAspectTraces() && executionOfAllMethods() && readWriteMethods()")
     public void executionOfReadWriteMethods() {
     }
 
-    @Pointcut("readOnlyMethods() || readWriteMethods()")
+    /**
+     * Instances of the aspect are not created for any object if the {@link SharedReadWriteLocker} is active.
+     */
+    @Pointcut("if()")
+    public static boolean perObjectLocks() {
+        return !SharedLockTable.ENABLED;
+    }
+
+    @Pointcut("perObjectLocks() && (readOnlyMethods() || upgradableReadMethods() || readWriteMethods())")
     public void executionContext() {
     }
 
     @Around("executionOfReadOnlyMethods()")
     public Object readLock(final ProceedingJoinPoint joinPoint) throws Throwable {
-        final List<LockData> lockData = allocateReadLocks(joinPoint);
-        try {
+        if (AdviceGuard.current().isEntered()) {
             return joinPoint.proceed();
-        } finally {
-            unlockReadLocks(lockData);
         }
+        return locks.lockForRead(joinPoint);
     }
 
-    @Around("executionOfReadWriteMethods()")
-    public Object writeLock(final ProceedingJoinPoint joinPoint) throws Throwable {
-        final List<LockData> lockData = allocateWriteLocks(joinPoint);
-        try {
+    @Around("executionOfUpgradableReadMethods()")
+    public Object upgradableReadLock(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (AdviceGuard.current().isEntered()) {
             return joinPoint.proceed();
-        } finally {
-            unlockWriteLocks(lockData);
         }
+        return locks.lockForUpgradableRead(joinPoint);
     }
 
-    private List<LockData> allocateReadLocks(final ProceedingJoinPoint joinPoint) {
-        return getStampedLocksForReadLocks(joinPoint).stream()
-            .filter(lock -> lock.getLockStateInCurrentThread().equals(CurrentThreadLockState.UNLOCKED))
-            .peek(LockData::allocateReadLock)
-            .collect(Collectors.toList());
-    }
-
-    private List<LockData> allocateWriteLocks(final ProceedingJoinPoint joinPoint) {
-        return getStampedLocksForWriteLocks(joinPoint).stream()
-            .filter(lock -> !lock.getLockStateInCurrentThread().equals(CurrentThreadLockState.READ_WRITE_LOCKED))
-            .peek(LockData::allocateWriteLock)
-            .collect(Collectors.toList());
-    }
-
-    private void unlockReadLocks(final List<LockData> lockData) {
-        for (int i = lockData.size() - 1; i >= 0; i--) {
-            lockData.get(i).unlockReadLock();
-        }
-    }
-
-    private void unlockWriteLocks(final List<LockData> lockData) {
-        for (int i = lockData.size() - 1; i >= 0; i--) {
-            lockData.get(i).unlockWriteLock();
+    @Around("executionOfReadWriteMethods()")
+    public Object writeLock(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (AdviceGuard.current().isEntered()) {
+            return joinPoint.proceed();
         }
+        return locks.lockForWrite(joinPoint);
     }
 
-    private List<LockData> getStampedLocksForReadLocks(final ProceedingJoinPoint joinPoint) {
-        final Method method = getMethod(joinPoint);
-        final LockedForRead annotation = method.getAnnotation(LockedForRead.class);
-        return collectStampedLocks(annotation.stamp());
-    }
-
-    private List<LockData> getStampedLocksForWriteLocks(final ProceedingJoinPoint joinPoint) {
-        final Method method = getMethod(joinPoint);
-        final LockedForWrite annotation = method.getAnnotation(LockedForWrite.class);
-        return collectStampedLocks(annotation.stamp());
-    }
-
-    private Method getMethod(final ProceedingJoinPoint joinPoint) {
-        final MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        return signature.getMethod();
-    }
-
-    private List<LockData> collectStampedLocks(final int[] stamps) {
-        return reduceStamps(stamps).stream()
-            .map(stamp -> locksMap.computeIfAbsent(stamp, s -> new LockData(new StampedLockWithBarrier())))
-            .collect(Collectors.toCollection(LinkedList::new));
-    }
-
-    private static List<Integer> reduceStamps(final int[] stamps) {
-        final List<Integer> outputList = new ArrayList<>();
-        for (int stamp : stamps) {
-            if (!outputList.contains(stamp)) {
-                outputList.add(stamp);
-            }
-        }
-        return outputList;
+    ObjectLocks getLocks() {
+        return locks;
     }
 }
\ No newline at end of file
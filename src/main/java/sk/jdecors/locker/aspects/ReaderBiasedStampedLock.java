@@ -0,0 +1,311 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Reader-biased (BRAVO) variant of {@link StampedLock} - while the bias is enabled, readers only publish
+ * themselves in a slot selected by hash of the thread, so they don't write the shared state word. Writers revoke
+ * the bias under the write lock and wait until the slots drain, the bias is re-enabled by a reader after a quiet
+ * period proportional to the cost of the last revocation. Try-operations never wait for the slots - they revoke
+ * the bias and fail if biased readers are active, so a retry succeeds once the readers drain. Only operations used
+ * by {@link StampedLockWithBarrier} are bias-aware.
+ */
+final class ReaderBiasedStampedLock extends StampedLock {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.readerBias";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * Slots are padded to a cache line (16 ints), so readers of different slots don't share cache lines.
+     */
+    private static final int SLOT_STRIDE = 16;
+    private static final int SLOTS = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 8)
+        * 2 - 1) << 1;
+    private static final int INHIBIT_MULTIPLIER = 9;
+    private static final long MIN_INHIBIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int DRAIN_SPINS = 64;
+    private static final long DRAIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long PINNED_INHIBIT_NANOS = Long.MAX_VALUE / 2;
+
+    private final transient AtomicIntegerArray readerSlots = new AtomicIntegerArray(SLOTS * SLOT_STRIDE);
+    private volatile boolean readerBias = true;
+    /**
+     * Set by revocations that didn't wait for biased readers - the next writer must drain the slots even though
+     * the bias is disabled.
+     */
+    private volatile boolean pendingBiasedReaders;
+    private volatile long inhibitedUntil;
+
+    @Override
+    public long readLock() {
+        if (readerBias) {
+            final long stamp = tryBiasedReadLock();
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        final long stamp = super.readLock();
+        enableBiasAfterQuietPeriod();
+        return stamp;
+    }
+
+    @Override
+    public long tryReadLock() {
+        if (readerBias) {
+            final long stamp = tryBiasedReadLock();
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        final long stamp = super.tryReadLock();
+        if (stamp != 0) {
+            enableBiasAfterQuietPeriod();
+        }
+        return stamp;
+    }
+
+    @Override
+    public long tryReadLock(final long time, final TimeUnit unit) throws InterruptedException {
+        if (readerBias) {
+            final long stamp = tryBiasedReadLock();
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        final long stamp = super.tryReadLock(time, unit);
+        if (stamp != 0) {
+            enableBiasAfterQuietPeriod();
+        }
+        return stamp;
+    }
+
+    @Override
+    public long writeLock() {
+        final long stamp = super.writeLock();
+        if (readerBias || pendingBiasedReaders) {
+            revokeBias(-1);
+        }
+        return stamp;
+    }
+
+    /**
+     * Doesn't wait for biased readers - if some of them are active, it fails, but the bias stays revoked
+     * for the quiet period, so the readers drain and a next attempt can succeed.
+     */
+    @Override
+    public long tryWriteLock() {
+        final long stamp = super.tryWriteLock();
+        if (stamp != 0 && (readerBias || pendingBiasedReaders)) {
+            final long startTime = System.nanoTime();
+            final boolean drained = revokeBiasNow(-1);
+            inhibitBias(startTime);
+            if (!drained) {
+                super.unlockWrite(stamp);
+                return 0;
+            }
+            pendingBiasedReaders = false;
+        }
+        return stamp;
+    }
+
+    @Override
+    public long tryWriteLock(final long time, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        final long stamp = super.tryWriteLock(time, unit);
+        if (stamp != 0 && (readerBias || pendingBiasedReaders)) {
+            boolean revoked = false;
+            try {
+                revoked = tryRevokeBias(deadline);
+            } finally {
+                if (!revoked) {
+                    super.unlockWrite(stamp);
+                }
+            }
+            if (!revoked) {
+                return 0;
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Conversion succeeds only if no other biased reader is active, like {@link #tryWriteLock()} it doesn't wait
+     * for them. Biased read lock is converted if the write lock is free.
+     */
+    @Override
+    public long tryConvertToWriteLock(final long stamp) {
+        if (!isBiased(stamp)) {
+            if (!readerBias && !pendingBiasedReaders) {
+                return super.tryConvertToWriteLock(stamp);
+            }
+            final long startTime = System.nanoTime();
+            final long writeStamp = revokeBiasNow(-1) ? super.tryConvertToWriteLock(stamp) : 0;
+            inhibitBias(startTime);
+            if (writeStamp != 0) {
+                pendingBiasedReaders = false;
+            }
+            return writeStamp;
+        }
+        final long writeStamp = super.tryWriteLock();
+        if (writeStamp == 0) {
+            return 0;
+        }
+        final long startTime = System.nanoTime();
+        final boolean drained = revokeBiasNow(getSlot(stamp));
+        inhibitBias(startTime);
+        if (!drained) {
+            super.unlockWrite(writeStamp);
+            return 0;
+        }
+        pendingBiasedReaders = false;
+        releaseSlot(stamp);
+        return writeStamp;
+    }
+
+    @Override
+    public void unlockRead(final long stamp) {
+        if (isBiased(stamp)) {
+            releaseSlot(stamp);
+        } else {
+            super.unlockRead(stamp);
+        }
+    }
+
+    boolean isReaderBiased() {
+        return readerBias;
+    }
+
+    private long tryBiasedReadLock() {
+        final int slot = getSlot(Thread.currentThread());
+        final int index = slot * SLOT_STRIDE;
+        if (readerSlots.get(index) == 0 && readerSlots.compareAndSet(index, 0, 1)) {
+            if (readerBias) {
+                return -1L - slot;
+            }
+            readerSlots.set(index, 0);
+        }
+        return 0;
+    }
+
+    private void releaseSlot(final long stamp) {
+        if (!readerSlots.compareAndSet(getSlot(stamp) * SLOT_STRIDE, 1, 0)) {
+            throw new IllegalMonitorStateException();
+        }
+    }
+
+    /**
+     * Invoked only by readers that hold the read lock of the underlying lock, so no writer can revoke the bias
+     * concurrently.
+     */
+    private void enableBiasAfterQuietPeriod() {
+        if (!readerBias && System.nanoTime() - inhibitedUntil >= 0) {
+            readerBias = true;
+        }
+    }
+
+    private void revokeBias(final int ownSlot) {
+        readerBias = false;
+        final long startTime = System.nanoTime();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int spins = 0;
+            while (slot != ownSlot && readerSlots.get(slot * SLOT_STRIDE) != 0) {
+                if (++spins < DRAIN_SPINS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, DRAIN_PARK_NANOS);
+                }
+            }
+        }
+        pendingBiasedReaders = false;
+        inhibitBias(startTime);
+    }
+
+    /**
+     * If the biased readers don't drain before the deadline, the previous bias is restored - the write lock is still
+     * held, so readers that are not biased can't observe the revocation.
+     */
+    private boolean tryRevokeBias(final long deadline) throws InterruptedException {
+        final boolean biased = readerBias;
+        readerBias = false;
+        final long startTime = System.nanoTime();
+        boolean drained = false;
+        try {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                while (readerSlots.get(slot * SLOT_STRIDE) != 0) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, DRAIN_PARK_NANOS);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+            drained = true;
+            pendingBiasedReaders = false;
+            inhibitBias(startTime);
+            return true;
+        } finally {
+            if (!drained) {
+                readerBias = biased;
+            }
+        }
+    }
+
+    /**
+     * Revokes the bias without waiting - returns false if biased readers other than the owner of the given slot
+     * are active. The bias is inhibited until the caller sets the quiet period by {@link #inhibitBias(long)},
+     * so readers of the underlying lock can't re-enable it in the meantime.
+     */
+    private boolean revokeBiasNow(final int ownSlot) {
+        inhibitedUntil = System.nanoTime() + PINNED_INHIBIT_NANOS;
+        pendingBiasedReaders = true;
+        readerBias = false;
+        return !hasBiasedReaders(ownSlot);
+    }
+
+    private boolean hasBiasedReaders(final int ownSlot) {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slot != ownSlot && readerSlots.get(slot * SLOT_STRIDE) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void inhibitBias(final long startTime) {
+        final long now = System.nanoTime();
+        inhibitedUntil = now + Math.max((now - startTime) * INHIBIT_MULTIPLIER, MIN_INHIBIT_NANOS);
+    }
+
+    private static boolean isBiased(final long stamp) {
+        return stamp < 0;
+    }
+
+    private static int getSlot(final long stamp) {
+        return (int) (-1L - stamp);
+    }
+
+    private static int getSlot(final Thread thread) {
+        final long hash = thread.getId() * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (SLOTS - 1);
+    }
+}
\ No newline at end of file
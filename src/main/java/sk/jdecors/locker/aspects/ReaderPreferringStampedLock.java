@@ -0,0 +1,65 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock of {@link sk.jdecors.locker.annotations.FairnessPolicy#READER_PREFERRING} policy - readers acquire the lock
+ * by non-queuing attempts that succeed whenever it is not write-locked, so they are not queued behind waiting
+ * writers. A writer enters only after all readers have left.
+ */
+final class ReaderPreferringStampedLock extends GatedStampedLock {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public long readLock() {
+        long stamp;
+        while ((stamp = super.tryReadLock()) == 0) {
+            awaitGate(this::isNotWriteLocked);
+        }
+        return stamp;
+    }
+
+    @Override
+    public long tryReadLock(final long time, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        long stamp;
+        while ((stamp = super.tryReadLock()) == 0) {
+            if (!awaitGate(this::isNotWriteLocked, deadline)) {
+                return 0;
+            }
+        }
+        return stamp;
+    }
+
+    @Override
+    public void unlockWrite(final long stamp) {
+        super.unlockWrite(stamp);
+        signalGate();
+    }
+
+    @Override
+    public long tryConvertToReadLock(final long stamp) {
+        final long readStamp = super.tryConvertToReadLock(stamp);
+        signalGate();
+        return readStamp;
+    }
+
+    private boolean isNotWriteLocked() {
+        return !isWriteLocked();
+    }
+}
\ No newline at end of file
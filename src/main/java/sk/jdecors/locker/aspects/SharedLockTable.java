@@ -0,0 +1,243 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Locks of all locked objects kept in one table with weak identity keys - an entry is created when its object
+ * is locked for the first time and it is evicted after it stays idle between two sweeps. Sweeps are amortized
+ * by creation of new entries and by releases of the last holder after the sweep interval, so idle objects don't
+ * retain any lock structures even if no new objects are locked.
+ */
+final class SharedLockTable {
+    static final String ENABLED_PROPERTY = "sk.jdecors.locker.sharedLockTable";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final int DEFAULT_MIN_SWEEP_SIZE = 1024;
+    private static final long DEFAULT_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int EVICTED = -1;
+
+    private interface TargetKey {
+        Object getTarget();
+    }
+
+    private static final class WeakTargetKey extends WeakReference<Object> implements TargetKey {
+        private final int hash;
+
+        private WeakTargetKey(final Object target, final ReferenceQueue<Object> queue) {
+            super(target, queue);
+            this.hash = System.identityHashCode(target);
+        }
+
+        @Override
+        public Object getTarget() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof TargetKey)) {
+                return false;
+            }
+            final Object target = get();
+            return target != null && target == ((TargetKey) obj).getTarget();
+        }
+    }
+
+    /**
+     * Strong key used only for lookups - one key is reused by each thread, so the hot path doesn't allocate.
+     * The target is cleared after the lookup, so the key doesn't retain it.
+     */
+    private static final class LookupKey implements TargetKey {
+        private Object target;
+
+        @Override
+        public Object getTarget() {
+            return target;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(target);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof TargetKey && target == ((TargetKey) obj).getTarget();
+        }
+    }
+
+    /**
+     * Locks of one object - holders are counted, so the entry is never evicted while some of its locks
+     * are held or awaited.
+     */
+    static final class Entry {
+        private final WeakTargetKey key;
+        private final ObjectLocks locks = new ObjectLocks();
+        private final AtomicInteger holders = new AtomicInteger(1);
+        private volatile boolean touched = true;
+
+        private Entry(final WeakTargetKey key) {
+            this.key = key;
+        }
+
+        ObjectLocks getLocks() {
+            return locks;
+        }
+
+        private boolean tryRetain() {
+            int currentHolders;
+            do {
+                currentHolders = holders.get();
+                if (currentHolders == EVICTED) {
+                    return false;
+                }
+            } while (!holders.compareAndSet(currentHolders, currentHolders + 1));
+            if (!touched) {
+                touched = true;
+            }
+            return true;
+        }
+
+        private boolean tryEvict() {
+            if (touched) {
+                touched = false;
+                return false;
+            }
+            return holders.compareAndSet(0, EVICTED);
+        }
+    }
+
+    private static final ThreadLocal<LookupKey> LOOKUP_KEYS = ThreadLocal.withInitial(LookupKey::new);
+
+    private final Map<TargetKey, Entry> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collectedTargets = new ReferenceQueue<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final int minSweepSize;
+    private final long sweepIntervalNanos;
+    private volatile int sweepSize;
+    private volatile long lastSweepNanos = System.nanoTime();
+
+    SharedLockTable() {
+        this(DEFAULT_MIN_SWEEP_SIZE, DEFAULT_SWEEP_INTERVAL_NANOS);
+    }
+
+    SharedLockTable(final int minSweepSize, final long sweepIntervalNanos) {
+        this.minSweepSize = minSweepSize;
+        this.sweepIntervalNanos = sweepIntervalNanos;
+        this.sweepSize = minSweepSize;
+    }
+
+    /**
+     * Entry of the object retained by the caller - it must be passed to {@link #release(Entry)} after
+     * all locks acquired through the entry are released.
+     */
+    Entry acquire(final Object target) {
+        while (true) {
+            Entry entry = get(target);
+            if (entry == null) {
+                final Entry createdEntry = new Entry(new WeakTargetKey(target, collectedTargets));
+                entry = entries.putIfAbsent(createdEntry.key, createdEntry);
+                if (entry == null) {
+                    entryCreated();
+                    return createdEntry;
+                }
+            }
+            if (entry.tryRetain()) {
+                return entry;
+            }
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    void release(final Entry entry) {
+        if (entry.holders.decrementAndGet() == 0 && System.nanoTime() - lastSweepNanos >= sweepIntervalNanos) {
+            trySweep();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private Entry get(final Object target) {
+        final LookupKey lookupKey = LOOKUP_KEYS.get();
+        lookupKey.target = target;
+        try {
+            return entries.get(lookupKey);
+        } finally {
+            lookupKey.target = null;
+        }
+    }
+
+    private void entryCreated() {
+        expungeCollectedTargets();
+        if (entries.size() >= sweepSize) {
+            trySweep();
+        }
+    }
+
+    private void trySweep() {
+        if (sweeping.compareAndSet(false, true)) {
+            try {
+                expungeCollectedTargets();
+                sweep();
+                lastSweepNanos = System.nanoTime();
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Entries used since the last sweep survive it, the next sweep is scheduled after the number of created
+     * entries reaches the number of held entries (at least the minimal sweep size).
+     */
+    private void sweep() {
+        int heldEntries = 0;
+        for (final Entry entry : entries.values()) {
+            if (entry.tryEvict()) {
+                entries.remove(entry.key, entry);
+            } else if (entry.holders.get() > 0) {
+                heldEntries++;
+            }
+        }
+        sweepSize = entries.size() + Math.max(minSweepSize, heldEntries);
+    }
+
+    private void expungeCollectedTargets() {
+        Reference<?> reference;
+        while ((reference = collectedTargets.poll()) != null) {
+            entries.remove((WeakTargetKey) reference);
+        }
+    }
+}
\ No newline at end of file
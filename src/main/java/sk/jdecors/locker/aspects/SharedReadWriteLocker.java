@@ -0,0 +1,127 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+
+/**
+ * Singleton alternative of {@link ReadWriteLocker} that is active only if system property
+ * '{@value SharedLockTable#ENABLED_PROPERTY}' is set to 'true' - locks of all objects are kept in one
+ * {@link SharedLockTable}, so objects that are not being locked don't retain any aspect instance.
+ */
+@Aspect
+public final class SharedReadWriteLocker {
+
+    private final SharedLockTable lockTable;
+
+    public SharedReadWriteLocker() {
+        this(new SharedLockTable());
+    }
+
+    SharedReadWriteLocker(final SharedLockTable lockTable) {
+        this.lockTable = lockTable;
+    }
+
+    @Pointcut("if()")
+    public static boolean sharedLockTable() {
+        return SharedLockTable.ENABLED;
+    }
+
+    @Around("sk.jdecors.locker.aspects.ReadWriteLocker.executionOfReadOnlyMethods() && sharedLockTable()")
+    public Object readLock(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (joinPoint.getThis() == null || AdviceGuard.current().isEntered()) {
+            return joinPoint.proceed();
+        }
+        return lockForRead(joinPoint);
+    }
+
+    private Object lockForRead(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final SharedLockTable.Entry entry = lockTable.acquire(joinPoint.getThis());
+        final Object result;
+        try {
+            result = entry.getLocks().lockForRead(joinPoint);
+        } catch (final Throwable throwable) {
+            lockTable.release(entry);
+            throw throwable;
+        }
+        return releaseOnCompletion(entry, LockPlan.ofReadLocks(joinPoint.getStaticPart()), result);
+    }
+
+    @Around("sk.jdecors.locker.aspects.ReadWriteLocker.executionOfUpgradableReadMethods() && sharedLockTable()")
+    public Object upgradableReadLock(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (joinPoint.getThis() == null || AdviceGuard.current().isEntered()) {
+            return joinPoint.proceed();
+        }
+        return lockForUpgradableRead(joinPoint);
+    }
+
+    private Object lockForUpgradableRead(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final SharedLockTable.Entry entry = lockTable.acquire(joinPoint.getThis());
+        try {
+            return entry.getLocks().lockForUpgradableRead(joinPoint);
+        } finally {
+            lockTable.release(entry);
+        }
+    }
+
+    @Around("sk.jdecors.locker.aspects.ReadWriteLocker.executionOfReadWriteMethods() && sharedLockTable()")
+    public Object writeLock(final ProceedingJoinPoint joinPoint) throws Throwable {
+        if (joinPoint.getThis() == null || AdviceGuard.current().isEntered()) {
+            return joinPoint.proceed();
+        }
+        return lockForWrite(joinPoint);
+    }
+
+    private Object lockForWrite(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final SharedLockTable.Entry entry = lockTable.acquire(joinPoint.getThis());
+        final Object result;
+        try {
+            result = entry.getLocks().lockForWrite(joinPoint);
+        } catch (final Throwable throwable) {
+            lockTable.release(entry);
+            throw throwable;
+        }
+        return releaseOnCompletion(entry, LockPlan.ofWriteLocks(joinPoint.getStaticPart()), result);
+    }
+
+    <T> T lockAndCall(final Object target, final LockPlan lockPlan, final Supplier<T> body) {
+        final SharedLockTable.Entry entry = lockTable.acquire(target);
+        try {
+            return entry.getLocks().lockAndCall(target, lockPlan, body);
+        } finally {
+            lockTable.release(entry);
+        }
+    }
+
+    /**
+     * Locks of asynchronous methods are released after the returned stage completes, so the entry must not
+     * be evicted before.
+     */
+    private Object releaseOnCompletion(final SharedLockTable.Entry entry, final LockPlan lockPlan,
+        final Object result) {
+        if (lockPlan.isAsynchronous() && result != null) {
+            ((CompletionStage<?>) result).whenComplete((value, throwable) -> lockTable.release(entry));
+        } else {
+            lockTable.release(entry);
+        }
+        return result;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import sk.jdecors.locker.annotations.StampGroup;
+import sk.jdecors.locker.aspects.IntentionLock.Mode;
+
+/**
+ * Stamp groups declared by {@link StampGroup} annotations of one class or inherited from its superclass.
+ * Hierarchy splits stamps of a lock plan into locks of parent stamps, which are acquired first, and locks
+ * of ordinary stamps.
+ */
+final class StampHierarchy {
+    private static final int[] NO_STAMPS = new int[0];
+    private static final Mode[] NO_MODES = new Mode[0];
+
+    private static final ClassValue<StampHierarchy> HIERARCHIES = new ClassValue<StampHierarchy>() {
+        @Override
+        protected StampHierarchy computeValue(final Class<?> type) {
+            return new StampHierarchy(type);
+        }
+    };
+
+    /**
+     * Stamps of a lock plan split by the hierarchy - parent stamps are sorted in ascending order.
+     */
+    static final class Split {
+        private final int[] stamps;
+        private final int[] groupStamps;
+        private final Mode[] groupModes;
+
+        private Split(final int[] stamps, final int[] groupStamps, final Mode[] groupModes) {
+            this.stamps = stamps;
+            this.groupStamps = groupStamps;
+            this.groupModes = groupModes;
+        }
+
+        int[] getStamps() {
+            return stamps;
+        }
+
+        int[] getGroupStamps() {
+            return groupStamps;
+        }
+
+        Mode[] getGroupModes() {
+            return groupModes;
+        }
+    }
+
+    private final Map<Integer, Integer> parents = new HashMap<>();
+    private final Map<Integer, Integer> groups = new HashMap<>();
+
+    private StampHierarchy(final Class<?> type) {
+        for (final StampGroup group : type.getAnnotationsByType(StampGroup.class)) {
+            if (groups.put(group.stamp(), group.stamp()) != null) {
+                throw new IllegalStateException(String.format("Stamp group %d is declared twice: %s", group.stamp(),
+                    type));
+            }
+            for (final int child : group.children()) {
+                if (parents.put(child, group.stamp()) != null) {
+                    throw new IllegalStateException(String.format("Stamp %d belongs to more than one group: %s",
+                        child, type));
+                }
+            }
+        }
+        for (final Integer parent : groups.keySet()) {
+            if (parents.containsKey(parent)) {
+                throw new IllegalStateException(String.format("Stamp groups cannot be nested: %s", type));
+            }
+        }
+    }
+
+    static StampHierarchy of(final Class<?> type) {
+        return HIERARCHIES.get(type);
+    }
+
+    boolean hasGroups() {
+        return !groups.isEmpty();
+    }
+
+    /**
+     * Parent stamps of the plan are locked in shared or exclusive mode and their children are covered by them,
+     * other children of groups lock their parent in an intention mode.
+     */
+    Split split(final int[] stamps, final boolean write) {
+        if (!hasGroups()) {
+            return new Split(stamps, NO_STAMPS, NO_MODES);
+        }
+        final Map<Integer, Mode> groupModes = new TreeMap<>();
+        for (final int stamp : stamps) {
+            if (groups.containsKey(stamp)) {
+                groupModes.put(stamp, write ? Mode.EXCLUSIVE : Mode.SHARED);
+            }
+        }
+        final List<Integer> ordinaryStamps = new ArrayList<>();
+        for (final int stamp : stamps) {
+            final Integer parent = parents.get(stamp);
+            if (parent != null) {
+                final Mode parentMode = groupModes.get(parent);
+                if (parentMode == Mode.EXCLUSIVE || parentMode == Mode.SHARED) {
+                    continue;
+                }
+                groupModes.put(parent, write ? Mode.INTENTION_EXCLUSIVE : Mode.INTENTION_SHARED);
+                ordinaryStamps.add(stamp);
+            } else if (!groups.containsKey(stamp)) {
+                ordinaryStamps.add(stamp);
+            }
+        }
+        if (groupModes.isEmpty()) {
+            return new Split(stamps, NO_STAMPS, NO_MODES);
+        }
+        return new Split(ordinaryStamps.stream().mapToInt(Integer::intValue).toArray(),
+            groupModes.keySet().stream().mapToInt(Integer::intValue).toArray(),
+            groupModes.values().toArray(NO_MODES));
+    }
+}
\ No newline at end of file
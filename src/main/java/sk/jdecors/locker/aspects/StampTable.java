@@ -0,0 +1,134 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Values indexed by stamp - small non-negative stamps are kept in a lazily grown array, so the lookup
+ * doesn't box nor hash the stamp. Other stamps fall back to a map. Missing values are created by CAS, growing
+ * array freezes empty slots of the replaced array, so a value can't be created in a replaced array.
+ */
+final class StampTable<V> {
+    private static final int MAX_DENSE_STAMPS = 256;
+    private static final int MIN_CAPACITY = 8;
+    private static final Object MOVED = new Object();
+
+    private volatile AtomicReferenceArray<Object> denseValues;
+    private volatile Map<Integer, V> sparseValues;
+
+    V get(final int stamp) {
+        if (!isDense(stamp)) {
+            final Map<Integer, V> values = sparseValues;
+            return values == null ? null : values.get(stamp);
+        }
+        while (true) {
+            final AtomicReferenceArray<Object> values = denseValues;
+            if (values == null || stamp >= values.length()) {
+                return null;
+            }
+            final Object value = values.get(stamp);
+            if (value != MOVED) {
+                return cast(value);
+            }
+            Thread.yield();
+        }
+    }
+
+    V computeIfAbsent(final int stamp, final IntFunction<V> factory) {
+        if (!isDense(stamp)) {
+            return getSparseValues().computeIfAbsent(stamp, factory::apply);
+        }
+        while (true) {
+            final AtomicReferenceArray<Object> values = denseValues;
+            if (values == null || stamp >= values.length()) {
+                grow(stamp);
+                continue;
+            }
+            final Object value = values.get(stamp);
+            if (value == MOVED) {
+                Thread.yield();
+            } else if (value != null) {
+                return cast(value);
+            } else {
+                final V createdValue = factory.apply(stamp);
+                if (values.compareAndSet(stamp, null, createdValue)) {
+                    return createdValue;
+                }
+            }
+        }
+    }
+
+    void forEach(final Consumer<? super V> action) {
+        final AtomicReferenceArray<Object> values = denseValues;
+        if (values != null) {
+            for (int i = 0; i < values.length(); i++) {
+                final Object value = values.get(i);
+                if (value != null && value != MOVED) {
+                    action.accept(cast(value));
+                }
+            }
+        }
+        final Map<Integer, V> sparse = sparseValues;
+        if (sparse != null) {
+            sparse.values().forEach(action);
+        }
+    }
+
+    private synchronized void grow(final int stamp) {
+        final AtomicReferenceArray<Object> values = denseValues;
+        if (values != null && stamp < values.length()) {
+            return;
+        }
+        int capacity = values == null ? MIN_CAPACITY : values.length() << 1;
+        while (capacity <= stamp) {
+            capacity <<= 1;
+        }
+        final AtomicReferenceArray<Object> grownValues = new AtomicReferenceArray<>(capacity);
+        if (values != null) {
+            for (int i = 0; i < values.length(); i++) {
+                Object value = values.get(i);
+                if (value == null && !values.compareAndSet(i, null, MOVED)) {
+                    value = values.get(i);
+                }
+                if (value != null) {
+                    grownValues.set(i, value);
+                }
+            }
+        }
+        denseValues = grownValues;
+    }
+
+    private synchronized Map<Integer, V> getSparseValues() {
+        if (sparseValues == null) {
+            sparseValues = new ConcurrentHashMap<>();
+        }
+        return sparseValues;
+    }
+
+    private static boolean isDense(final int stamp) {
+        return stamp >= 0 && stamp < MAX_DENSE_STAMPS;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(final Object value) {
+        return (V) value;
+    }
+}
\ No newline at end of file
@@ -15,26 +15,120 @@
 
 package sk.jdecors.locker.aspects;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.StampedLock;
+import sk.jdecors.locker.annotations.FairnessPolicy;
 
 final class StampedLockWithBarrier {
-    private final StampedLock stampedLock = new StampedLock();
+    private static final long BREAKABLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final StampedLock stampedLock;
+    private final FairnessPolicy policy;
     private final CountUpDownLatch barrier = new CountUpDownLatch(0);
+    private final LockMetrics metrics = LockMetrics.create();
+    private final AdaptiveSpinning spinning = AdaptiveSpinning.ENABLED ? new AdaptiveSpinning() : null;
+
+    StampedLockWithBarrier() {
+        this(FairnessPolicy.DEFAULT);
+    }
+
+    /**
+     * Locks of the default policy are reader-biased if the bias is enabled, locks of other policies
+     * are reader-biased only by their own policy.
+     */
+    StampedLockWithBarrier(final FairnessPolicy policy) {
+        switch (policy) {
+            case READER_BIASED:
+                this.stampedLock = new ReaderBiasedStampedLock();
+                break;
+            case WRITER_PREFERRING:
+                this.stampedLock = new WriterPreferringStampedLock();
+                break;
+            case READER_PREFERRING:
+                this.stampedLock = new ReaderPreferringStampedLock();
+                break;
+            case PHASE_FAIR:
+                this.stampedLock = new PhaseFairStampedLock();
+                break;
+            default:
+                this.stampedLock = ReaderBiasedStampedLock.ENABLED ? new ReaderBiasedStampedLock() : new StampedLock();
+        }
+        this.policy = policy;
+    }
+
+    FairnessPolicy getPolicy() {
+        return policy;
+    }
 
     long readLock() {
-        barrier.waitUntilZero();
+        if (DeadlockDetector.BREAKING_CYCLES) {
+            return breakableLock(false);
+        }
+        if (spinning != null) {
+            final long stamp = spinForLock(false);
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        waitForBarrier();
         return stampedLock.readLock();
     }
 
     long writeLock() {
-        barrier.waitUntilZero();
+        if (DeadlockDetector.BREAKING_CYCLES) {
+            return breakableLock(true);
+        }
+        if (spinning != null) {
+            final long stamp = spinForLock(true);
+            if (stamp != 0) {
+                return stamp;
+            }
+        }
+        waitForBarrier();
         return stampedLock.writeLock();
     }
 
-    void unlockRead(final long stamp, final boolean cameFromDowngradeProcess) {
+    long tryReadLock() {
+        if (barrier.isZero()) {
+            return stampedLock.tryReadLock();
+        }
+        return 0;
+    }
+
+    long tryWriteLock() {
+        if (barrier.isZero()) {
+            return stampedLock.tryWriteLock();
+        }
+        return 0;
+    }
+
+    long tryReadLock(final long deadline) throws InterruptedException {
+        if (!waitForBarrier(deadline)) {
+            return 0;
+        }
+        return stampedLock.tryReadLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    long tryWriteLock(final long deadline) throws InterruptedException {
+        if (!waitForBarrier(deadline)) {
+            return 0;
+        }
+        return stampedLock.tryWriteLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    void unlockRead(final long stamp, final int finishedUpgrades) {
         stampedLock.unlockRead(stamp);
-        if (cameFromDowngradeProcess) {
-            barrier.countDownOrWaitIfZero();
+        for (int i = 0; i < finishedUpgrades; i++) {
+            barrier.countDown();
+        }
+    }
+
+    /**
+     * Feeds a sampled hold time to the spin limit of the lock.
+     */
+    void recordHold(final long holdNanos) {
+        if (spinning != null) {
+            spinning.recordHold(holdNanos);
         }
     }
 
@@ -48,11 +142,150 @@ final class StampedLockWithBarrier {
         return stampedLock.writeLock();
     }
 
+    /**
+     * Bounded variant of {@link #upgradeLock(long)} - if write lock is not acquired before the deadline,
+     * the read lock has been already released and it must be restored using {@link #restoreReadLock()}.
+     */
+    long tryUpgradeLock(final long stamp, final long deadline) throws InterruptedException {
+        barrier.countUp();
+        stampedLock.unlockRead(stamp);
+        return stampedLock.tryWriteLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Write lock of a stamp whose read lock was released by an escalation of more stamps - it bypasses
+     * the barrier, because the thread may already hold write locks of earlier stamps of the escalation.
+     */
+    long escalateWriteLock() {
+        return stampedLock.writeLock();
+    }
+
+    long tryEscalateWriteLock(final long deadline) throws InterruptedException {
+        return stampedLock.tryWriteLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    long restoreEscalatedReadLock() {
+        return stampedLock.readLock();
+    }
+
+    long restoreReadLock() {
+        final long stamp = stampedLock.readLock();
+        barrier.countDown();
+        return stamp;
+    }
+
+    long tryConvertToWriteLock(final long stamp) {
+        return stampedLock.tryConvertToWriteLock(stamp);
+    }
+
     long downgradeLock(final long stamp) {
         return stampedLock.tryConvertToReadLock(stamp);
     }
 
-    boolean isWriteLocked() {
-        return stampedLock.isWriteLocked();
+    long tryOptimisticRead() {
+        return stampedLock.tryOptimisticRead();
+    }
+
+    boolean validate(final long stamp) {
+        return stampedLock.validate(stamp);
+    }
+
+    LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Contended acquisition spins for the learned limit before the caller parks - the barrier is checked
+     * by each attempt, so a short upgrade is spun through as well. Uncontended acquisition doesn't touch
+     * the shared counter of spinning threads.
+     */
+    private long spinForLock(final boolean write) {
+        long stamp = write ? tryWriteLock() : tryReadLock();
+        if (stamp != 0) {
+            return stamp;
+        }
+        final int spins = spinning.beginSpinning();
+        if (spins == 0) {
+            return 0;
+        }
+        try {
+            for (int i = 0; i < spins; i++) {
+                AdaptiveSpinning.onSpinWait();
+                stamp = write ? tryWriteLock() : tryReadLock();
+                if (stamp != 0) {
+                    return stamp;
+                }
+            }
+            return 0;
+        } finally {
+            AdaptiveSpinning.endSpinning();
+        }
+    }
+
+    /**
+     * Blocking acquisition that can be failed by the deadlock watchdog - the lock is awaited in interruptible
+     * rounds, interrupts that don't come from the watchdog are restored after the lock is acquired.
+     */
+    private long breakableLock(final boolean write) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    final long deadline = System.nanoTime() + BREAKABLE_WAIT_NANOS;
+                    final long stamp = write ? tryWriteLock(deadline) : tryReadLock(deadline);
+                    if (stamp != 0) {
+                        return stamp;
+                    }
+                } catch (final InterruptedException e) {
+                    final LockCycle cycle = DeadlockDetector.current().takeVictimCycle();
+                    if (cycle != null) {
+                        throw new LockDeadlockException(cycle);
+                    }
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void waitForBarrier() {
+        if ((LockMetrics.ENABLED || LockEvents.ENABLED) && !barrier.isZero()) {
+            final long startTime = beginBarrierWait();
+            barrier.waitUntilZero();
+            barrierWaitFinished(startTime);
+        } else {
+            barrier.waitUntilZero();
+        }
+    }
+
+    private boolean waitForBarrier(final long deadline) throws InterruptedException {
+        if ((LockMetrics.ENABLED || LockEvents.ENABLED) && !barrier.isZero()) {
+            final long startTime = beginBarrierWait();
+            try {
+                return barrier.waitUntilZero(deadline - System.nanoTime());
+            } finally {
+                barrierWaitFinished(startTime);
+            }
+        }
+        return barrier.waitUntilZero(deadline - System.nanoTime());
+    }
+
+    private static long beginBarrierWait() {
+        if (LockEvents.ENABLED) {
+            LockEvents.current().beginBarrierStall();
+        }
+        return System.nanoTime();
+    }
+
+    private void barrierWaitFinished(final long startTime) {
+        if (LockMetrics.ENABLED) {
+            metrics.recordBarrierWait(System.nanoTime() - startTime);
+        }
+        if (LockEvents.ENABLED) {
+            LockEvents.current().commitBarrierStall();
+        }
     }
 }
\ No newline at end of file
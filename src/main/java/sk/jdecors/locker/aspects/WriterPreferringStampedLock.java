@@ -0,0 +1,119 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock of {@link sk.jdecors.locker.annotations.FairnessPolicy#WRITER_PREFERRING} policy - readers are admitted
+ * only while no writer is waiting for the lock or holding it.
+ */
+final class WriterPreferringStampedLock extends GatedStampedLock {
+    private static final long serialVersionUID = 1L;
+
+    private final transient AtomicInteger writers = new AtomicInteger();
+
+    @Override
+    public long readLock() {
+        awaitGate(this::hasNoWriters);
+        return super.readLock();
+    }
+
+    @Override
+    public long tryReadLock() {
+        return hasNoWriters() ? super.tryReadLock() : 0;
+    }
+
+    @Override
+    public long tryReadLock(final long time, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        if (!awaitGate(this::hasNoWriters, deadline)) {
+            return 0;
+        }
+        return super.tryReadLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long writeLock() {
+        writers.incrementAndGet();
+        return super.writeLock();
+    }
+
+    @Override
+    public long tryWriteLock() {
+        writers.incrementAndGet();
+        final long stamp = super.tryWriteLock();
+        if (stamp == 0) {
+            writerLeft();
+        }
+        return stamp;
+    }
+
+    @Override
+    public long tryWriteLock(final long time, final TimeUnit unit) throws InterruptedException {
+        writers.incrementAndGet();
+        long stamp = 0;
+        try {
+            stamp = super.tryWriteLock(time, unit);
+            return stamp;
+        } finally {
+            if (stamp == 0) {
+                writerLeft();
+            }
+        }
+    }
+
+    @Override
+    public void unlockWrite(final long stamp) {
+        super.unlockWrite(stamp);
+        writerLeft();
+    }
+
+    /**
+     * Converts only read stamps.
+     */
+    @Override
+    public long tryConvertToWriteLock(final long stamp) {
+        final long writeStamp = super.tryConvertToWriteLock(stamp);
+        if (writeStamp != 0) {
+            writers.incrementAndGet();
+        }
+        return writeStamp;
+    }
+
+    /**
+     * Converts only write stamps.
+     */
+    @Override
+    public long tryConvertToReadLock(final long stamp) {
+        final long readStamp = super.tryConvertToReadLock(stamp);
+        if (readStamp != 0) {
+            writerLeft();
+        }
+        return readStamp;
+    }
+
+    private boolean hasNoWriters() {
+        return writers.get() == 0;
+    }
+
+    private void writerLeft() {
+        if (writers.decrementAndGet() == 0) {
+            signalGate();
+        }
+    }
+}
\ No newline at end of file
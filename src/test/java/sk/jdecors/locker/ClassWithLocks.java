@@ -53,9 +53,12 @@ final class ClassWithLocks {
 
     static final int SIMPLE_RO_TEST_TIMEOUT = 50;
     static final int SIMPLE_RW_TEST_TIMEOUT = 10;
+    static final String NESTED_SIGNATURE_PREFIX = "nested_";
 
     private static final String SIMPLE_TEST_START_SIGNATURE = "simple_start";
     private static final String SIMPLE_TEST_STOP_SIGNATURE = "simple_stop";
+    private static final String NESTED_TEST_START_SIGNATURE = NESTED_SIGNATURE_PREFIX + "start";
+    private static final String NESTED_TEST_STOP_SIGNATURE = NESTED_SIGNATURE_PREFIX + "stop";
 
     private final List<RecordEntry> history = new CopyOnWriteArrayList<>();
 
@@ -81,6 +84,17 @@ final class ClassWithLocks {
         addHistoryEntry(SIMPLE_TEST_STOP_SIGNATURE);
     }
 
+    @LockedForRead(optimistic = true)
+    void singleOptimisticReadOnlyOperation() {
+        addHistoryEntry(SIMPLE_TEST_START_SIGNATURE);
+        try {
+            TimeUnit.MILLISECONDS.sleep(SIMPLE_RO_TEST_TIMEOUT);
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException("Optimistic read-only operation was interrupted.", e);
+        }
+        addHistoryEntry(SIMPLE_TEST_STOP_SIGNATURE);
+    }
+
     @LockedForRead(stamp = {1, 2, 3, 4, 5})
     void singleReadOnlyOperationWithMultipleLocks() {
         addHistoryEntry(SIMPLE_TEST_START_SIGNATURE);
@@ -148,7 +162,9 @@ final class ClassWithLocks {
 
     @LockedForWrite(stamp = {15, 20, 30})
     private void chainedReadOnlyOperationPartWithSplitLocks() throws InterruptedException {
+        addHistoryEntry(NESTED_TEST_START_SIGNATURE);
         TimeUnit.MILLISECONDS.sleep(SIMPLE_RO_TEST_TIMEOUT);
+        addHistoryEntry(NESTED_TEST_STOP_SIGNATURE);
     }
 
     @LockedForWrite(stamp = {0, 10, 20})
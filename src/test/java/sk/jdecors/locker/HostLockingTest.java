@@ -0,0 +1,141 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockScope;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Locks of host scope tested by child JVMs that share the host lock file with the test.
+ */
+class HostLockingTest {
+
+    private static final String FILE_PROPERTY = "sk.jdecors.locker.hostLockFile";
+    private static final int PROCESSES = 3;
+    private static final int INCREMENTS_PER_PROCESS = 200;
+    private static final long PROCESS_TIMEOUT_SECONDS = 60;
+    private static final long RECOVERY_TIMEOUT_SECONDS = 5;
+    private static final String CRASH = "crash";
+
+    private static Path lockFile;
+
+    static final class SharedCounter {
+        @LockedForWrite(stamp = 7, scope = LockScope.HOST)
+        void increment(final Path counterFile) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(counterFile.toFile(), "rw")) {
+                final long value = file.length() == 0 ? 0 : file.readLong();
+                Thread.yield();
+                file.seek(0);
+                file.writeLong(value + 1);
+            }
+        }
+
+        @LockedForWrite(stamp = 8, scope = LockScope.HOST)
+        void crashWhileLocked(final Path markerFile) throws IOException {
+            Files.createFile(markerFile);
+            Runtime.getRuntime().halt(1);
+        }
+
+        @LockedForWrite(stamp = 8, scope = LockScope.HOST)
+        void lockAfterCrash() {
+        }
+    }
+
+    public static final class ChildProcess {
+        public static void main(final String[] args) throws IOException {
+            final SharedCounter counter = new SharedCounter();
+            if (CRASH.equals(args[0])) {
+                counter.crashWhileLocked(Paths.get(args[1]));
+            }
+            for (int i = 0; i < INCREMENTS_PER_PROCESS; i++) {
+                counter.increment(Paths.get(args[1]));
+            }
+        }
+    }
+
+    @BeforeAll
+    static void setUpLockFile() throws IOException {
+        lockFile = Files.createTempFile("host-locks", ".bin");
+        System.setProperty(FILE_PROPERTY, lockFile.toString());
+    }
+
+    @Test
+    void testWritersOfAllProcessesAreExcluded() throws Exception {
+        final Path counterFile = Files.createTempFile("host-counter", ".bin");
+        final List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(startChild("count", counterFile, true));
+        }
+        for (final Process process : processes) {
+            Assertions.assertTrue(process.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, process.exitValue());
+        }
+        try (RandomAccessFile file = new RandomAccessFile(counterFile.toFile(), "r")) {
+            Assertions.assertEquals(PROCESSES * INCREMENTS_PER_PROCESS, file.readLong());
+        }
+    }
+
+    @Test
+    void testLockOfDeadProcessIsRecovered() throws Exception {
+        final Path markerFile = Files.createTempDirectory("host-crash").resolve("locked");
+        final Process process = startChild(CRASH, markerFile, true);
+        Assertions.assertTrue(process.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertTrue(Files.exists(markerFile));
+        CompletableFuture.runAsync(() -> new SharedCounter().lockAfterCrash())
+            .get(RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testLockFileMustBeConfigured() throws Exception {
+        final Path counterFile = Files.createTempFile("host-counter", ".bin");
+        final Process process = startChild("count", counterFile, false);
+        Assertions.assertTrue(process.waitFor(PROCESS_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertNotEquals(0, process.exitValue());
+        Assertions.assertEquals(0, Files.size(counterFile));
+        Assertions.assertTrue(new String(Files.readAllBytes(Paths.get(counterFile + ".out")),
+            StandardCharsets.UTF_8).contains(FILE_PROPERTY));
+    }
+
+    private static Process startChild(final String mode, final Path file, final boolean withLockFile)
+        throws IOException {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final List<String> command = new ArrayList<>(Arrays.asList(java, "-cp",
+            System.getProperty("java.class.path")));
+        if (withLockFile) {
+            command.add("-D" + FILE_PROPERTY + "=" + lockFile);
+        }
+        command.addAll(Arrays.asList(ChildProcess.class.getName(), mode, file.toString()));
+        return new ProcessBuilder(command)
+            .redirectOutput(new File(file + ".out"))
+            .redirectErrorStream(true)
+            .start();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,179 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Stress test of methods that declare the same stamps in conflicting orders - all operations must complete
+ * without a deadlock. Throughput of the orderings is compared by {@code LockOrderingBenchmark}.
+ */
+class LockOrderingStressTest {
+
+    private static final int THREAD_POOL_SIZE = 8;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+    private static final int MAX_WAIT_TIME = 60_000;
+
+    private static final class ConflictingOrders {
+        private long counter;
+
+        @LockedForWrite(stamp = {1, 2, 3})
+        void forward() {
+            counter++;
+        }
+
+        @LockedForWrite(stamp = {3, 2, 1})
+        void backward() {
+            counter++;
+        }
+
+        @LockedForWrite(stamp = {2, 3, 1})
+        void rotated() {
+            counter++;
+        }
+
+        @LockedForRead(stamp = {3, 1})
+        long read() {
+            return counter;
+        }
+
+        @LockedForWrite(stamp = {1, 2, 3}, allOrNothing = true)
+        void forwardAllOrNothing() {
+            counter++;
+        }
+
+        @LockedForWrite(stamp = {3, 2, 1}, allOrNothing = true)
+        void backwardAllOrNothing() {
+            counter++;
+        }
+
+        @LockedForWrite(stamp = {2, 3, 1}, allOrNothing = true)
+        void rotatedAllOrNothing() {
+            counter++;
+        }
+
+        @LockedForRead(stamp = {3, 1}, allOrNothing = true)
+        long readAllOrNothing() {
+            return counter;
+        }
+    }
+
+    private interface Operation {
+        void run(int threadIndex, int operationIndex);
+    }
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testCanonicalOrdering() {
+        final ConflictingOrders target = new ConflictingOrders();
+        runThreads((threadIndex, operationIndex) -> {
+            switch ((threadIndex + operationIndex) % 4) {
+                case 0:
+                    target.forward();
+                    break;
+                case 1:
+                    target.backward();
+                    break;
+                case 2:
+                    target.rotated();
+                    break;
+                default:
+                    target.read();
+            }
+        });
+        Assertions.assertEquals(expectedWrites(), target.read());
+    }
+
+    @Test
+    void testAllOrNothingAcquisition() {
+        final ConflictingOrders target = new ConflictingOrders();
+        runThreads((threadIndex, operationIndex) -> {
+            switch ((threadIndex + operationIndex) % 4) {
+                case 0:
+                    target.forwardAllOrNothing();
+                    break;
+                case 1:
+                    target.backwardAllOrNothing();
+                    break;
+                case 2:
+                    target.rotatedAllOrNothing();
+                    break;
+                default:
+                    target.readAllOrNothing();
+            }
+        });
+        Assertions.assertEquals(expectedWrites(), target.readAllOrNothing());
+    }
+
+    private void runThreads(final Operation operation) {
+        final AtomicInteger completedOperations = new AtomicInteger();
+        final List<? extends Future<?>> threadTokens = IntStream.range(0, THREAD_POOL_SIZE).boxed()
+            .map(threadIndex -> executorService.submit(() -> {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    operation.run(threadIndex, i);
+                    completedOperations.incrementAndGet();
+                }
+                return null;
+            }))
+            .collect(Collectors.toList());
+        threadTokens.forEach(o -> {
+            try {
+                o.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException("Test was interrupted.", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("An error occurred during execution of the thread.", e);
+            } catch (final TimeoutException e) {
+                throw new IllegalStateException(String.format("Test failed because of the exceeded maximum time " +
+                    "of %s ms for completion of thread execution - threads are probably deadlocked.",
+                    MAX_WAIT_TIME), e);
+            }
+        });
+        Assertions.assertEquals(THREAD_POOL_SIZE * OPERATIONS_PER_THREAD, completedOperations.get());
+    }
+
+    private static long expectedWrites() {
+        long writes = 0;
+        for (int threadIndex = 0; threadIndex < THREAD_POOL_SIZE; threadIndex++) {
+            for (int operationIndex = 0; operationIndex < OPERATIONS_PER_THREAD; operationIndex++) {
+                if ((threadIndex + operationIndex) % 4 != 3) {
+                    writes++;
+                }
+            }
+        }
+        return writes;
+    }
+}
\ No newline at end of file
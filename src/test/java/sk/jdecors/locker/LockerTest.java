@@ -0,0 +1,129 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.aspects.Locker;
+
+class LockerTest {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final long EXCLUSION_CHECK_MILLIS = 100;
+
+    private static final class Counter {
+        private long value;
+
+        @LockedForWrite
+        void increment() {
+            value++;
+        }
+
+        @LockedForRead
+        long get() {
+            return value;
+        }
+
+        @LockedForRead
+        <T> T withReadLock(final Supplier<T> body) {
+            return body.get();
+        }
+
+        @LockedForWrite
+        <T> T withWriteLock(final Supplier<T> body) {
+            return body.get();
+        }
+    }
+
+    @Test
+    void testBatchHoldsLocksOfAnnotatedMethods() throws Exception {
+        final Counter counter = new Counter();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> concurrentRead = Locker.of(counter).write(new int[]{0}, () -> {
+                final Future<Long> read = executorService.submit(counter::get);
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    counter.increment();
+                }
+                try {
+                    Thread.sleep(EXCLUSION_CHECK_MILLIS);
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException("Test was interrupted.", e);
+                }
+                Assertions.assertFalse(read.isDone());
+                return read;
+            });
+            Assertions.assertEquals(BATCH_SIZE, (long) concurrentRead.get(1, TimeUnit.SECONDS));
+            Assertions.assertEquals(BATCH_SIZE, (long) Locker.of(counter).read(new int[]{0}, counter::get));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testBlockInsideAnnotatedMethodLocksOtherObject() throws Exception {
+        final Counter caller = new Counter();
+        final Counter counter = new Counter();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> concurrentRead = caller.withReadLock(() -> Locker.of(counter).write(new int[]{0},
+                () -> checkReadIsExcluded(executorService, counter)));
+            Assertions.assertEquals(0, (long) concurrentRead.get(1, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testWriteMethodInsideReadBlockLocksForWrite() throws Exception {
+        final Counter counter = new Counter();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> concurrentRead = Locker.of(counter).read(new int[]{0},
+                () -> counter.withWriteLock(() -> checkReadIsExcluded(executorService, counter)));
+            Assertions.assertEquals(0, (long) concurrentRead.get(1, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static Future<Long> checkReadIsExcluded(final ExecutorService executorService, final Counter counter) {
+        final Future<Long> read = executorService.submit(counter::get);
+        try {
+            Thread.sleep(EXCLUSION_CHECK_MILLIS);
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException("Test was interrupted.", e);
+        }
+        Assertions.assertFalse(read.isDone());
+        return read;
+    }
+
+    @Test
+    void testObjectWithoutLockedMethodsIsRejected() {
+        Assumptions.assumeFalse(Boolean.getBoolean("sk.jdecors.locker.sharedLockTable"),
+            "Shared lock table locks any object.");
+        Assertions.assertThrows(IllegalStateException.class, () -> Locker.of(new Object()).read(new int[]{0},
+            () -> { }));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.annotations.StampGroup;
+
+class StampGroupTest {
+
+    private static final long EXCLUSION_CHECK_MILLIS = 100;
+
+    @StampGroup(stamp = 100, children = {1, 2})
+    private static final class Inventory {
+
+        @LockedForWrite(stamp = 1)
+        void updateFirst(final CountDownLatch entered, final CountDownLatch release) {
+            await(entered, release);
+        }
+
+        @LockedForWrite(stamp = 2)
+        void updateSecond(final CountDownLatch entered, final CountDownLatch release) {
+            await(entered, release);
+        }
+
+        @LockedForWrite(stamp = 100)
+        void rebuild() {
+        }
+    }
+
+    private static class Store {
+
+        @LockedForWrite(stamp = 1)
+        void update(final CountDownLatch entered, final CountDownLatch release) {
+            await(entered, release);
+        }
+    }
+
+    @StampGroup(stamp = 100, children = {1, 2})
+    private static final class GroupedStore extends Store {
+
+        @LockedForWrite(stamp = 100)
+        void rebuild() {
+        }
+    }
+
+    @StampGroup(stamp = 100, children = {1, 2})
+    @StampGroup(stamp = 200, children = {2, 3})
+    private static final class OverlappingGroups {
+
+        @LockedForWrite(stamp = 2)
+        void update() {
+        }
+    }
+
+    @Test
+    void testChildrenAreLockedConcurrently() throws Exception {
+        final Inventory inventory = new Inventory();
+        final CountDownLatch entered = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> first = executorService.submit(() -> inventory.updateFirst(entered, release));
+            final Future<?> second = executorService.submit(() -> inventory.updateSecond(entered, release));
+            Assertions.assertTrue(entered.await(1, TimeUnit.SECONDS));
+            release.countDown();
+            first.get(1, TimeUnit.SECONDS);
+            second.get(1, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testParentExcludesChildren() throws Exception {
+        final Inventory inventory = new Inventory();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> update = executorService.submit(() -> inventory.updateFirst(entered, release));
+            Assertions.assertTrue(entered.await(1, TimeUnit.SECONDS));
+            final Future<?> rebuild = executorService.submit(inventory::rebuild);
+            Thread.sleep(EXCLUSION_CHECK_MILLIS);
+            Assertions.assertFalse(rebuild.isDone());
+            release.countDown();
+            update.get(1, TimeUnit.SECONDS);
+            rebuild.get(1, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testInheritedMethodFollowsGroupsOfSubclass() throws Exception {
+        final GroupedStore store = new GroupedStore();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> update = executorService.submit(() -> store.update(entered, release));
+            Assertions.assertTrue(entered.await(1, TimeUnit.SECONDS));
+            final Future<?> rebuild = executorService.submit(store::rebuild);
+            Thread.sleep(EXCLUSION_CHECK_MILLIS);
+            Assertions.assertFalse(rebuild.isDone());
+            release.countDown();
+            update.get(1, TimeUnit.SECONDS);
+            rebuild.get(1, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testWaitingParentIsNotOvertakenByChildren() throws Exception {
+        final Inventory inventory = new Inventory();
+        final CountDownLatch firstEntered = new CountDownLatch(1);
+        final CountDownLatch secondEntered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            final Future<?> first = executorService.submit(() -> inventory.updateFirst(firstEntered, release));
+            Assertions.assertTrue(firstEntered.await(1, TimeUnit.SECONDS));
+            final Future<?> rebuild = executorService.submit(inventory::rebuild);
+            Thread.sleep(EXCLUSION_CHECK_MILLIS);
+            final Future<?> second = executorService.submit(() -> inventory.updateSecond(secondEntered, release));
+            Assertions.assertFalse(secondEntered.await(EXCLUSION_CHECK_MILLIS, TimeUnit.MILLISECONDS));
+            release.countDown();
+            first.get(1, TimeUnit.SECONDS);
+            rebuild.get(1, TimeUnit.SECONDS);
+            second.get(1, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testStampInTwoGroupsIsRejected() {
+        Assertions.assertThrows(IllegalStateException.class, () -> new OverlappingGroups().update());
+    }
+
+    private static void await(final CountDownLatch entered, final CountDownLatch release) {
+        entered.countDown();
+        try {
+            release.await();
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException("Test was interrupted.", e);
+        }
+    }
+}
\ No newline at end of file
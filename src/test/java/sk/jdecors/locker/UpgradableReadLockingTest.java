@@ -0,0 +1,109 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForUpgradableRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+class UpgradableReadLockingTest {
+
+    private static final long EXCLUSION_CHECK_MILLIS = 100;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+    private static final class Document {
+
+        @LockedForRead
+        <T> T read(final Supplier<T> body) {
+            return body.get();
+        }
+
+        @LockedForUpgradableRead
+        <T> T readForUpdate(final Supplier<T> body) {
+            return body.get();
+        }
+
+        @LockedForWrite
+        <T> T write(final Supplier<T> body) {
+            return body.get();
+        }
+    }
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testNestedWriteMethodConvertsUpgradableReadInPlace() throws Exception {
+        final Document document = new Document();
+        final Future<Boolean> readAfterEscalation = document.readForUpdate(() -> {
+            final Future<Boolean> read = document.write(() -> {
+                final Future<Boolean> concurrentRead = executorService.submit(() -> document.read(() -> true));
+                sleep(EXCLUSION_CHECK_MILLIS);
+                Assertions.assertFalse(concurrentRead.isDone());
+                return concurrentRead;
+            });
+            // barrier upgrade would reject readers until the upgradable read lock is released
+            Assertions.assertTrue(get(read));
+            return read;
+        });
+        Assertions.assertTrue(readAfterEscalation.isDone());
+    }
+
+    @Test
+    void testNestedWriteMethodWaitsForConcurrentPlainReader() throws Exception {
+        final Document document = new Document();
+        final CountDownLatch readerEntered = new CountDownLatch(1);
+        final AtomicBoolean readerFinished = new AtomicBoolean();
+        final Future<Boolean> reader = executorService.submit(() -> document.read(() -> {
+            readerEntered.countDown();
+            sleep(EXCLUSION_CHECK_MILLIS);
+            readerFinished.set(true);
+            return true;
+        }));
+        Assertions.assertTrue(readerEntered.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(document.readForUpdate(() -> document.write(readerFinished::get)));
+        Assertions.assertTrue(reader.get(1, TimeUnit.SECONDS));
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException("Test was interrupted.", e);
+        }
+    }
+
+    private static <T> T get(final Future<T> future) {
+        try {
+            return future.get(1, TimeUnit.SECONDS);
+        } catch (final Exception e) {
+            throw new IllegalStateException("Concurrent call failed.", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies that virtual threads blocked on locks are unmounted from their carriers - the test is executed
+ * only on JDK with virtual threads (for example, the build with 'java-21' profile).
+ */
+class VirtualThreadLockingTest {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int READERS = 2_000;
+    private static final int WRITERS = 10;
+    private static final int MAX_WAIT_SECONDS = 30;
+
+    @Test
+    void testLockingWithoutPinnedCarriers() throws Exception {
+        final ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        Assumptions.assumeTrue(executorService != null);
+        final ClassWithLocks aspectTarget = new ClassWithLocks();
+        try (Recording recording = new Recording()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO);
+            recording.start();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                futures.add(executorService.submit(aspectTarget::singleReadOnlyOperation));
+                if (i % (READERS / WRITERS) == 0) {
+                    futures.add(executorService.submit(aspectTarget::singleReadWriteOperation));
+                }
+            }
+            awaitAll(futures);
+            executorService.shutdown();
+            recording.stop();
+            Assertions.assertEquals(0, countPinnedEvents(recording));
+        }
+        Assertions.assertEquals(2 * (READERS + WRITERS), aspectTarget.getHistory().size());
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void awaitAll(final List<Future<?>> futures)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        for (final Future<?> future : futures) {
+            future.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static long countPinnedEvents(final Recording recording) throws IOException {
+        final Path dump = Files.createTempFile("locker", ".jfr");
+        try {
+            recording.dump(dump);
+            return RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().equals(PINNED_EVENT))
+                .count();
+        } finally {
+            Files.delete(dump);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,61 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveSpinningTest {
+
+    private static final int SAMPLES = 100;
+
+    @Test
+    void testSpinLimitFollowsHoldTimes() {
+        final AdaptiveSpinning spinning = new AdaptiveSpinning();
+        for (int i = 0; i < SAMPLES; i++) {
+            spinning.recordHold(200);
+        }
+        final int shortHoldLimit = spinning.getSpinLimit();
+        Assertions.assertTrue(shortHoldLimit > 0);
+        for (int i = 0; i < SAMPLES; i++) {
+            spinning.recordHold(TimeUnit.MICROSECONDS.toNanos(2));
+        }
+        Assertions.assertTrue(spinning.getSpinLimit() > shortHoldLimit);
+    }
+
+    @Test
+    void testLongHoldsDisableSpinning() {
+        final AdaptiveSpinning spinning = new AdaptiveSpinning();
+        for (int i = 0; i < SAMPLES; i++) {
+            spinning.recordHold(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        Assertions.assertEquals(0, spinning.getSpinLimit());
+        Assertions.assertEquals(0, spinning.beginSpinning());
+    }
+
+    @Test
+    void testSpinningThreadsLeaveOneProcessor() {
+        final AdaptiveSpinning spinning = new AdaptiveSpinning();
+        final int maxSpinners = Runtime.getRuntime().availableProcessors() - 1;
+        for (int i = 0; i < maxSpinners; i++) {
+            Assertions.assertTrue(spinning.beginSpinning() > 0);
+        }
+        Assertions.assertEquals(0, spinning.beginSpinning());
+        for (int i = 0; i < maxSpinners; i++) {
+            AdaptiveSpinning.endSpinning();
+        }
+    }
+}
\ No newline at end of file
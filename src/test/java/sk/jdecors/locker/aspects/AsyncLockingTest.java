@@ -0,0 +1,113 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+class AsyncLockingTest {
+
+    private static final int ASYNC_STAMP = 9;
+    private static final int MAX_WAIT_SECONDS = 5;
+
+    private static final class AsyncMethods {
+        @LockedForRead(stamp = ASYNC_STAMP)
+        CompletionStage<Integer> read() {
+            return null;
+        }
+
+        @LockedForWrite(stamp = ASYNC_STAMP)
+        CompletableFuture<Integer> write() {
+            return null;
+        }
+    }
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ReadWriteLocker locker = new ReadWriteLocker();
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testLockHeldUntilStageCompletes() throws Throwable {
+        final CompletableFuture<Integer> pendingWrite = new CompletableFuture<>();
+        final CompletableFuture<?> result = (CompletableFuture<?>) locker.writeLock(TestJoinPoint.of(
+            AsyncMethods.class, "write", new AsyncMethods()).withBody(() -> pendingWrite));
+        final LockData lockData = locker.getLocks().getLockData(ASYNC_STAMP);
+        Assertions.assertFalse(tryReadLockInOtherThread(lockData));
+        pendingWrite.complete(1);
+        Assertions.assertEquals(1, result.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertTrue(tryReadLockInOtherThread(lockData));
+    }
+
+    @Test
+    void testQueuedAcquisitionGrantedAfterRelease() throws Throwable {
+        final CompletableFuture<Integer> pendingWrite = new CompletableFuture<>();
+        locker.writeLock(TestJoinPoint.of(AsyncMethods.class, "write", new AsyncMethods())
+            .withBody(() -> pendingWrite));
+        final AtomicInteger executions = new AtomicInteger();
+        final CompletableFuture<?> queuedRead = (CompletableFuture<?>) locker.readLock(TestJoinPoint.of(
+            AsyncMethods.class, "read", new AsyncMethods()).withBody(() ->
+            CompletableFuture.completedFuture(executions.incrementAndGet())));
+        Assertions.assertFalse(queuedRead.isDone());
+        Assertions.assertEquals(0, executions.get());
+        pendingWrite.complete(1);
+        Assertions.assertEquals(1, queuedRead.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testQueuedAcquisitionGrantedByThreadOwnedLock() throws Throwable {
+        final LockData lockData = locker.getLocks().getLockData(ASYNC_STAMP);
+        lockData.allocateReadLock();
+        final CompletableFuture<?> queuedWrite = (CompletableFuture<?>) locker.writeLock(TestJoinPoint.of(
+            AsyncMethods.class, "write", new AsyncMethods()).withBody(() -> CompletableFuture.completedFuture(2)));
+        Assertions.assertFalse(queuedWrite.isDone());
+        lockData.unlockReadLock();
+        Assertions.assertEquals(2, queuedWrite.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS));
+        Assertions.assertTrue(tryReadLockInOtherThread(lockData));
+    }
+
+    @Test
+    void testLocksReleasedAfterFailure() throws Exception {
+        final IllegalArgumentException failure = new IllegalArgumentException();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> locker.writeLock(TestJoinPoint.of(
+            AsyncMethods.class, "write", new AsyncMethods()).withBody(() -> {
+                throw failure;
+            })));
+        Assertions.assertTrue(tryReadLockInOtherThread(locker.getLocks().getLockData(ASYNC_STAMP)));
+    }
+
+    private boolean tryReadLockInOtherThread(final LockData lockData) throws Exception {
+        return executorService.submit(() -> {
+            if (lockData.tryAllocateReadLock()) {
+                lockData.unlockReadLock();
+                return true;
+            }
+            return false;
+        }).get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+class CombiningTest {
+
+    private static final int THREADS = 8;
+    private static final int CALLS_PER_THREAD = 10_000;
+    private static final int MAX_WAIT_SECONDS = 30;
+
+    private static final class CombiningMethods {
+        private long counter;
+
+        @LockedForWrite(stamp = 4, combining = true)
+        long increment() {
+            return ++counter;
+        }
+
+        @LockedForWrite(stamp = {4, 5}, combining = true)
+        long incrementWithMultipleLocks() {
+            return ++counter;
+        }
+    }
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+    private final ReadWriteLocker locker = new ReadWriteLocker();
+    private final CombiningMethods target = new CombiningMethods();
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testCombinedCallsAreMutuallyExclusive() throws Exception {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executorService.submit(this::incrementRepeatedly));
+        }
+        for (final Future<?> future : futures) {
+            future.get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        Assertions.assertEquals(THREADS * CALLS_PER_THREAD, target.counter);
+        Assertions.assertEquals(LockData.CurrentThreadLockState.UNLOCKED,
+            locker.getLocks().getLockData(4).getLockStateInCurrentThread());
+    }
+
+    private Void incrementRepeatedly() {
+        final TestJoinPoint joinPoint = TestJoinPoint.of(CombiningMethods.class, "increment", target)
+            .withBody(target::increment);
+        for (int call = 0; call < CALLS_PER_THREAD; call++) {
+            try {
+                locker.writeLock(joinPoint);
+            } catch (final Throwable throwable) {
+                throw new IllegalStateException("Combined call has failed.", throwable);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testExceptionHandedBackToCaller() {
+        final IllegalArgumentException failure = new IllegalArgumentException();
+        Assertions.assertSame(failure, Assertions.assertThrows(IllegalArgumentException.class, () ->
+            locker.writeLock(TestJoinPoint.of(CombiningMethods.class, "increment", target).withBody(() -> {
+                throw failure;
+            }))));
+    }
+
+    @Test
+    void testCombiningWithMultipleStampsIsRejected() {
+        Assertions.assertThrows(IllegalStateException.class, () -> locker.writeLock(TestJoinPoint.of(
+            CombiningMethods.class, "incrementWithMultipleLocks", target)));
+    }
+}
\ No newline at end of file
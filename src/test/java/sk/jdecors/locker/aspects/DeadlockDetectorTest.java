@@ -0,0 +1,185 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.aspects.DeadlockDetector.ThreadState;
+
+class DeadlockDetectorTest {
+
+    private static final int MAX_WAIT_TIME = 5000;
+    private static final int SAMPLE_INTERVAL = 20;
+    private static final long LONG_WAIT = TimeUnit.MINUTES.toNanos(1);
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    private final DeadlockDetector detector = new DeadlockDetector(true);
+    private final LockData lockData = new LockData(7, new StampedLockWithBarrier());
+    private final Object monitor = new Object();
+    private final CountDownLatch lockHeld = new CountDownLatch(1);
+    private final CountDownLatch monitorHeld = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testCycleOfLockAndMonitorIsBroken() throws Exception {
+        final List<LockCycle> notifiedCycles = new CopyOnWriteArrayList<>();
+        detector.addListener(notifiedCycles::add);
+        final Future<?> holder = executorService.submit(() -> {
+            final ThreadState state = register("void Holder.write()");
+            lockData.allocateWriteLock();
+            state.track(lockData, DeadlockDetector.HELD_WRITE);
+            lockHeld.countDown();
+            await(monitorHeld);
+            synchronized (monitor) {
+                state.track(lockData, 0);
+                lockData.unlockWriteLock();
+            }
+        });
+        final AtomicReference<String> victimName = new AtomicReference<>();
+        final Future<LockCycle> waiter = executorService.submit(() -> {
+            final ThreadState state = register("void Waiter.write()");
+            victimName.set(Thread.currentThread().getName());
+            synchronized (monitor) {
+                monitorHeld.countDown();
+                await(lockHeld);
+                state.beginWait(lockData, DeadlockDetector.WAIT_WRITE);
+                try {
+                    lockData.tryAllocateWriteLock(System.nanoTime() + LONG_WAIT);
+                    return null;
+                } catch (final InterruptedException e) {
+                    return state.takeVictimCycle();
+                } finally {
+                    state.endWait();
+                }
+            }
+        });
+        final LockCycle cycle = awaitCycle();
+        Assertions.assertEquals(2, cycle.getEdges().size());
+        Assertions.assertTrue(cycle.getEdges().get(0).contains("waits for write lock of stamp 7"));
+        Assertions.assertTrue(cycle.getEdges().get(0).contains("void Waiter.write()"));
+        Assertions.assertTrue(cycle.getEdges().get(1).contains("void Holder.write()"));
+        Assertions.assertEquals(victimName.get(), cycle.getVictim());
+        Assertions.assertSame(cycle, waiter.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        holder.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals(Collections.singletonList(cycle), detector.getCycles());
+        Assertions.assertEquals(Collections.singletonList(cycle), notifiedCycles);
+    }
+
+    @Test
+    void testWaitForUpgradePermitIsNotBroken() throws Exception {
+        final Future<?> holder = executorService.submit(() -> {
+            final ThreadState state = register("void Holder.read()");
+            lockData.allocateUpgradableReadLock();
+            state.track(lockData, DeadlockDetector.HELD_READ | DeadlockDetector.HELD_UPGRADE_PERMIT);
+            lockHeld.countDown();
+            await(monitorHeld);
+            synchronized (monitor) {
+                state.track(lockData, 0);
+                lockData.unlockUpgradableReadLock();
+            }
+        });
+        final Future<?> waiter = executorService.submit(() -> {
+            final ThreadState state = register("void Waiter.read()");
+            synchronized (monitor) {
+                monitorHeld.countDown();
+                await(lockHeld);
+                state.beginWait(lockData, DeadlockDetector.WAIT_UPGRADE_PERMIT);
+                try {
+                    return lockData.tryAllocateUpgradableReadLock(System.nanoTime() + LONG_WAIT);
+                } finally {
+                    state.endWait();
+                }
+            }
+        });
+        final LockCycle cycle = awaitCycle();
+        Assertions.assertTrue(cycle.getEdges().get(0).contains("waits for upgrade permit of stamp 7"));
+        Assertions.assertNull(cycle.getVictim());
+        waiter.cancel(true);
+        holder.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testWaitForRunningHolderIsNotCycle() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final Future<?> holder = executorService.submit(() -> {
+            final ThreadState state = register("void Holder.write()");
+            lockData.allocateWriteLock();
+            state.track(lockData, DeadlockDetector.HELD_WRITE);
+            lockHeld.countDown();
+            await(released);
+            state.track(lockData, 0);
+            lockData.unlockWriteLock();
+        });
+        final Future<?> waiter = executorService.submit(() -> {
+            final ThreadState state = register("void Waiter.write()");
+            await(lockHeld);
+            state.beginWait(lockData, DeadlockDetector.WAIT_WRITE);
+            try {
+                lockData.allocateWriteLock();
+                lockData.unlockWriteLock();
+            } finally {
+                state.endWait();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(SAMPLE_INTERVAL);
+            Assertions.assertEquals(Collections.emptyList(), detector.sample());
+        }
+        released.countDown();
+        holder.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        waiter.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    private ThreadState register(final String method) {
+        final ThreadState state = detector.register(Thread.currentThread());
+        state.enter(this, method);
+        return state;
+    }
+
+    private LockCycle awaitCycle() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + MAX_WAIT_TIME;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(SAMPLE_INTERVAL);
+            final List<LockCycle> cycles = detector.sample();
+            if (!cycles.isEmpty()) {
+                Assertions.assertEquals(1, cycles.size());
+                return cycles.get(0);
+            }
+        }
+        throw new AssertionError("Lock cycle was not detected.");
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+
+class FairnessPolicyTest {
+
+    private static final int MAX_WAIT_TIME = 1000;
+    private static final int BLOCKED_WAIT_TIME = 100;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testWaitingWriterBlocksNewReaders() throws Exception {
+        final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.WRITER_PREFERRING));
+        lockData.allocateReadLock();
+        final Future<?> writer = submitWrite(lockData);
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateReadLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockReadLock();
+        writer.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testReadersPassWaitingWriter() throws Exception {
+        final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.READER_PREFERRING));
+        lockData.allocateReadLock();
+        final Future<?> writer = submitWrite(lockData);
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        submitRead(lockData).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        Assertions.assertFalse(writer.isDone());
+        lockData.unlockReadLock();
+        writer.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testPhasesAlternate() throws Exception {
+        final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.PHASE_FAIR));
+        lockData.allocateReadLock();
+        final Future<?> writer = submitWrite(lockData);
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        final Future<?> reader = submitRead(lockData);
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        Assertions.assertFalse(writer.isDone());
+        Assertions.assertFalse(reader.isDone());
+        lockData.unlockReadLock();
+        writer.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        reader.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testPhaseFairTryWriteDoesNotOvertakeQueuedWriter() throws Exception {
+        final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.PHASE_FAIR));
+        final CountDownLatch release = new CountDownLatch(1);
+        lockData.allocateWriteLock();
+        final Future<?> writer = executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            try {
+                release.await();
+            } finally {
+                lockData.unlockWriteLock();
+            }
+            return null;
+        });
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        lockData.unlockWriteLock();
+        // the queued writer either still waits for its turn or already holds the lock
+        Assertions.assertFalse(lockData.tryAllocateWriteLock());
+        release.countDown();
+        writer.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testPhaseFairUpgradeReleasesReadLock() throws Exception {
+        final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.PHASE_FAIR));
+        lockData.allocateUpgradableReadLock();
+        lockData.allocateWriteLock();
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateReadLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockWriteLock();
+        lockData.unlockUpgradableReadLock();
+        submitRead(lockData).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        submitWrite(lockData).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testStampCannotChangePolicy() {
+        final ReadWriteLocker locker = new ReadWriteLocker();
+        locker.getLocks().getLockData(0, FairnessPolicy.PHASE_FAIR);
+        Assertions.assertSame(FairnessPolicy.PHASE_FAIR, locker.getLocks().getLockData(0).getPolicy());
+        Assertions.assertThrows(IllegalStateException.class,
+            () -> locker.getLocks().getLockData(0, FairnessPolicy.DEFAULT));
+    }
+
+    private Future<?> submitRead(final LockData lockData) {
+        return executorService.submit(() -> {
+            lockData.allocateReadLock();
+            lockData.unlockReadLock();
+        });
+    }
+
+    private Future<?> submitWrite(final LockData lockData) {
+        return executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockData.unlockWriteLock();
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.annotations.TimeoutPolicy;
+
+class KeyedLockingTest {
+
+    private static final int KEYED_STAMP = 3;
+    private static final int STRIPES = 16;
+    private static final int TIMEOUT = 20;
+    private static final int MAX_WAIT_SECONDS = 5;
+
+    private static final class Account {
+        private final String id;
+
+        private Account(final String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static final class KeyedMethods {
+        @LockedForWrite(stamp = KEYED_STAMP, keyArg = 0, stripes = STRIPES, timeout = TIMEOUT,
+            onTimeout = TimeoutPolicy.SKIP)
+        boolean update(final String id) {
+            return true;
+        }
+
+        @LockedForRead(stamp = KEYED_STAMP, keyArg = 1, keyGetter = "getId", stripes = STRIPES)
+        boolean read(final int value, final Account account) {
+            return true;
+        }
+
+        @LockedForWrite(stamp = KEYED_STAMP, keyArg = 0, stripes = 2 * STRIPES)
+        boolean updateWithOtherStripes(final String id) {
+            return true;
+        }
+    }
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ReadWriteLocker locker = new ReadWriteLocker();
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testStripeSelection() {
+        final LockPlan updatePlan = LockPlan.ofWriteLocks(updateJoinPoint("a").getStaticPart());
+        final LockPlan readPlan = LockPlan.ofReadLocks(readJoinPoint("a").getStaticPart());
+        Assertions.assertTrue(updatePlan.isKeyed());
+        Assertions.assertEquals(updatePlan.getStripe(new Object[]{"a"}),
+            readPlan.getStripe(new Object[]{0, new Account("a")}));
+        Assertions.assertNotEquals(updatePlan.getStripe(new Object[]{"a"}), updatePlan.getStripe(new Object[]{"b"}));
+    }
+
+    @Test
+    void testDifferentKeysDontContend() throws Throwable {
+        final LockPlan updatePlan = LockPlan.ofWriteLocks(updateJoinPoint("a").getStaticPart());
+        final LockData lockData = locker.getLocks().getLockData(KEYED_STAMP, updatePlan.getStripe(new Object[]{"a"}),
+            STRIPES);
+        executorService.submit(lockData::allocateWriteLock).get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertEquals(false, locker.writeLock(updateJoinPoint("a")));
+        Assertions.assertEquals(true, locker.writeLock(updateJoinPoint("b")));
+        Assertions.assertEquals(true, locker.writeLock(updateJoinPoint(null)));
+        executorService.submit(lockData::unlockWriteLock).get(MAX_WAIT_SECONDS, TimeUnit.SECONDS);
+        Assertions.assertEquals(true, locker.writeLock(updateJoinPoint("a")));
+    }
+
+    @Test
+    void testInconsistentStripes() throws Throwable {
+        locker.writeLock(updateJoinPoint("a"));
+        Assertions.assertThrows(IllegalStateException.class, () -> locker.writeLock(TestJoinPoint.of(
+            KeyedMethods.class, "updateWithOtherStripes", new KeyedMethods(), new Class[]{String.class},
+            new Object[]{"a"}).withBody(() -> true)));
+    }
+
+    private static TestJoinPoint updateJoinPoint(final String id) {
+        return TestJoinPoint.of(KeyedMethods.class, "update", new KeyedMethods(), new Class[]{String.class},
+            new Object[]{id}).withBody(() -> true);
+    }
+
+    private static TestJoinPoint readJoinPoint(final String id) {
+        return TestJoinPoint.of(KeyedMethods.class, "read", new KeyedMethods(), new Class[]{int.class,
+            Account.class}, new Object[]{0, new Account(id)}).withBody(() -> true);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.aspects.LockData.CurrentThreadLockState;
+
+class LockDataTest {
+
+    private static final int MAX_WAIT_TIME = 1000;
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final LockData lockData = new LockData(0, new StampedLockWithBarrier());
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testReentrantReadAndWriteLocks() {
+        lockData.allocateReadLock();
+        lockData.allocateReadLock();
+        Assertions.assertEquals(CurrentThreadLockState.READ_ONLY_LOCKED, lockData.getLockStateInCurrentThread());
+        lockData.allocateWriteLock();
+        lockData.allocateReadLock();
+        Assertions.assertEquals(CurrentThreadLockState.READ_WRITE_LOCKED, lockData.getLockStateInCurrentThread());
+        lockData.unlockReadLock();
+        lockData.unlockWriteLock();
+        Assertions.assertEquals(CurrentThreadLockState.READ_ONLY_LOCKED, lockData.getLockStateInCurrentThread());
+        lockData.unlockReadLock();
+        lockData.unlockReadLock();
+        Assertions.assertEquals(CurrentThreadLockState.UNLOCKED, lockData.getLockStateInCurrentThread());
+        Assertions.assertThrows(IllegalStateException.class, lockData::unlockReadLock);
+    }
+
+    @Test
+    void testLockStateIsNotSharedBetweenThreads() throws Exception {
+        lockData.allocateReadLock();
+        Assertions.assertEquals(CurrentThreadLockState.UNLOCKED, executorService.submit(
+            lockData::getLockStateInCurrentThread).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockReadLock();
+    }
+
+    @Test
+    void testRepeatedUpgradesReleaseBarrier() throws Exception {
+        lockData.allocateReadLock();
+        lockData.allocateWriteLock();
+        lockData.unlockWriteLock();
+        lockData.allocateWriteLock();
+        lockData.unlockWriteLock();
+        lockData.unlockReadLock();
+        executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockData.unlockWriteLock();
+        }).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testLockNeverAcquiredByThreadIsReportedUnlocked() {
+        Assertions.assertEquals(CurrentThreadLockState.UNLOCKED, lockData.getLockStateInCurrentThread());
+        Assertions.assertThrows(IllegalStateException.class, lockData::unlockReadLock);
+        Assertions.assertThrows(IllegalStateException.class, lockData::unlockWriteLock);
+        Assertions.assertThrows(IllegalStateException.class, lockData::unlockUpgradableReadLock);
+    }
+
+    @Test
+    void testHoldsSurviveRecordsOfCollectedLocks() {
+        final List<LockData> heldLocks = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final LockData collectedLock = new LockData(i, new StampedLockWithBarrier());
+            collectedLock.allocateReadLock();
+            collectedLock.unlockReadLock();
+            if (i % 100 == 0) {
+                final LockData heldLock = new LockData(i, new StampedLockWithBarrier());
+                heldLock.allocateWriteLock();
+                heldLocks.add(heldLock);
+            }
+            if (i % 1_000 == 0) {
+                System.gc();
+            }
+        }
+        for (final LockData heldLock : heldLocks) {
+            Assertions.assertEquals(CurrentThreadLockState.READ_WRITE_LOCKED, heldLock.getLockStateInCurrentThread());
+            heldLock.unlockWriteLock();
+            Assertions.assertEquals(CurrentThreadLockState.UNLOCKED, heldLock.getLockStateInCurrentThread());
+        }
+    }
+}
\ No newline at end of file
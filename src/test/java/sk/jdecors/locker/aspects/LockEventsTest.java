@@ -0,0 +1,79 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+class LockEventsTest {
+
+    private static final int STAMP = 5;
+    private static final String METHOD = "void sk.jdecors.locker.aspects.LockEventsTest.lock()";
+
+    @Test
+    void testEventsOfUpgradedLock() throws IOException {
+        Assumptions.assumeTrue(LockEvents.ENABLED);
+        final List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(LockWaitEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(LockHoldEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(LockUpgradeEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            lock();
+            recording.stop();
+            final Path dump = Files.createTempFile("locker", ".jfr");
+            try {
+                recording.dump(dump);
+                events = RecordingFile.readAllEvents(dump).stream()
+                    .filter(event -> event.getEventType().getName().startsWith("sk.jdecors.locker."))
+                    .collect(Collectors.toList());
+            } finally {
+                Files.delete(dump);
+            }
+        }
+        Assertions.assertEquals(1, countEvents(events, "sk.jdecors.locker.LockWait"));
+        Assertions.assertEquals(1, countEvents(events, "sk.jdecors.locker.LockUpgrade"));
+        Assertions.assertEquals(2, countEvents(events, "sk.jdecors.locker.LockHold"));
+        for (final RecordedEvent event : events) {
+            Assertions.assertEquals(STAMP, event.getInt("stamp"));
+            Assertions.assertEquals(METHOD, event.getString("method"));
+            Assertions.assertEquals(LockEventsTest.class.getName(), event.getClass("targetClass").getName());
+        }
+    }
+
+    private void lock() {
+        final LockData lockData = new LockData(STAMP, new StampedLockWithBarrier());
+        LockEvents.current().enter(this, METHOD);
+        lockData.allocateReadLock();
+        lockData.allocateWriteLock();
+        lockData.unlockWriteLock();
+        lockData.unlockReadLock();
+    }
+
+    private static long countEvents(final List<RecordedEvent> events, final String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).count();
+    }
+}
\ No newline at end of file
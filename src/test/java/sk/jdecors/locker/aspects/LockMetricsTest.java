@@ -0,0 +1,88 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LockMetricsTest {
+
+    @Test
+    void testHistogramBuckets() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(1_000);
+        histogram.record(1_000_000);
+        final LatencySnapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(4, snapshot.getCount());
+        Assertions.assertEquals(1_001_001, snapshot.getTotalNanos());
+        Assertions.assertEquals(1_000_000, snapshot.getMaxNanos());
+        Assertions.assertEquals(2, snapshot.getBucketCounts()[0]);
+        Assertions.assertEquals(1, snapshot.getBucketCounts()[9]);
+        Assertions.assertEquals(1, snapshot.getBucketCounts()[19]);
+        Assertions.assertEquals(1, snapshot.valueAtPercentile(50));
+        Assertions.assertEquals(1_023, snapshot.valueAtPercentile(75));
+        Assertions.assertEquals(1_000_000, snapshot.valueAtPercentile(100));
+    }
+
+    @Test
+    void testStatisticsSnapshot() {
+        final LockMetrics metrics = new LockMetrics();
+        metrics.recordReadAcquisition(10);
+        metrics.recordReadAcquisition(20);
+        metrics.recordWriteAcquisition(30);
+        metrics.recordUpgrade();
+        metrics.recordBarrierWait(40);
+        metrics.recordReadHold(50);
+        final LockStatistics statistics = metrics.snapshot("Owner", 1, 2, LockPlan.NO_STRIPE, 3, 4);
+        Assertions.assertEquals(2, statistics.getStamp());
+        Assertions.assertEquals(2, statistics.getReadAcquisitions());
+        Assertions.assertEquals(1, statistics.getWriteAcquisitions());
+        Assertions.assertEquals(1, statistics.getUpgrades());
+        Assertions.assertEquals(1, statistics.getBarrierWaits());
+        Assertions.assertEquals(3, statistics.getOptimisticReadSuccesses());
+        Assertions.assertEquals(4, statistics.getOptimisticReadFallbacks());
+        Assertions.assertEquals(30, statistics.getReadWaitTime().getTotalNanos());
+        Assertions.assertEquals(1, statistics.getReadHoldTime().getCount());
+        Assertions.assertEquals(0, statistics.getWriteHoldTime().getCount());
+    }
+
+    @Test
+    void testDisabledMetrics() {
+        Assertions.assertEquals(LockMetrics.ENABLED, LockerMetrics.enabled());
+        if (!LockMetrics.ENABLED) {
+            Assertions.assertNull(LockMetrics.create());
+            Assertions.assertTrue(LockerMetrics.snapshot().isEmpty());
+        }
+    }
+
+    @Test
+    void testCollectedLockersAreRemovedOnRegistration() throws InterruptedException {
+        final int registeredLockers = LockerMetrics.countRegisteredLockers();
+        for (int i = 0; i < 1_000; i++) {
+            LockerMetrics.register(new ObjectLocks(), null);
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (LockerMetrics.countRegisteredLockers() > registeredLockers + 10 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            LockerMetrics.register(new ObjectLocks(), null);
+        }
+        Assertions.assertTrue(LockerMetrics.countRegisteredLockers() <= registeredLockers + 10);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+/**
+ * Plans generated by the annotation processor are compared with reflective plans in the processor module,
+ * these tests cover only the runtime side of the index.
+ */
+class LockPlanIndexTest {
+
+    private static final class IndexedMethods {
+        @LockedForRead(stamp = 1)
+        void read(final String[] values, final int key) {
+        }
+
+        @LockedForWrite(stamp = 3)
+        void write() {
+        }
+    }
+
+    @Test
+    void testKeyMatchesKeyOfProcessor() {
+        final JoinPoint.StaticPart staticPart = TestJoinPoint.of(IndexedMethods.class, "read", new IndexedMethods(),
+            new Class<?>[]{String[].class, int.class}, new Object[]{null, 0}).getStaticPart();
+        Assertions.assertEquals(IndexedMethods.class.getName() + "#read(java.lang.String[],int)",
+            LockPlanIndex.getKey((MethodSignature) staticPart.getSignature()));
+    }
+
+    @Test
+    void testPlanWithoutIndexIsReadFromAnnotation() {
+        final LockPlan lockPlan = LockPlan.ofWriteLocks(TestJoinPoint.of(IndexedMethods.class, "write",
+            new IndexedMethods()).getStaticPart());
+        Assertions.assertEquals(LockPlan.LockMode.WRITE, lockPlan.getLockMode());
+        Assertions.assertEquals("[3]", lockPlan.getStamps());
+    }
+
+    @Test
+    void testIndexedPlanIsValidated() {
+        final JoinPoint.StaticPart staticPart = TestJoinPoint.of(IndexedMethods.class, "write",
+            new IndexedMethods()).getStaticPart();
+        final String[] keyedPlan = {"WRITE", "3", "false", "-1", "THROW", "", "false", "0", "false", "0", "", "64",
+            "false", "PROCESS", "DEFAULT"};
+        Assertions.assertThrows(IllegalStateException.class, () -> LockPlan.ofIndexedPlan(staticPart, keyedPlan));
+        final String[] stalePlan = {"WRITE", "3", "false", "-1", "THROW", "", "false", "0", "true", "-1", "", "64",
+            "false", "PROCESS", "DEFAULT"};
+        Assertions.assertThrows(IllegalStateException.class, () -> LockPlan.ofIndexedPlan(staticPart, stalePlan));
+    }
+
+    @Test
+    void testIndexedStampsAreOrdered() {
+        final JoinPoint.StaticPart staticPart = TestJoinPoint.of(IndexedMethods.class, "write",
+            new IndexedMethods()).getStaticPart();
+        final String[] editedPlan = {"WRITE", "3,1,3", "false", "-1", "THROW", "", "false", "0", "false", "-1", "",
+            "64", "false", "PROCESS", "DEFAULT"};
+        Assertions.assertEquals("[1, 3]", LockPlan.ofIndexedPlan(staticPart, editedPlan).getStamps());
+    }
+}
\ No newline at end of file
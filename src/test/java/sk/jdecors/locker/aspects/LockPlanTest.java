@@ -0,0 +1,85 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.lang.management.ManagementFactory;
+import org.aspectj.lang.JoinPoint;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+class LockPlanTest {
+
+    private static final int WARM_UP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+    private static final long ALLOCATION_TOLERANCE_BYTES = 4_096;
+
+    private static final class PlannedMethods {
+        @LockedForRead(stamp = {11, 3, 11, 3, 11})
+        void readWithRepeatedStamps() {
+        }
+
+        @LockedForWrite(stamp = {1, 2, 3, 4, 5})
+        void writeWithMultipleStamps() {
+        }
+    }
+
+    @Test
+    void testPlanIsDeduplicatedSortedAndCached() {
+        final JoinPoint.StaticPart staticPart = createStaticPart("readWithRepeatedStamps");
+        final LockPlan lockPlan = LockPlan.ofReadLocks(staticPart);
+        Assertions.assertSame(lockPlan, LockPlan.ofReadLocks(staticPart));
+        Assertions.assertEquals(LockPlan.LockMode.READ, lockPlan.getLockMode());
+        Assertions.assertEquals(2, lockPlan.size());
+        Assertions.assertEquals(3, lockPlan.getStamp(0));
+        Assertions.assertEquals(11, lockPlan.getStamp(1));
+    }
+
+    /**
+     * The join points are created once and reused, so only the advice itself is measured. Woven calls allocate
+     * also join points created by AspectJ, they are measured by AdviceOverheadBenchmark with {@code -prof gc}.
+     */
+    @Test
+    void testAdviceWithReusedJoinPointDoesNotAllocate() throws Throwable {
+        final PlannedMethods target = new PlannedMethods();
+        final TestJoinPoint readJoinPoint = TestJoinPoint.of(PlannedMethods.class, "readWithRepeatedStamps", target);
+        final TestJoinPoint writeJoinPoint = TestJoinPoint.of(PlannedMethods.class, "writeWithMultipleStamps", target);
+        final ReadWriteLocker locker = new ReadWriteLocker();
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            locker.readLock(readJoinPoint);
+            locker.writeLock(writeJoinPoint);
+        }
+        final long allocatedBefore = getAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            locker.readLock(readJoinPoint);
+            locker.writeLock(writeJoinPoint);
+        }
+        final long allocatedBytes = getAllocatedBytes() - allocatedBefore;
+        Assertions.assertTrue(allocatedBytes < ALLOCATION_TOLERANCE_BYTES, String.format(
+            "Locking advice allocated %d bytes in %d iterations.", allocatedBytes, MEASURED_ITERATIONS));
+    }
+
+    private static JoinPoint.StaticPart createStaticPart(final String methodName) {
+        return TestJoinPoint.of(PlannedMethods.class, methodName, new PlannedMethods()).getStaticPart();
+    }
+
+    private static long getAllocatedBytes() {
+        final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
\ No newline at end of file
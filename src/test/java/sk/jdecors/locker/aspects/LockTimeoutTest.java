@@ -0,0 +1,108 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+import sk.jdecors.locker.annotations.TimeoutPolicy;
+
+class LockTimeoutTest {
+
+    private static final int TIMEOUT = 20;
+    private static final int MAX_WAIT_TIME = 1000;
+    private static final int BUSY_STAMP = 1;
+
+    private static final class MethodsWithTimeouts {
+        @LockedForWrite(stamp = {0, BUSY_STAMP}, timeout = TIMEOUT)
+        int throwing() {
+            return 1;
+        }
+
+        @LockedForRead(stamp = BUSY_STAMP, timeout = TIMEOUT, onTimeout = TimeoutPolicy.SKIP)
+        int skipped() {
+            return 1;
+        }
+
+        @LockedForWrite(stamp = BUSY_STAMP, timeout = TIMEOUT, unit = TimeUnit.MILLISECONDS,
+            onTimeout = TimeoutPolicy.FALLBACK, fallback = "fallback", allOrNothing = true)
+        int withFallback(final int value) {
+            return value;
+        }
+
+        private int fallback(final int value) {
+            return -value;
+        }
+    }
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final CountDownLatch releaseSignal = new CountDownLatch(1);
+    private final ReadWriteLocker locker = new ReadWriteLocker();
+    private final MethodsWithTimeouts target = new MethodsWithTimeouts();
+
+    @BeforeEach
+    void lockBusyStamp() throws Exception {
+        final CountDownLatch lockedSignal = new CountDownLatch(1);
+        final LockData lockData = locker.getLocks().getLockData(BUSY_STAMP);
+        executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockedSignal.countDown();
+            releaseSignal.await();
+            lockData.unlockWriteLock();
+            return null;
+        });
+        Assertions.assertTrue(lockedSignal.await(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+    }
+
+    @AfterEach
+    void releaseBusyStamp() {
+        releaseSignal.countDown();
+        executorService.shutdown();
+    }
+
+    @Test
+    void testThrowingPolicyReleasesPartiallyAcquiredLocks() {
+        final TestJoinPoint joinPoint = TestJoinPoint.of(MethodsWithTimeouts.class, "throwing", target);
+        Assertions.assertThrows(LockTimeoutException.class, () -> locker.writeLock(joinPoint));
+        Assertions.assertEquals(LockData.CurrentThreadLockState.UNLOCKED,
+            locker.getLocks().getLockData(0).getLockStateInCurrentThread());
+    }
+
+    @Test
+    void testSkippingPolicyReturnsDefaultValue() throws Throwable {
+        final TestJoinPoint joinPoint = TestJoinPoint.of(MethodsWithTimeouts.class, "skipped", target)
+            .withBody(() -> 1);
+        Assertions.assertEquals(0, locker.readLock(joinPoint));
+    }
+
+    @Test
+    void testFallbackPolicyInvokesFallbackMethod() throws Throwable {
+        final TestJoinPoint joinPoint = TestJoinPoint.of(MethodsWithTimeouts.class, "withFallback", target,
+            new Class[]{int.class}, new Object[]{5}).withBody(() -> 5);
+        Assertions.assertEquals(-5, locker.writeLock(joinPoint));
+        releaseSignal.countDown();
+        executorService.shutdown();
+        Assertions.assertTrue(executorService.awaitTermination(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(5, locker.writeLock(joinPoint));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+
+class OptimisticReadTest {
+
+    private static final int OPTIMISTIC_STAMP = 7;
+    private static final int OPTIMISTIC_RETRIES = 2;
+
+    private static final class OptimisticMethods {
+        @LockedForRead(stamp = OPTIMISTIC_STAMP, optimistic = true, optimisticRetries = OPTIMISTIC_RETRIES)
+        int read() {
+            return 0;
+        }
+    }
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final ReadWriteLocker locker = new ReadWriteLocker();
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testUncontendedOptimisticRead() throws Throwable {
+        final TestJoinPoint joinPoint = TestJoinPoint.of(OptimisticMethods.class, "read", new OptimisticMethods())
+            .withBody(() -> 42);
+        Assertions.assertEquals(42, locker.readLock(joinPoint));
+        final LockData lockData = locker.getLocks().getLockData(OPTIMISTIC_STAMP);
+        Assertions.assertEquals(1, lockData.getOptimisticReadSuccesses());
+        Assertions.assertEquals(0, lockData.getOptimisticReadFallbacks());
+    }
+
+    @Test
+    void testFallbackToReadLockAfterInterveningWrites() throws Throwable {
+        final LockData lockData = locker.getLocks().getLockData(OPTIMISTIC_STAMP);
+        final AtomicInteger executions = new AtomicInteger();
+        final TestJoinPoint joinPoint = TestJoinPoint.of(OptimisticMethods.class, "read", new OptimisticMethods())
+            .withBody(() -> {
+                if (executions.incrementAndGet() <= OPTIMISTIC_RETRIES + 1) {
+                    runIntervenedWrite(lockData);
+                } else {
+                    Assertions.assertEquals(LockData.CurrentThreadLockState.READ_ONLY_LOCKED,
+                        lockData.getLockStateInCurrentThread());
+                }
+                return executions.get();
+            });
+        Assertions.assertEquals(OPTIMISTIC_RETRIES + 2, locker.readLock(joinPoint));
+        Assertions.assertEquals(0, lockData.getOptimisticReadSuccesses());
+        Assertions.assertEquals(1, lockData.getOptimisticReadFallbacks());
+    }
+
+    private void runIntervenedWrite(final LockData lockData) throws InterruptedException, ExecutionException {
+        executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockData.unlockWriteLock();
+        }).get();
+    }
+}
\ No newline at end of file
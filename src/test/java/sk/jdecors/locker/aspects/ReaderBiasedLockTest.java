@@ -0,0 +1,128 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.FairnessPolicy;
+
+class ReaderBiasedLockTest {
+
+    private static final int MAX_WAIT_TIME = 1000;
+    private static final int BLOCKED_WAIT_TIME = 100;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(3);
+    private final LockData lockData = new LockData(0, new StampedLockWithBarrier(FairnessPolicy.READER_BIASED));
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testWriterWaitsUntilBiasedReadersDrain() throws Exception {
+        lockData.allocateReadLock();
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateWriteLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        final Future<?> writer = executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockData.unlockWriteLock();
+        });
+        Thread.sleep(BLOCKED_WAIT_TIME);
+        Assertions.assertFalse(writer.isDone());
+        lockData.unlockReadLock();
+        writer.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testBiasIsRevokedByWriterAndRestoredAfterQuietPeriod() throws Exception {
+        final ReaderBiasedStampedLock lock = new ReaderBiasedStampedLock();
+        final long readStamp = lock.readLock();
+        Assertions.assertTrue(readStamp < 0);
+        lock.unlockRead(readStamp);
+        lock.unlockWrite(lock.writeLock());
+        Assertions.assertFalse(lock.isReaderBiased());
+        final long slowReadStamp = lock.readLock();
+        Assertions.assertTrue(slowReadStamp > 0);
+        lock.unlockRead(slowReadStamp);
+        Thread.sleep(1);
+        lock.unlockRead(lock.readLock());
+        Assertions.assertTrue(lock.isReaderBiased());
+    }
+
+    @Test
+    void testUpgradesOfBiasedReaders() throws Exception {
+        lockData.allocateReadLock();
+        lockData.allocateWriteLock();
+        lockData.unlockWriteLock();
+        lockData.unlockReadLock();
+        lockData.allocateUpgradableReadLock();
+        lockData.allocateWriteLock();
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateReadLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockWriteLock();
+        lockData.unlockUpgradableReadLock();
+        executorService.submit(() -> {
+            lockData.allocateWriteLock();
+            lockData.unlockWriteLock();
+        }).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void testFailedTryWriterRevokesBias() throws Exception {
+        final ReaderBiasedStampedLock lock = new ReaderBiasedStampedLock();
+        final long readStamp = lock.readLock();
+        Assertions.assertTrue(readStamp < 0);
+        Assertions.assertEquals(0L, (long) executorService.submit(() -> lock.tryWriteLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(lock.isReaderBiased());
+        lock.unlockRead(readStamp);
+        final long writeStamp = executorService.submit(() -> lock.tryWriteLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+        Assertions.assertNotEquals(0L, writeStamp);
+        lock.unlockWrite(writeStamp);
+    }
+
+    @Test
+    void testTryWriterSucceedsAgainstContinuousBiasedReaders() throws Exception {
+        final ReaderBiasedStampedLock lock = new ReaderBiasedStampedLock();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        for (int i = 0; i < 2; i++) {
+            executorService.submit(() -> {
+                while (!stopped.get()) {
+                    lock.unlockRead(lock.readLock());
+                }
+            });
+        }
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_TIME);
+            long writeStamp;
+            while ((writeStamp = lock.tryWriteLock()) == 0) {
+                Assertions.assertTrue(System.nanoTime() - deadline < 0, "Try-writer starved by biased readers.");
+                Thread.yield();
+            }
+            lock.unlockWrite(writeStamp);
+        } finally {
+            stopped.set(true);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,92 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForRead;
+import sk.jdecors.locker.annotations.LockedForWrite;
+
+class SharedLockTableTest {
+
+    private static final int MIN_SWEEP_SIZE = 4;
+    private static final int IDLE_TARGETS = 100;
+
+    private static final class SharedMethods {
+        @LockedForRead
+        void read() {
+        }
+
+        @LockedForWrite
+        CompletableFuture<String> writeAsync() {
+            return new CompletableFuture<>();
+        }
+    }
+
+    @Test
+    void testEntryIsSharedWhileHeldAndEvictedWhenIdle() {
+        final SharedLockTable lockTable = new SharedLockTable(MIN_SWEEP_SIZE, Long.MAX_VALUE);
+        final Object heldTarget = new Object();
+        final SharedLockTable.Entry heldEntry = lockTable.acquire(heldTarget);
+        Assertions.assertSame(heldEntry, lockTable.acquire(heldTarget));
+        lockTable.release(heldEntry);
+        for (int i = 0; i < IDLE_TARGETS; i++) {
+            lockTable.release(lockTable.acquire(new Object()));
+        }
+        Assertions.assertTrue(lockTable.size() <= MIN_SWEEP_SIZE * 4, "Idle entries have not been evicted.");
+        Assertions.assertSame(heldEntry, lockTable.acquire(heldTarget));
+        lockTable.release(heldEntry);
+        lockTable.release(heldEntry);
+    }
+
+    @Test
+    void testIdleEntryIsEvictedByReleasesOfOtherEntries() {
+        final SharedLockTable lockTable = new SharedLockTable(MIN_SWEEP_SIZE, 0);
+        final Object idleTarget = new Object();
+        final Object usedTarget = new Object();
+        final SharedLockTable.Entry idleEntry = lockTable.acquire(idleTarget);
+        lockTable.release(idleEntry);
+        for (int i = 0; i < 2; i++) {
+            lockTable.release(lockTable.acquire(usedTarget));
+        }
+        Assertions.assertEquals(1, lockTable.size());
+        Assertions.assertNotSame(idleEntry, lockTable.acquire(idleTarget));
+    }
+
+    @Test
+    void testLocksOfAsynchronousMethodsAreRetainedUntilCompletion() throws Throwable {
+        final SharedLockTable lockTable = new SharedLockTable();
+        final SharedReadWriteLocker locker = new SharedReadWriteLocker(lockTable);
+        final SharedMethods target = new SharedMethods();
+        final CompletableFuture<String> stage = new CompletableFuture<>();
+        final CompletableFuture<?> result = (CompletableFuture<?>) locker.writeLock(TestJoinPoint.of(
+            SharedMethods.class, "writeAsync", target).withBody(() -> stage));
+        final TestJoinPoint readJoinPoint = TestJoinPoint.of(SharedMethods.class, "read", target);
+        final ObjectLocks heldLocks = getLocks(lockTable, target);
+        Assertions.assertFalse(heldLocks.getLockData(0).tryAllocateReadLock());
+        stage.complete("written");
+        Assertions.assertEquals("written", result.join());
+        locker.readLock(readJoinPoint);
+        Assertions.assertSame(heldLocks, getLocks(lockTable, target));
+    }
+
+    private static ObjectLocks getLocks(final SharedLockTable lockTable, final Object target) {
+        final SharedLockTable.Entry entry = lockTable.acquire(target);
+        lockTable.release(entry);
+        return entry.getLocks();
+    }
+}
\ No newline at end of file
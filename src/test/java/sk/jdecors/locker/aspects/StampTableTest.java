@@ -0,0 +1,80 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class StampTableTest {
+
+    private static final int MAX_WAIT_TIME = 5000;
+    private static final int THREADS = 4;
+    private static final int STAMPS = 300;
+
+    @Test
+    void testDenseAndSparseStamps() {
+        final StampTable<String> table = new StampTable<>();
+        Assertions.assertNull(table.get(3));
+        Assertions.assertEquals("3", table.computeIfAbsent(3, Integer::toString));
+        Assertions.assertEquals("3", table.computeIfAbsent(3, stamp -> "other"));
+        Assertions.assertEquals("100", table.computeIfAbsent(100, Integer::toString));
+        Assertions.assertEquals("-5", table.computeIfAbsent(-5, Integer::toString));
+        Assertions.assertEquals("100000", table.computeIfAbsent(100_000, Integer::toString));
+        Assertions.assertEquals("3", table.get(3));
+        Assertions.assertEquals("-5", table.get(-5));
+        Assertions.assertNull(table.get(4));
+        final List<String> values = new ArrayList<>();
+        table.forEach(values::add);
+        Assertions.assertEquals(4, values.size());
+    }
+
+    @Test
+    void testConcurrentCreationDuringGrowth() throws Exception {
+        final StampTable<Object> table = new StampTable<>();
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Object[]>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    final Object[] values = new Object[STAMPS];
+                    for (int stamp = 0; stamp < STAMPS; stamp++) {
+                        values[stamp] = table.computeIfAbsent(stamp, s -> new Object());
+                    }
+                    return values;
+                }));
+            }
+            start.countDown();
+            final Object[] expected = futures.get(0).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+            for (final Future<Object[]> future : futures) {
+                Assertions.assertArrayEquals(expected, future.get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+            }
+            for (int stamp = 0; stamp < STAMPS; stamp++) {
+                Assertions.assertSame(expected[stamp], table.get(stamp));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
\ No newline at end of file
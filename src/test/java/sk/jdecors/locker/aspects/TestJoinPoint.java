@@ -0,0 +1,129 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.Callable;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.aspectj.runtime.reflect.Factory;
+
+/**
+ * Reusable join point that can be passed directly to the advice methods - it allows testing of the locking
+ * logic without the objects allocated by woven code.
+ */
+final class TestJoinPoint implements ProceedingJoinPoint {
+
+    private final JoinPoint.StaticPart staticPart;
+    private final Object target;
+    private final Object[] args;
+    private Callable<?> body;
+
+    private TestJoinPoint(final JoinPoint.StaticPart staticPart, final Object target, final Object[] args) {
+        this.staticPart = staticPart;
+        this.target = target;
+        this.args = args;
+    }
+
+    static TestJoinPoint of(final Class<?> declaringType, final String methodName, final Object target,
+        final Class<?>[] parameterTypes, final Object[] args) {
+        final Factory factory = new Factory(declaringType.getSimpleName() + ".java", declaringType);
+        final String[] parameterNames = new String[parameterTypes.length];
+        for (int i = 0; i < parameterNames.length; i++) {
+            parameterNames[i] = "arg" + i;
+        }
+        final Class<?> returnType;
+        try {
+            returnType = declaringType.getDeclaredMethod(methodName, parameterTypes).getReturnType();
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalArgumentException("Tested method doesn't exist: " + methodName, e);
+        }
+        final JoinPoint.StaticPart staticPart = factory.makeSJP(JoinPoint.METHOD_EXECUTION, factory.makeMethodSig(0,
+            methodName, declaringType, parameterTypes, parameterNames, new Class[0], returnType), 0);
+        return new TestJoinPoint(staticPart, target, args);
+    }
+
+    static TestJoinPoint of(final Class<?> declaringType, final String methodName, final Object target) {
+        return of(declaringType, methodName, target, new Class[0], new Object[0]);
+    }
+
+    TestJoinPoint withBody(final Callable<?> body) {
+        this.body = body;
+        return this;
+    }
+
+    @Override
+    public void set$AroundClosure(final AroundClosure arc) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        return body == null ? null : body.call();
+    }
+
+    @Override
+    public Object proceed(final Object[] args) throws Throwable {
+        return proceed();
+    }
+
+    @Override
+    public String toShortString() {
+        return staticPart.toShortString();
+    }
+
+    @Override
+    public String toLongString() {
+        return staticPart.toLongString();
+    }
+
+    @Override
+    public Object getThis() {
+        return target;
+    }
+
+    @Override
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public Object[] getArgs() {
+        return args;
+    }
+
+    @Override
+    public Signature getSignature() {
+        return staticPart.getSignature();
+    }
+
+    @Override
+    public SourceLocation getSourceLocation() {
+        return staticPart.getSourceLocation();
+    }
+
+    @Override
+    public String getKind() {
+        return staticPart.getKind();
+    }
+
+    @Override
+    public JoinPoint.StaticPart getStaticPart() {
+        return staticPart;
+    }
+}
\ No newline at end of file
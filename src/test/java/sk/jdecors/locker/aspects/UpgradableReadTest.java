@@ -0,0 +1,102 @@
+/* Copyright (C) 2019 Jaroslav Tóth
+
+   This program is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program. If not, see <http://www.gnu.org/licenses/>.*/
+
+package sk.jdecors.locker.aspects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sk.jdecors.locker.annotations.LockedForUpgradableRead;
+
+class UpgradableReadTest {
+
+    private static final int MAX_WAIT_TIME = 1000;
+
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final LockData lockData = new LockData(0, new StampedLockWithBarrier());
+
+    private static final class UpgradableMethods {
+        @LockedForUpgradableRead
+        String read() {
+            return "read";
+        }
+
+        @LockedForUpgradableRead
+        CompletableFuture<String> readAsync() {
+            return CompletableFuture.completedFuture("read");
+        }
+    }
+
+    @AfterEach
+    void shutdownExecutor() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testSingleUpgradableReaderCoexistsWithPlainReaders() throws Exception {
+        lockData.allocateUpgradableReadLock();
+        Assertions.assertTrue(executorService.submit(() -> {
+            final boolean acquired = lockData.tryAllocateReadLock();
+            lockData.unlockReadLock();
+            return acquired;
+        }).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateUpgradableReadLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockUpgradableReadLock();
+        Assertions.assertTrue(executorService.submit(() -> {
+            final boolean acquired = lockData.tryAllocateUpgradableReadLock();
+            lockData.unlockUpgradableReadLock();
+            return acquired;
+        }).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testUpgradeIsConvertedInPlaceWithoutBarrier() throws Exception {
+        lockData.allocateUpgradableReadLock();
+        lockData.allocateWriteLock();
+        Assertions.assertFalse(executorService.submit(() -> lockData.tryAllocateReadLock())
+            .get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockWriteLock();
+        // barrier upgrade would reject readers until the upgraded read lock is released
+        Assertions.assertTrue(executorService.submit(() -> {
+            final boolean acquired = lockData.tryAllocateReadLock();
+            lockData.unlockReadLock();
+            return acquired;
+        }).get(MAX_WAIT_TIME, TimeUnit.MILLISECONDS));
+        lockData.unlockUpgradableReadLock();
+        Assertions.assertEquals(LockData.CurrentThreadLockState.UNLOCKED, lockData.getLockStateInCurrentThread());
+    }
+
+    @Test
+    void testUpgradableReadLockIsNotAcquiredOverPlainReadLock() {
+        lockData.allocateReadLock();
+        Assertions.assertThrows(IllegalStateException.class, lockData::allocateUpgradableReadLock);
+        lockData.unlockReadLock();
+        Assertions.assertThrows(IllegalStateException.class, lockData::unlockUpgradableReadLock);
+    }
+
+    @Test
+    void testAdviceOfUpgradableReadMethods() throws Throwable {
+        final ReadWriteLocker locker = new ReadWriteLocker();
+        Assertions.assertEquals("read", locker.upgradableReadLock(TestJoinPoint.of(UpgradableMethods.class, "read",
+            new UpgradableMethods()).withBody(() -> "read")));
+        Assertions.assertThrows(IllegalStateException.class, () -> locker.upgradableReadLock(TestJoinPoint.of(
+            UpgradableMethods.class, "readAsync", new UpgradableMethods())));
+    }
+}
\ No newline at end of file